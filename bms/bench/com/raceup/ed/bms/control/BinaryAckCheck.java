@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.models.stream.bms.BinaryFrameEncoder;
+import com.raceup.ed.bms.models.stream.bms.BinaryFrameParser;
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+import com.raceup.ed.bms.models.stream.transport.AbstractTransport;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of binary acknowledgements: commands are sent on a channel,
+ * the reference encoder builds the status records a board answers with,
+ * BinaryFrameParser decodes them and the channel must complete each
+ * command after a single write. Exits with status 1 otherwise.
+ */
+public class BinaryAckCheck {
+    private static final BinaryFrameEncoder encoder = new
+            BinaryFrameEncoder();
+    private static final BinaryFrameParser parser = new BinaryFrameParser();
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Board board = new Board();
+        CommandChannel channel = new CommandChannel(board);
+
+        for (BmsOperatingMode.OperatingMode key : BmsOperatingMode
+                .OperatingMode.values()) {
+            BmsOperatingMode mode = Bms.OPERATING_MODE.get(key);
+            CompletableFuture<String> sent = channel.send(mode
+                    .getArduinoCommand(), mode::isAcknowledgedBy);
+            String status = receive(1, BinaryFrameParser.STATUS_COMMAND,
+                    mode.getArduinoCommand().charAt(0));
+            check(channel, status, sent, board);
+            for (BmsOperatingMode other : Bms.OPERATING_MODE.values()) {
+                if (other != mode && other.isAcknowledgedBy(status)) {
+                    fail(other.getDescription() + " acknowledged by " +
+                            status);
+                }
+            }
+        }
+
+        String prefix = Bms.BLEED_COMMAND + " 3";  // as Bms.sendBleedTimes
+        CompletableFuture<String> sent = channel.send(prefix + " 0 120 0",
+                status -> (status.trim() + " ").startsWith(prefix + " "));
+        board.awaitWrite();
+        channel.onStatus(receive(13, BinaryFrameParser.STATUS_BLEED, 0));
+        if (sent.isDone()) {
+            fail("bleed times acknowledged by another bms");
+        }
+        check(channel, receive(3, BinaryFrameParser.STATUS_BLEED, 0), sent,
+                board);
+
+        String unknown = receive(1, 0x7F, 1);
+        if (!unknown.equals(Integer.toString(0x7F01))) {
+            fail("unknown status turned into " + unknown);
+        }
+
+        channel.close();
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    /**
+     * Encodes status record as a board would, then parses it
+     *
+     * @return text of parsed status
+     */
+    private static String receive(int bms, int code, int argument) {
+        byte[] frame = encoder.encode(BmsSample.TYPE_STATUS, bms, 0,
+                BinaryFrameEncoder.statusValue(code, argument));
+        BmsSample sample = new BmsSample();
+        if (!parser.parse(frame, frame.length - 1, sample) || sample
+                .getType() != BmsSample.TYPE_STATUS) {  // without delimiter
+            fail("status record not parsed");
+            return "";
+        }
+        return sample.getStatus();
+    }
+
+    /**
+     * Gives status to channel: command must be acknowledged after a single
+     * write
+     */
+    private static void check(CommandChannel channel, String status,
+                              CompletableFuture<String> sent, Board board)
+            throws Exception {
+        board.awaitWrite();
+        channel.onStatus(status);
+        if (!sent.isDone() || sent.isCompletedExceptionally() || board
+                .writes != 1) {
+            fail("\"" + status + "\" did not acknowledge command (" +
+                    board.writes + " writes)");
+        } else {
+            System.out.println("\"" + sent.get() + "\" acknowledged " +
+                    "command after 1 write");
+        }
+        board.writes = 0;
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        failures++;
+    }
+
+    /**
+     * Board that records commands written to it
+     */
+    private static class Board extends AbstractTransport {
+        private volatile int writes = 0;
+
+        private Board() {
+            super("BOARD", "board");
+        }
+
+        private void awaitWrite() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS
+                    .toNanos(CommandChannel.ACK_TIMEOUT);
+            while (writes == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void write(byte[] data) {
+            writes++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+
+/**
+ * Feeds frame counters and board clocks of known streams to LinkStats and
+ * checks lost frames and restarts it counts: restarts from counters below
+ * and above 32768, with and without board clock, wraps of counter and
+ * clock, gaps, late and duplicated frames. Exits with status 1 otherwise.
+ * Without board clock a restart close to 65535 looks like a wrap, so it is
+ * not checked.
+ */
+public class LinkStatsCheck {
+    private static final BmsSample sample = new BmsSample();
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        LinkStats stats = new LinkStats();
+        send(stats, 0, 20000, -1);
+        send(stats, 0, 100, -1);
+        check("restart from 20000", stats, 0, 1);
+
+        stats = new LinkStats();
+        send(stats, 0, 40001, -1);
+        send(stats, 0, 100, -1);
+        check("restart from 40000", stats, 0, 1);
+
+        stats = new LinkStats();
+        send(stats, 0, 32770, -1);
+        send(stats, 0, 100, -1);
+        check("restart from 32769", stats, 0, 1);
+
+        stats = new LinkStats();
+        send(stats, 60000, 65536, -1);  // wraps
+        send(stats, 0, 100, -1);
+        check("counter wrap", stats, 0, 0);
+
+        stats = new LinkStats();
+        send(stats, 35000, 36000, 1000);
+        send(stats, 36010, 36030, 2010);  // 10 lost
+        send(stats, 36005, 36006, 2005);  // late, found
+        send(stats, 36020, 36021, 2020);  // duplicated
+        check("gap, late and duplicated frames", stats, 9, 0);
+
+        stats = new LinkStats();
+        send(stats, 40000, 41000, 500000);
+        send(stats, 5000, 5100, 0);  // counter alone looks like a gap
+        check("restart seen by board clock", stats, 0, 1);
+
+        stats = new LinkStats();
+        send(stats, 0, 1000, (1L << 32) - 500);  // clock wraps
+        check("clock wrap", stats, 0, 0);
+
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    /**
+     * Sends frames with counters from first (included) to last (excluded)
+     *
+     * @param clock board clock of first frame (ms, one frame per ms), -1
+     *              not to send it
+     */
+    private static void send(LinkStats stats, int first, int last, long
+            clock) {
+        for (int sequence = first; sequence < last; sequence++) {
+            long timestamp = clock < 0 ? -1 : (clock + sequence - first) &
+                    0xFFFFFFFFL;
+            sample.setFrameInfo(sequence & 0xFFFF, timestamp);
+            stats.onFrame(sample, System.nanoTime());
+        }
+    }
+
+    private static void check(String name, LinkStats stats, long lost, long
+            restarts) {
+        boolean passed = stats.getLost() == lost && stats.getRestarts() ==
+                restarts;
+        System.out.println((passed ? "ok     " : "FAILED ") + name + ": " +
+                stats.getLost() + " lost (expected " + lost + "), " + stats
+                .getRestarts() + " restarts (expected " + restarts + ")");
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Random;
+
+/**
+ * Measures outlier detection of a full pack once per update cycle, as the
+ * bms thread does: every cell gets a new voltage, the update is published,
+ * then PackStore.detectOutliers scores all cells. Cells deviating from
+ * their segment are injected and must be found. Run with the number of
+ * segments, bms per segment and cells per bms (default 20 10 10, 2000
+ * cells).
+ */
+public class OutlierBenchmark {
+    private static final int CYCLES = 2000;  // per round
+    private static final int ROUNDS = 5;  // first ones warm up
+    private static final int READS = 100000;
+    private static final double NOISE = 4.0;  // mV, sigma of cells
+
+    public static void main(String[] args) {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int bmsPerSegment = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int cellsPerBms = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        PackStore store = new PackStore(segments, bmsPerSegment,
+                cellsPerBms);
+        int lowBms = store.getNumberOfBms() / 3;  // cells to find
+        int highBms = store.getNumberOfBms() * 2 / 3;
+        Random random = new Random(1);
+        double[] noise = new double[4096];  // not drawn while measuring
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = random.nextGaussian() * NOISE;
+        }
+        int next = 0;
+        System.out.println(store.getNumberOfCells() + " cells, " + CYCLES +
+                " cycles per round");
+
+        OutlierReport report = new OutlierReport();
+        for (int round = 1; round <= ROUNDS; round++) {
+            long writing = 0;
+            long detecting = 0;
+            long maxDetecting = 0;
+            for (int cycle = 0; cycle < CYCLES; cycle++) {
+                long start = System.nanoTime();
+                long stamp = store.beginUpdate();
+                for (int bms = 0; bms < store.getNumberOfBms(); bms++) {
+                    int segment = store.getSegmentOfBms(bms);
+                    for (int cell = 0; cell < store.getNumberOfCells(bms);
+                         cell++) {
+                        store.setVoltage(bms, cell, 3700.0 + segment * 10.0
+                                + noise[next]);
+                        next = (next + 7) % noise.length;
+                    }
+                }
+                store.setVoltage(lowBms, 0, 3650.0 + store
+                        .getSegmentOfBms(lowBms) * 10.0);  // -50 mV
+                store.setVoltage(highBms, 1, 3760.0 + store
+                        .getSegmentOfBms(highBms) * 10.0);  // +60 mV
+                store.endUpdate(stamp);
+
+                long published = System.nanoTime();
+                store.detectOutliers();
+                long detected = System.nanoTime() - published;
+                writing += published - start;
+                detecting += detected;
+                maxDetecting = Math.max(maxDetecting, detected);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                store.readOutliers(report);
+            }
+            long reading = System.nanoTime() - start;
+            System.out.printf("round %d: update %.1f us, detectOutliers " +
+                            "%.1f us (max %.1f us), readOutliers %.0f ns%n",
+                    round, writing / 1e3 / CYCLES, detecting / 1e3 / CYCLES,
+                    maxDetecting / 1e3, reading / (double) READS);
+        }
+
+        System.out.println(report);
+        if (store.getOutlierScore(lowBms, 0) > -OutlierDetector
+                .DEFAULT_THRESHOLD || store.getOutlierScore(highBms, 1) <
+                OutlierDetector.DEFAULT_THRESHOLD) {
+            throw new IllegalStateException("Injected outliers not found");
+        }
+    }
+}
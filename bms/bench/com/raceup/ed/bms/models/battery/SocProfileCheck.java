@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Runs SocEstimator on a synthetic discharge profile whose true state of
+ * charge is known by coulomb counting: rest, constant current discharge,
+ * rest, second discharge, rest. Cell voltage is the OCV of the true state
+ * of charge minus the drop on the internal resistance, plus 1 mV of noise;
+ * measured current has a 2% gain error.
+ * With pack current the estimate must stay within ERROR of the truth at all
+ * times (at rest once rest time is over). Without current the estimate
+ * lags under load (see SocEstimator): it is only checked at rest and must
+ * never be above the truth, its error under load is printed.
+ * Exits with status 1 if an estimate leaves its bounds.
+ */
+public class SocProfileCheck {
+    private static final double CAPACITY = BalancingPlanner
+            .DEFAULT_CELL_CAPACITY;  // Ah
+    private static final double RESISTANCE = 0.05;  // Ohm, internal
+    private static final double CURRENT = 3.0;  // A of discharges
+    private static final double CURRENT_GAIN = 1.02;  // of current sensor
+    private static final double START_SOC = 70.0;  // %
+    private static final long STEP = 1000;  // ms between voltages
+    private static final long REST = 60000;  // ms of each rest
+    private static final long DISCHARGE = 300000;  // ms of each discharge
+    private static final double ERROR = 1.0;  // % of state of charge
+    private static final double[] OCV = SocEstimator.DEFAULT_OCV;
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("with pack current:");
+        run(true);
+        System.out.println("without pack current:");
+        run(false);
+
+        if (failures > 0) {
+            System.out.println(failures + " estimates out of bounds");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    /**
+     * Runs profile on a new estimator
+     *
+     * @param withCurrent True iff estimator is given pack current
+     */
+    private static void run(boolean withCurrent) {
+        SocEstimator estimator = new SocEstimator(1);
+        estimator.setCellCapacity(CAPACITY);
+        long[] phases = {REST, DISCHARGE, REST, DISCHARGE, REST};
+        double soc = START_SOC;  // true, by coulomb counting
+        long now = 0;  // ns
+        long step = STEP * 1000000L;
+        double maxRestError = 0.0;
+        double maxLoadError = 0.0;  // absolute
+        double maxOverestimate = Double.NEGATIVE_INFINITY;
+
+        for (int phase = 0; phase < phases.length; phase++) {
+            double current = phase % 2 == 1 ? CURRENT : 0.0;
+            for (long time = 0; time < phases[phase]; time += STEP) {
+                double voltage = socToOcv(soc) - current * RESISTANCE *
+                        1000.0 + (time / STEP) % 2;
+                double measured = withCurrent ? current * CURRENT_GAIN :
+                        Double.NaN;
+                double estimate = estimator.update(0, voltage, measured,
+                        now);
+                double error = estimate - soc;
+                maxOverestimate = Math.max(maxOverestimate, error);
+                if (estimator.isAtRest(0, now)) {
+                    maxRestError = Math.max(maxRestError, Math.abs(error));
+                    if (Math.abs(error) > ERROR) {
+                        failures++;
+                    }
+                } else {
+                    maxLoadError = Math.max(maxLoadError, Math.abs(error));
+                    if (withCurrent && Math.abs(error) > ERROR) {
+                        failures++;
+                    }
+                }
+                if (!withCurrent && error > ERROR) {
+                    failures++;  // lag must err on the low side
+                }
+
+                soc -= current * STEP / 3600000.0 / CAPACITY * 100.0;
+                now += step;
+            }
+            System.out.printf("  after phase %d (%s): true %.1f%%, " +
+                            "estimate %.1f%%%n", phase + 1, current == 0.0 ?
+                            "rest" : "discharge", soc, estimator.getSoc(0));
+        }
+
+        System.out.printf("  max error at rest %.2f%% (bound %.1f%%)%n",
+                maxRestError, ERROR);
+        System.out.printf("  max error under load %.2f%% (%s), max above " +
+                        "truth %.2f%%%n", maxLoadError, withCurrent ?
+                        "bound " + ERROR + "%" : "not bounded",
+                maxOverestimate);
+    }
+
+    /**
+     * Inverts OCV table (linear between entries)
+     *
+     * @param soc state of charge (%)
+     * @return open circuit voltage (mV)
+     */
+    private static double socToOcv(double soc) {
+        double position = Math.max(0.0, Math.min(100.0, soc)) / 100.0 *
+                (OCV.length - 1);
+        int index = Math.min((int) position, OCV.length - 2);
+        return OCV[index] + (position - index) * (OCV[index + 1] -
+                OCV[index]);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares parsing json frames the old way (JSONObject, BmsData and
+ * BmsValue per line) with BmsFrameParser on the same mixed voltage and
+ * temperature frames. Run with the number of frames per round (default 2M).
+ */
+public class FrameParserBenchmark {
+    private static final int FRAMES = 64;  // distinct frames, cycled
+    private static final int ROUNDS = 5;  // first ones warm up
+    private static double sink = 0.0;  // keeps results alive
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        String[] lines = new String[FRAMES];
+        byte[][] frames = new byte[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            lines[i] = frame(i);
+            frames[i] = lines[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long json = runJson(lines, count);
+            long parser = runParser(frames, count);
+            System.out.printf("round %d: json %.0f ns/frame, parser %.0f " +
+                            "ns/frame (x%.1f)%n", round, json / (double)
+                            count, parser / (double) count,
+                    json / (double) parser);
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    /**
+     * Builds a frame like the ones sent by arduino: voltages of 6 cells
+     * and a temperature every 8 frames, from 24 bms
+     */
+    private static String frame(int i) {
+        int bms = i % 24 + 1;
+        if (i % 8 == 7) {
+            return "{\"type\":\"temperature_1\",\"BMS\":\"" + bms + "\"," +
+                    "\"value\":\"31.5\"}";
+        }
+        return "{\"type\":\"voltage_" + (i % 6 + 1) + "\",\"BMS\":\"" + bms +
+                "\",\"value\":\"" + (3600 + i) + "\"}";
+    }
+
+    private static long runJson(String[] lines, int count) {
+        double sum = 0.0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BmsValue value = new BmsValue(new BmsData(new JSONObject(
+                    lines[i % FRAMES])));
+            sum += value.getValue() + value.getCell();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return elapsed;
+    }
+
+    private static long runParser(byte[][] frames, int count) {
+        BmsFrameParser parser = new BmsFrameParser();
+        BmsSample sample = new BmsSample();
+        double sum = 0.0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = frames[i % FRAMES];
+            parser.parse(frame, frame.length, sample);
+            sum += sample.getValue() + sample.getCell();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (parser.getMalformedFrames() > 0) {
+            throw new IllegalStateException("Benchmark frames not parsed");
+        }
+        sink += sum;
+        return elapsed;
+    }
+}
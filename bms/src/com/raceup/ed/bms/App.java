@@ -17,79 +17,288 @@
 package com.raceup.ed.bms;
 
 import com.raceup.ed.bms.control.Bms;
+import com.raceup.ed.bms.control.BmsOperatingMode;
+import com.raceup.ed.bms.control.Fleet;
+import com.raceup.ed.bms.control.IngestLink;
+import com.raceup.ed.bms.control.LinkWatchdog;
+import com.raceup.ed.bms.logging.AlarmLog;
 import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.alarm.AlarmRules;
 import com.raceup.ed.bms.models.battery.Pack;
-import com.raceup.ed.bms.models.stream.serial.ArduinoSerial;
+import com.raceup.ed.bms.models.battery.PackTopology;
+import com.raceup.ed.bms.models.stream.bms.SampleQueue;
+import com.raceup.ed.bms.models.stream.transport.Transport;
+import com.raceup.ed.bms.models.stream.transport.Transports;
+import com.raceup.ed.bms.ui.FleetGui;
 import com.raceup.ed.bms.ui.Gui;
 
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import static com.raceup.ed.bms.utils.Os.setNativeLookAndFeelOrFail;
 
 /**
  * App driver program
  * Run BmsGUI or simple BmsUtils monitor here
+ * Usage: App [--pack NAME] [--transport serial[:PORT[:BAUD]] | tcp:HOST:PORT |
+ * replay:FILE[:BYTES_PER_SECOND[:loop]]][@BMS_OFFSET] ... [--topology FILE]
+ * [--alarms FILE] ... [--queue block | drop-oldest | coalesce[:CAPACITY]]
+ * [--watchdog MS] (repeat --transport to merge many boards in the same pack,
+ * repeat --pack to monitor many packs: following --transport, --topology
+ * and --alarms belong to it)
  */
 class App extends Debugger {
-    private Pack battery;
-    private ArduinoSerial arduino;
-    private Bms bms;
-    private Gui ui;
+    private static final String PACK_OPTION = "--pack";
+    private static final String TRANSPORT_OPTION = "--transport";
+    private static final String QUEUE_OPTION = "--queue";
+    private static final String WATCHDOG_OPTION = "--watchdog";
+    private static final String TOPOLOGY_OPTION = "--topology";
+    private static final String ALARMS_OPTION = "--alarms";
+    private static final String OFFSET_SEPARATOR = "@";
+    private static final String DEFAULT_PACK_NAME = "pack";
+    private final PackOptions[] packOptions;
+    private final String queueDescription;
+    private final long watchdogDeadline;  // ms, 0 to disable
+    private final ArrayList<LinkWatchdog> watchdogs = new ArrayList<>();
+    private Gui ui;  // when monitoring one pack
+    private FleetGui fleetUi;  // when monitoring many packs
 
-    public App() {
+    public App(PackOptions[] packOptions, String queueDescription,
+               long watchdogDeadline) {
         super("APP", true);
+        this.packOptions = packOptions;
+        this.queueDescription = queueDescription;
+        this.watchdogDeadline = watchdogDeadline;
         setup();
     }
 
     public static void main(String[] args) {
-        App app = new App();
+        ArrayList<PackOptions> packs = new ArrayList<>();
+        String queue = "coalesce";
+        long watchdogDeadline = LinkWatchdog.DEFAULT_DEADLINE;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(PACK_OPTION)) {
+                packs.add(new PackOptions(args[i + 1]));
+            } else if (args[i].equals(TRANSPORT_OPTION)) {
+                lastPack(packs).transports.add(args[i + 1]);
+            } else if (args[i].equals(TOPOLOGY_OPTION)) {
+                lastPack(packs).topologyFile = args[i + 1];
+            } else if (args[i].equals(ALARMS_OPTION)) {
+                lastPack(packs).alarmsFile = args[i + 1];
+            } else if (args[i].equals(QUEUE_OPTION)) {
+                queue = args[i + 1];
+            } else if (args[i].equals(WATCHDOG_OPTION)) {
+                watchdogDeadline = Long.parseLong(args[i + 1]);
+            }
+        }
+
+        lastPack(packs);  // at least one pack
+        for (PackOptions pack : packs) {
+            if (pack.transports.isEmpty()) {
+                pack.transports.add(Transports.SERIAL);  // first free port
+            }
+        }
+
+        App app;
+        try {
+            app = new App(packs.toArray(new PackOptions[packs.size()]),
+                    queue, watchdogDeadline);
+        } catch (IllegalStateException e) {
+            System.exit(1);  // already logged, links may still be reading
+            return;
+        }
         app.start();
     }
 
+    private static PackOptions lastPack(ArrayList<PackOptions> packs) {
+        if (packs.isEmpty()) {
+            packs.add(new PackOptions(DEFAULT_PACK_NAME));
+        }
+        return packs.get(packs.size() - 1);
+    }
+
+    /**
+     * Builds ingest pipeline from description (e.g serial:COM4@12)
+     *
+     * @param description transport and optional bms offset
+     * @return new link (transport not open)
+     */
+    private IngestLink parseLink(String description) {
+        String[] tokens = description.split(OFFSET_SEPARATOR);
+        int bmsOffset = tokens.length > 1 ? Integer.parseInt(tokens[1]) : 0;
+        Transport transport = Transports.parse(tokens[0]);
+        return new IngestLink(transport, parseQueue(queueDescription),
+                bmsOffset);
+    }
+
+    /**
+     * Builds ingest queue from description (e.g drop-oldest:8192)
+     *
+     * @param description overflow policy and optional capacity
+     * @return new queue
+     */
+    private static SampleQueue parseQueue(String description) {
+        String[] tokens = description.split(":");
+        int capacity = tokens.length > 1 ? Integer.parseInt(tokens[1]) :
+                SampleQueue.DEFAULT_CAPACITY;
+        switch (tokens[0]) {
+            case "block":
+                return new SampleQueue(capacity, SampleQueue.OverflowPolicy
+                        .BLOCK);
+            case "drop-oldest":
+                return new SampleQueue(capacity, SampleQueue.OverflowPolicy
+                        .DROP_OLDEST);
+            case "coalesce":
+                return new SampleQueue(capacity, SampleQueue.OverflowPolicy
+                        .COALESCE_LATEST);
+        }
+        throw new IllegalArgumentException("Unknown queue " + description);
+    }
+
     private void setup() {
         setNativeLookAndFeelOrFail();
 
-        try {
-            battery = new Pack(8, 3);
-        } catch (Exception e) {
-            logException(e);
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Bms> monitors = new ArrayList<>();
+        for (PackOptions options : packOptions) {
+            try {
+                monitors.add(setupPack(options));
+                names.add(options.name);
+            } catch (Exception e) {
+                logException(e);
+            }
+        }
+        if (monitors.isEmpty()) {
+            logError("No pack could be set up");
+            throw new IllegalStateException("No pack could be set up");
         }
 
         try {
-            arduino = new ArduinoSerial(115200);
+            if (monitors.size() == 1) {
+                ui = new Gui(monitors.get(0));
+                ui.addWindowListener(new WindowAdapter() {
+                    public void windowClosing(WindowEvent e) {
+                        closeWatchdogs();  // before links close
+                        ui.close();
+                        System.exit(0);
+                    }
+                });
+            } else {
+                fleetUi = new FleetGui(new Fleet(names.toArray(new
+                        String[names.size()]), monitors.toArray(new
+                        Bms[monitors.size()])));
+                fleetUi.addWindowListener(new WindowAdapter() {
+                    public void windowClosing(WindowEvent e) {
+                        closeWatchdogs();  // before links close
+                        fleetUi.close();
+                        System.exit(0);
+                    }
+                });
+            }
         } catch (Exception e) {
             logException(e);
+            closeWatchdogs();
+            throw new IllegalStateException("Cannot open monitor", e);
         }
+    }
 
-        try {
-            bms = new Bms(arduino, battery);
-        } catch (Exception e) {
-            logException(e);
+    /**
+     * Stops recovering links of all packs
+     */
+    private void closeWatchdogs() {
+        for (LinkWatchdog watchdog : watchdogs) {
+            watchdog.close();
         }
+    }
 
-        try {
-            ui = new Gui(bms);
-            ui.addWindowListener(new WindowAdapter() {
-                public void windowClosing(WindowEvent e) {
-                    ui.close();
-                    System.exit(0);
-                }
-            });
-        } catch (Exception e) {
-            logException(e);
+    /**
+     * Builds model, links, monitor and watchdog of a pack
+     *
+     * @param options what to monitor
+     * @return monitor of pack (not running)
+     * @throws IOException when topology or alarm rules cannot be read
+     */
+    private Bms setupPack(PackOptions options) throws IOException {
+        PackTopology topology = options.topologyFile == null ? PackTopology
+                .loadDefault() : PackTopology.load(new File(options
+                .topologyFile));
+        Pack battery = new Pack(topology);
+        logAction(options.name + ": " + topology);
+
+        ArrayList<IngestLink> parsed = new ArrayList<>();
+        for (String description : options.transports) {
+            try {
+                parsed.add(parseLink(description));
+            } catch (Exception e) {
+                logException(e);
+            }
         }
+        IngestLink[] links = parsed.toArray(new IngestLink[parsed.size()]);
+
+        for (IngestLink link : links) {
+            try {
+                link.getTransport().open();  // each link has its own reader
+            } catch (Exception e) {
+                logException(e);
+            }
+        }
+
+        Bms bms = new Bms(links, battery);
+        AlarmRules rules = options.alarmsFile == null ? AlarmRules
+                .loadDefault() : AlarmRules.load(new File(options.alarmsFile));
+        bms.setAlarmRules(rules);
+        bms.getAlarmEngine().addListener(new AlarmLog(options.name));
+        logAction(options.name + ": " + rules);
+
+        if (watchdogDeadline > 0) {
+            try {
+                LinkWatchdog watchdog = new LinkWatchdog(links,
+                        watchdogDeadline);
+                watchdog.setExpectingData(() -> bms.getMode() !=
+                        BmsOperatingMode.OperatingMode.SLEEP);
+                watchdog.setReconnectListener(bms::onReconnect);
+                watchdog.start();
+                watchdogs.add(watchdog);
+            } catch (Exception e) {
+                logException(e);
+            }
+        }
+        return bms;
     }
 
     // todo measure lag between when serial receives data and when updates
     // model and screen
     public void start() {
         try {
-            ui.open();  // start frontend
-            Thread thread = new Thread(ui);  // start thread
+            Runnable frontend;
+            if (ui != null) {
+                ui.open();  // start frontend
+                frontend = ui;
+            } else {
+                fleetUi.open();
+                frontend = fleetUi;
+            }
+            Thread thread = new Thread(frontend);  // start thread
             thread.start();
         } catch (Exception e) {
             logException(e);
         }
     }
+
+    /**
+     * What to monitor in a pack (from command line)
+     */
+    private static class PackOptions {
+        private final String name;
+        private final ArrayList<String> transports = new ArrayList<>();
+        private String topologyFile = null;  // null for pack of the car
+        private String alarmsFile = null;  // null for rules of the car
+
+        private PackOptions(String name) {
+            this.name = name;
+        }
+    }
 }
@@ -18,16 +18,23 @@
 package com.raceup.ed.bms.control;
 
 import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.alarm.AlarmEngine;
+import com.raceup.ed.bms.models.alarm.AlarmRules;
+import com.raceup.ed.bms.models.battery.BalancingPlan;
+import com.raceup.ed.bms.models.battery.BalancingPlanner;
 import com.raceup.ed.bms.models.battery.BmsStatus;
 import com.raceup.ed.bms.models.battery.Pack;
-import com.raceup.ed.bms.models.stream.bms.BmsData;
+import com.raceup.ed.bms.models.stream.bms.BinaryFrameParser;
 import com.raceup.ed.bms.models.stream.bms.BmsLog;
-import com.raceup.ed.bms.models.stream.bms.BmsValue;
-import com.raceup.ed.bms.models.stream.serial.ArduinoSerial;
-import org.json.JSONObject;
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+import com.raceup.ed.bms.models.stream.bms.SampleQueue;
+import com.raceup.ed.bms.models.stream.transport.Transport;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -35,11 +42,29 @@ import java.util.HashMap;
  * Provides data from arduino serial port
  */
 public class Bms extends Debugger implements Runnable {
-    private ArduinoSerial arduino;
+    private final IngestLink[] links;  // links with bms boards
+    private final CommandChannel[] commands;  // write on their own threads
     private boolean stopRequest = false;
-    private static final int WAIT_LOOP = 250;
-    private static final int MAX_RETRIES = 10;
+    static final int WAIT_LOOP = 250;  // ms between 2 loops
+    public static final String BLEED_COMMAND = BinaryFrameParser
+            .BLEED_STATUS;  // bms, seconds of cells
+    public static final long REPLAN_INTERVAL = 30000;  // ms when balancing
     private BmsStatus status = new BmsStatus(null);
+    private final SampleQueue.Batch batch;  // samples drained at once
+    private final BmsSample sample = new BmsSample();  // reused for each sample
+    private long outOfRangeSamples = 0;  // bms or cell not in pack
+    private volatile BmsOperatingMode.OperatingMode mode = BmsOperatingMode
+            .OperatingMode.NORMAL;  // last mode asked
+    private volatile BmsStreamFormat.StreamFormat format = BmsStreamFormat
+            .StreamFormat.JSON;  // last format asked
+    private final int[] linkOfBms;  // bms -> link its samples come from
+    private final boolean[] bleeding;  // bms -> last plan sent bleeds it
+    private volatile boolean balancingStarted = false;  // new session asked
+    private volatile int balancingSession = 0;  // sessions asked so far
+    private boolean stopping = false;  // waiting for boards to stop bleeding
+    private volatile BalancingPlan balancingPlan = null;  // last plan
+    private long nextPlanTime = 0;  // ms
+    private volatile AlarmEngine alarms = null;  // null if no rules
 
     public static final HashMap<BmsOperatingMode.OperatingMode, BmsOperatingMode> OPERATING_MODE;
 
@@ -59,6 +84,18 @@ public class Bms extends Debugger implements Runnable {
         );
     }
 
+    public static final HashMap<BmsStreamFormat.StreamFormat, BmsStreamFormat> STREAM_FORMAT;
+
+    static {
+        STREAM_FORMAT = new HashMap<>();
+        STREAM_FORMAT.put(BmsStreamFormat.StreamFormat.JSON,
+                new BmsStreamFormat("J", "Json")
+        );
+        STREAM_FORMAT.put(BmsStreamFormat.StreamFormat.BINARY,
+                new BmsStreamFormat("C", "Binary")
+        );
+    }
+
     private final Pack batteryPack;  // battery pack settings
 
     public final Pack getBatteryPack() {
@@ -66,15 +103,50 @@ public class Bms extends Debugger implements Runnable {
     }
 
     /**
-     * Create new arduino binding with default baud rate
+     * Create new bms monitor with default ingest queue
      *
+     * @param arduino     link with bms board
      * @param batteryPack virtual battery pock to monitor
      */
-    public Bms(ArduinoSerial arduino, Pack batteryPack) {
+    public Bms(Transport arduino, Pack batteryPack) {
+        this(new IngestLink(arduino, new SampleQueue()), batteryPack);
+    }
+
+    /**
+     * Create new bms monitor
+     *
+     * @param link        ingest pipeline of bms board
+     * @param batteryPack virtual battery pock to monitor
+     */
+    public Bms(IngestLink link, Pack batteryPack) {
+        this(new IngestLink[]{link}, batteryPack);
+    }
+
+    /**
+     * Create new bms monitor merging many boards in one pack. Each link is
+     * read by its own thread and has its own queue, only the bms thread
+     * writes in pack.
+     *
+     * @param links       ingest pipelines of bms boards
+     * @param batteryPack virtual battery pock to monitor
+     */
+    public Bms(IngestLink[] links, Pack batteryPack) {
         super("BMS", true);
-        this.arduino = arduino;
+        this.links = links;
         this.batteryPack = batteryPack;  // create battery pack model
 
+        int capacity = 0;
+        commands = new CommandChannel[links.length];
+        for (int i = 0; i < links.length; i++) {
+            capacity = Math.max(capacity, links[i].getQueue().getCapacity());
+            commands[i] = new CommandChannel(links[i].getTransport()
+                    .getName(), links[i]::getTransport);
+        }
+        this.batch = new SampleQueue.Batch(capacity);
+        linkOfBms = new int[batteryPack.getNumberOfBms()];
+        Arrays.fill(linkOfBms, links.length == 1 ? 0 : -1);
+        bleeding = new boolean[linkOfBms.length];
+
         setup();
     }
 
@@ -82,66 +154,225 @@ public class Bms extends Debugger implements Runnable {
         setNormalMode();  // start logging
     }
 
-    public ArrayList<BmsData> getNewestData() {
-        String[] buffer = arduino.getRawData();
-        ArrayList<BmsData> parsed = new ArrayList<>();
-        for (String data : buffer) {
-            try {
-                parsed.add(new BmsData(new JSONObject(data)));
-            } catch (Exception e) {
+    public IngestLink[] getLinks() {
+        return links;
+    }
+
+    /**
+     * Updates model with sample
+     *
+     * @param sample new sample coming from arduino
+     * @param link   index of link sample comes from
+     */
+    private void onSample(BmsSample sample, int link) {
+        switch (sample.getType()) {
+            case BmsSample.TYPE_VOLTAGE:
+            case BmsSample.TYPE_TEMPERATURE_1:
+            case BmsSample.TYPE_TEMPERATURE_2:
+                if (updateBatteryPack(sample)) {
+                    linkOfBms[sample.getBms() - 1] = link;
+                }
+                break;
+            case BmsSample.TYPE_CURRENT:
+                batteryPack.setCurrent(sample.getValue());  // any bms
+                break;
+            case BmsSample.TYPE_STATUS:
+                updateStatus(new BmsLog(sample.getBms(), sample.getStatus()));
+                commands[link].onStatus(sample.getStatus());
+                break;
+        }
+    }
+
+    /**
+     * Number of frames that could not be parsed
+     *
+     * @return number of malformed frames
+     */
+    public long getMalformedFrames() {
+        long malformedFrames = 0;
+        for (IngestLink link : links) {
+            malformedFrames += link.getMalformedFrames();
+        }
+        return malformedFrames;
+    }
+
+    /**
+     * Summary of link quality of each board
+     *
+     * @return one line for each link
+     */
+    public String getLinkSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (IngestLink link : links) {
+            if (summary.length() > 0) {
+                summary.append("; ");
             }
+            summary.append(link.getTransport().getName()).append(": ")
+                    .append(link.getStats());
         }
-        return parsed;
+        return summary.toString();
+    }
+
+    /**
+     * Number of samples referring to bms or cells not in pack
+     *
+     * @return number of discarded samples
+     */
+    public long getOutOfRangeSamples() {
+        return outOfRangeSamples;
     }
 
     /**
      * Update battery pack with new data
      *
      * @param data new data coming from arduino
+     * @return True iff bms of sample is in pack
      */
-    private void updateBatteryPack(BmsValue data) {
+    private boolean updateBatteryPack(BmsSample data) {
         int bms = data.getBms() - 1;
+        int cell = data.getCell() - 1;
         double value = data.getValue();
 
-        if (data.isTemperature()) {
-            if (data.isTemperature1()) {
+        if (bms < 0 || bms >= batteryPack.getNumberOfBms()) {
+            outOfRangeSamples++;
+            return false;
+        }
+
+        switch (data.getType()) {
+            case BmsSample.TYPE_VOLTAGE:
+                if (cell >= batteryPack.getNumberOfCells(bms)) {
+                    outOfRangeSamples++;
+                    return false;
+                }
+                batteryPack.setVoltage(bms, cell, value);  // if wired
+                break;
+            case BmsSample.TYPE_TEMPERATURE_1:
                 batteryPack.setTemperature1(bms, value);
-            } else if (data.isTemperature2()) {
+                break;
+            case BmsSample.TYPE_TEMPERATURE_2:
                 batteryPack.setTemperature2(bms, value);
-            }
-        } else if (data.isVoltage()) {
-            batteryPack.setVoltage(bms, data.getCell() - 1, value);
+                break;
         }
+        return true;
     }
 
     private void updateStatus(BmsLog log) {
         status.update(log);
     }
 
-    public void setMode(BmsOperatingMode.OperatingMode mode) {
+    /**
+     * Asks arduino boards to switch operating mode (never blocks)
+     *
+     * @param mode new operating mode
+     * @return future completed when all boards acknowledged mode
+     */
+    public CompletableFuture<String> setMode(BmsOperatingMode.OperatingMode
+                                                     mode) {
+        this.mode = mode;
+        if (mode == BmsOperatingMode.OperatingMode.BALANCE) {
+            balancingSession++;
+            balancingStarted = true;  // planned by bms thread
+        }
         BmsOperatingMode command = OPERATING_MODE.get(mode);
-        arduino.sendSerialData(command.getArduinoCommand(), MAX_RETRIES);
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        for (int i = 0; i < commands.length; i++) {
+            commands[i].cancelPending();  // new mode supersedes old ones
+            sent.add(commands[i].send(command.getArduinoCommand(),
+                    command::isAcknowledgedBy));
+        }
+        return allOf(sent);
+    }
+
+    /**
+     * Asks arduino boards to stream data in given format, then parses it
+     * (never blocks)
+     *
+     * @param format format of frames
+     * @return future completed when command is sent to all boards
+     */
+    public CompletableFuture<String> setStreamFormat(BmsStreamFormat
+                                                             .StreamFormat
+                                                             format) {
+        this.format = format;
+        BmsStreamFormat command = STREAM_FORMAT.get(format);
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        for (int i = 0; i < commands.length; i++) {
+            IngestLink link = links[i];
+            CompletableFuture<String> future = commands[i].send(command
+                    .getArduinoCommand());
+            future.thenRun(() -> link.setStreamFormat(format));
+            sent.add(future);
+        }
+        return allOf(sent);
+    }
+
+    /**
+     * Asks a board found again to stream in last format and mode asked (a
+     * board reset goes back to its default mode)
+     *
+     * @param link recovered link
+     * @return future completed when board acknowledged mode
+     */
+    public CompletableFuture<String> onReconnect(IngestLink link) {
+        for (int i = 0; i < links.length; i++) {
+            if (links[i] == link) {
+                BmsOperatingMode command = OPERATING_MODE.get(mode);
+                commands[i].cancelPending();
+                commands[i].send(STREAM_FORMAT.get(format)
+                        .getArduinoCommand());
+                return commands[i].send(command.getArduinoCommand(),
+                        command::isAcknowledgedBy);
+            }
+        }
+        throw new IllegalArgumentException("Unknown link " + link);
+    }
+
+    public BmsOperatingMode.OperatingMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Waits for all commands
+     *
+     * @param sent commands sent to each board
+     * @return future completed with result of first board when all
+     * completed
+     */
+    private static CompletableFuture<String> allOf(List<CompletableFuture<
+            String>> sent) {
+        if (sent.size() == 1) {
+            return sent.get(0);
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[
+                sent.size()])).thenApply(done -> sent.get(0).join());
     }
 
-    public void setNormalMode() {
-        setMode(BmsOperatingMode.OperatingMode.NORMAL);
+    public CompletableFuture<String> setNormalMode() {
+        return setMode(BmsOperatingMode.OperatingMode.NORMAL);
     }
 
-    public void setBalancingMode() {
-        setMode(BmsOperatingMode.OperatingMode.BALANCE);
+    public CompletableFuture<String> setBalancingMode() {
+        return setMode(BmsOperatingMode.OperatingMode.BALANCE);
     }
 
-    public void setSleepMode() {
-        setMode(BmsOperatingMode.OperatingMode.SLEEP);
+    public CompletableFuture<String> setSleepMode() {
+        return setMode(BmsOperatingMode.OperatingMode.SLEEP);
     }
 
-    public void setDebugMode() {
-        setMode(BmsOperatingMode.OperatingMode.DEBUG);
+    public CompletableFuture<String> setDebugMode() {
+        return setMode(BmsOperatingMode.OperatingMode.DEBUG);
     }
 
     public void close() {
         stopRequest = true;
-        arduino.close();
+        if (alarms != null) {
+            alarms.close();
+        }
+        for (int i = 0; i < links.length; i++) {
+            links[i].getQueue().close();
+            commands[i].close();
+            links[i].getTransport().close();
+        }
     }
 
     @Override
@@ -157,17 +388,159 @@ public class Bms extends Debugger implements Runnable {
     }
 
     public void loop() {
-        ArrayList<BmsData> newestData = getNewestData();
-        for (BmsData data : newestData) {
-            if (data != null)
-                if (data.isValueType()) {
-                    updateBatteryPack(new BmsValue(data));
-                } else if (data.isStatusType()) {
-                    updateStatus(new BmsLog(data));
+        for (int link = 0; link < links.length; link++) {
+            if (links[link].getQueue().drainTo(batch, 0) == 0) {
+                continue;
+            }
+
+            long stamp = batteryPack.beginUpdate();  // batch seen at once
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i, sample);
+                    onSample(sample, link);
+                }
+            } finally {
+                batteryPack.endUpdate(stamp);
+            }
+        }
+        batteryPack.expireStale();  // only visits channels due
+        batteryPack.detectOutliers();  // once per cycle, if anything changed
+        AlarmEngine engine = alarms;
+        if (engine != null) {
+            engine.evaluate();  // only channels changed since last loop
+        }
+        if (mode == BmsOperatingMode.OperatingMode.BALANCE) {
+            balance(System.currentTimeMillis());
+        }
+    }
+
+    /*
+     * Balancing
+     */
+
+    /**
+     * Plans balancing again when due and sends bleed times of cells to
+     * boards, until pack is balanced (bms thread)
+     *
+     * @param now current time (ms)
+     */
+    private void balance(long now) {
+        BalancingPlanner planner = batteryPack.getBalancingPlanner();
+        if (balancingStarted) {
+            balancingStarted = false;
+            stopping = false;
+            planner.reset();
+            Arrays.fill(bleeding, true);  // stop what boards did before
+            nextPlanTime = now;
+        }
+        if (stopping || now < nextPlanTime) {
+            return;
+        }
+
+        BalancingPlan plan = planner.plan();
+        balancingPlan = plan;
+        if (Double.isNaN(plan.getTarget())) {
+            return;  // no fresh voltage yet: plan again on next loop
+        }
+        nextPlanTime = now + REPLAN_INTERVAL;
+
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        for (int bms = 0; bms < bleeding.length; bms++) {
+            boolean bleeds = plan.isBleeding(bms);
+            if (bleeds || bleeding[bms]) {  // new times, or stop once
+                CompletableFuture<String> future = sendBleedTimes(plan, bms);
+                if (future != null) {
+                    sent.add(future);
+                }
+                bleeding[bms] = bleeds && future != null;
+            }
+        }
+
+        if (plan.isConverged()) {
+            logAction(plan.toString());
+            stopping = true;
+            int session = balancingSession;
+            CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[
+                    sent.size()])).whenComplete((done, error) -> {
+                if (session == balancingSession && mode == BmsOperatingMode
+                        .OperatingMode.BALANCE) {
+                    setNormalMode();  // would cancel stops still pending
                 }
+            });
         }
     }
 
+    /**
+     * Sends bleed times of cells of bms to its board (e.g "BP 3 0 120 0 0 45
+     * 0", bms numbered by board), acknowledged by a status starting with
+     * command and bms
+     *
+     * @param plan plan to send
+     * @param bms  index of bms in pack
+     * @return future completed when board acknowledged times, null if bms
+     * has no board to send to
+     */
+    private CompletableFuture<String> sendBleedTimes(BalancingPlan plan,
+                                                     int bms) {
+        int link = linkOfBms[bms];
+        if (link < 0) {
+            return null;  // board of bms not heard yet
+        }
+
+        String prefix = BLEED_COMMAND + " " + (bms + 1 - links[link]
+                .getBmsOffset());
+        StringBuilder command = new StringBuilder(prefix);
+        for (int cell = 0; cell < batteryPack.getNumberOfCells(bms); cell++) {
+            command.append(" ").append(plan.getBleedSeconds(bms, cell));
+        }
+        return commands[link].send(command.toString(), status -> (status
+                .trim() + " ").startsWith(prefix + " "));
+    }
+
+    /*
+     * Alarms
+     */
+
+    /**
+     * Checks rules on pack at every loop (before loop starts)
+     *
+     * @param rules rules to check
+     */
+    public void setAlarmRules(AlarmRules rules) {
+        if (alarms != null) {
+            alarms.close();
+        }
+        alarms = new AlarmEngine(batteryPack.getStore(), rules);
+    }
+
+    /**
+     * Gets engine of alarms of pack (e.g to subscribe)
+     *
+     * @return engine, null if no rules were set
+     */
+    public AlarmEngine getAlarmEngine() {
+        return alarms;
+    }
+
+    /**
+     * Asks to clear latched alarms whose condition is gone (any thread)
+     */
+    public void acknowledgeAlarms() {
+        AlarmEngine engine = alarms;
+        if (engine != null) {
+            engine.acknowledge();
+        }
+    }
+
+    /**
+     * Gets last balancing plan (any thread)
+     *
+     * @return plan, null if pack was never balanced
+     */
+    public BalancingPlan getBalancingPlan() {
+        return balancingPlan;
+    }
+
     public String getCurrentStatus() {
         return status.getStatus();
     }
@@ -17,6 +17,21 @@ public class BmsOperatingMode {
         return description;
     }
 
+    /**
+     * Check if arduino reports this mode in its status (status starts with
+     * command or description, case is ignored)
+     *
+     * @param status raw status sent by arduino
+     * @return True iff status acknowledges mode
+     */
+    public boolean isAcknowledgedBy(String status) {
+        String reported = status.trim();
+        return reported.regionMatches(true, 0, description, 0, description
+                .length()) || reported.equalsIgnoreCase(arduinoCommand) ||
+                reported.regionMatches(true, 0, arduinoCommand + " ", 0,
+                        arduinoCommand.length() + 1);
+    }
+
     public enum OperatingMode {
         NORMAL,
         BALANCE,
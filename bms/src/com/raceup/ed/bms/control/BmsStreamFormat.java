@@ -0,0 +1,24 @@
+package com.raceup.ed.bms.control;
+
+public class BmsStreamFormat {
+    private final String arduinoCommand;
+    private final String description;
+
+    public BmsStreamFormat(String arduinoCommand, String description) {
+        this.arduinoCommand = arduinoCommand;
+        this.description = description;
+    }
+
+    public String getArduinoCommand() {
+        return arduinoCommand;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public enum StreamFormat {
+        JSON,
+        BINARY
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.stream.transport.Transport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Sends commands to arduino on its own writer thread: callers never block.
+ * A command waiting for an acknowledgement is re-sent with exponential
+ * backoff until a status acknowledges it or attempts are over.
+ */
+public class CommandChannel extends Debugger {
+    public static final int MAX_ATTEMPTS = 5;
+    public static final long ACK_TIMEOUT = 500;  // ms before first re-send
+    private static final long MAX_BACKOFF = 2000;  // ms between 2 attempts
+    private final Supplier<Transport> arduino;  // current link with board
+    private final ScheduledExecutorService writer;
+    private final ConcurrentLinkedQueue<Command> pending = new
+            ConcurrentLinkedQueue<>();
+
+    /**
+     * Create new channel towards arduino
+     *
+     * @param arduino link with bms board
+     */
+    public CommandChannel(Transport arduino) {
+        this(arduino.getName(), () -> arduino);
+    }
+
+    /**
+     * Create new channel towards a link whose transport may be replaced
+     * (e.g when board is found on another port)
+     *
+     * @param name    name of link
+     * @param arduino gets current transport of link
+     */
+    public CommandChannel(String name, Supplier<Transport> arduino) {
+        super("COMMANDS " + name, true);
+        this.arduino = arduino;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "commands " + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends command once, without waiting for an acknowledgement
+     *
+     * @param data command to send
+     * @return future completed when command is written
+     */
+    public CompletableFuture<String> send(String data) {
+        return send(data, null);
+    }
+
+    /**
+     * Sends command until a status acknowledges it
+     *
+     * @param data         command to send
+     * @param acknowledged test on status telling if command has been
+     *                     executed, null not to wait for acknowledgement
+     * @return future completed with acknowledging status (or command if no
+     * acknowledgement is needed), failed with TimeoutException when all
+     * attempts are over
+     */
+    public CompletableFuture<String> send(String data, Predicate<String>
+            acknowledged) {
+        Command command = new Command(data, acknowledged);
+        if (acknowledged != null) {
+            pending.add(command);
+        }
+
+        try {
+            writer.execute(() -> attempt(command));
+        } catch (RejectedExecutionException e) {
+            pending.remove(command);
+            command.future.completeExceptionally(e);  // channel closed
+        }
+        return command.future;
+    }
+
+    /**
+     * Cancels commands waiting for an acknowledgement (e.g when a new mode
+     * supersedes them)
+     */
+    public void cancelPending() {
+        Command command;
+        while ((command = pending.poll()) != null) {
+            command.future.cancel(false);
+        }
+    }
+
+    /**
+     * Completes commands acknowledged by status (called by bms thread)
+     *
+     * @param status raw status sent by arduino
+     */
+    public void onStatus(String status) {
+        if (pending.isEmpty() || status == null) {
+            return;
+        }
+
+        Iterator<Command> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            if (command.acknowledged.test(status)) {
+                iterator.remove();
+                command.future.complete(status);
+            }
+        }
+    }
+
+    /**
+     * Stops writer thread and fails pending commands
+     */
+    public void close() {
+        writer.shutdownNow();
+        Command command;
+        while ((command = pending.poll()) != null) {
+            command.future.completeExceptionally(new CancellationException(
+                    "Channel closed"));
+        }
+    }
+
+    /**
+     * Writes command and schedules next attempt (on writer thread). Command
+     * fails when the ack window of its last attempt expires.
+     *
+     * @param command command to send
+     */
+    private void attempt(Command command) {
+        if (command.future.isDone()) {
+            pending.remove(command);
+            return;  // acknowledged or cancelled meanwhile
+        }
+
+        if (command.attempts >= MAX_ATTEMPTS) {  // last ack window expired
+            pending.remove(command);
+            command.future.completeExceptionally(new TimeoutException(
+                    "Giving up " + command.text + " after " + command
+                            .attempts + " attempts"));
+            return;
+        }
+
+        command.attempts++;
+        try {
+            arduino.get().write(command.data);
+            if (command.acknowledged == null) {
+                command.future.complete(command.text);
+                return;
+            }
+        } catch (Exception e) {
+            logError("Cannot send " + command.text + " (attempt # " + command
+                    .attempts + "): " + e.toString());
+        }
+
+        long backoff = Math.min(ACK_TIMEOUT << (command.attempts - 1),
+                MAX_BACKOFF);
+        writer.schedule(() -> attempt(command), backoff, TimeUnit
+                .MILLISECONDS);
+    }
+
+    /**
+     * Command sent and its state
+     */
+    private static class Command {
+        private final String text;
+        private final byte[] data;
+        private final Predicate<String> acknowledged;
+        private final CompletableFuture<String> future = new
+                CompletableFuture<>();
+        private int attempts = 0;  // only used by writer thread
+
+        private Command(String text, Predicate<String> acknowledged) {
+            this.text = text;
+            this.data = text.getBytes(StandardCharsets.US_ASCII);
+            this.acknowledged = acknowledged;
+        }
+    }
+}
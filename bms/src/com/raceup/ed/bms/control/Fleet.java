@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.battery.PackReadout;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many packs monitored in the same process (e.g charger bench). Each pack
+ * has its own links, queues, model and aggregates; their loops are sharded
+ * on a fixed pool of workers (one per core at most). A pack always runs on
+ * the same worker, so each model still has a single writer thread.
+ */
+public class Fleet extends Debugger {
+    private final String[] names;
+    private final Bms[] packs;
+    private final ScheduledExecutorService[] workers;
+    private final int[] shardOfPack;
+    private volatile boolean closed = false;
+
+    /**
+     * Builds fleet with one worker per core
+     *
+     * @param names names of packs
+     * @param packs monitors of packs (not running)
+     */
+    public Fleet(String[] names, Bms[] packs) {
+        this(names, packs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds fleet
+     *
+     * @param names   names of packs
+     * @param packs   monitors of packs (not running)
+     * @param workers max number of worker threads
+     */
+    public Fleet(String[] names, Bms[] packs, int workers) {
+        super("FLEET", true);
+        if (names.length != packs.length || packs.length == 0) {
+            throw new IllegalArgumentException("One name for each pack");
+        }
+
+        this.names = names;
+        this.packs = packs;
+        this.workers = new ScheduledExecutorService[Math.max(1, Math.min(
+                workers, packs.length))];
+        for (int i = 0; i < this.workers.length; i++) {
+            String name = "fleet " + i;
+            this.workers[i] = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> new Thread(runnable, name));
+        }
+        shardOfPack = new int[packs.length];
+        for (int pack = 0; pack < packs.length; pack++) {
+            shardOfPack[pack] = pack % this.workers.length;
+        }
+    }
+
+    /**
+     * Starts loops of all packs
+     */
+    public void start() {
+        for (int shard = 0; shard < workers.length; shard++) {
+            final int current = shard;
+            workers[shard].scheduleWithFixedDelay(() -> loop(current), 0, Bms
+                    .WAIT_LOOP, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drains queues of packs of shard (on its worker)
+     *
+     * @param shard index of worker
+     */
+    private void loop(int shard) {
+        for (int pack = shard; pack < packs.length && !closed; pack +=
+                workers.length) {
+            try {
+                packs[pack].loop();
+            } catch (Exception e) {
+                logError(names[pack] + ": " + e.toString());  // others go on
+            }
+        }
+    }
+
+    /**
+     * Stops workers and closes all packs
+     */
+    public void close() {
+        closed = true;
+        for (ScheduledExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        for (Bms pack : packs) {
+            pack.close();
+        }
+    }
+
+    public int getNumberOfPacks() {
+        return packs.length;
+    }
+
+    public int getNumberOfWorkers() {
+        return workers.length;
+    }
+
+    public String getName(int pack) {
+        return names[pack];
+    }
+
+    public Bms getBms(int pack) {
+        return packs[pack];
+    }
+
+    /**
+     * Gets worker running loop of pack
+     *
+     * @param pack index of pack in fleet
+     * @return index of worker
+     */
+    public int getShard(int pack) {
+        return shardOfPack[pack];
+    }
+
+    /**
+     * Copies summary of pack (root aggregates only, O(1) and consistent)
+     *
+     * @param pack    index of pack in fleet
+     * @param readout where to copy summary
+     */
+    public void readSummary(int pack, PackReadout readout) {
+        packs[pack].getBatteryPack().readInfoOverall(readout);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.stream.bms.BinaryFrameParser;
+import com.raceup.ed.bms.models.stream.bms.BmsFrameParser;
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+import com.raceup.ed.bms.models.stream.bms.FrameParser;
+import com.raceup.ed.bms.models.stream.bms.SampleQueue;
+import com.raceup.ed.bms.models.stream.frame.Cobs;
+import com.raceup.ed.bms.models.stream.frame.FrameListener;
+import com.raceup.ed.bms.models.stream.frame.LineFramer;
+import com.raceup.ed.bms.models.stream.transport.Transport;
+
+/**
+ * Ingest pipeline of a transport: frames and parses bytes on transport
+ * thread as soon as they arrive, then queues samples for bms thread
+ */
+public class IngestLink extends Debugger {
+    private volatile Transport transport;  // replaced when link is recovered
+    private final SampleQueue queue;
+    private final int bmsOffset;  // added to bms of each sample
+    private final LineFramer jsonFramer = new LineFramer();
+    private final BmsFrameParser jsonParser = new BmsFrameParser();
+    private final LineFramer binaryFramer = new LineFramer(BinaryFrameParser
+            .MAX_FRAME_LENGTH, Cobs.DELIMITER);
+    private final BinaryFrameParser binaryParser = new BinaryFrameParser();
+    private LineFramer framer = jsonFramer;  // keeps partial frames
+    private FrameParser parser = jsonParser;
+    private BmsStreamFormat.StreamFormat format = BmsStreamFormat
+            .StreamFormat.JSON;
+    private volatile BmsStreamFormat.StreamFormat requestedFormat = format;
+    private final BmsSample sample = new BmsSample();  // reused for each frame
+    private final FrameListener frameHandler = this::onFrame;
+    private long frames = 0;  // valid frames (only transport thread writes)
+    private long now;  // when last chunk was received
+    private volatile long lastFrameTime = System.nanoTime();
+    private volatile boolean resetRequested = false;
+    private final LinkStats stats = new LinkStats();
+
+    /**
+     * Binds transport to queue
+     *
+     * @param transport link with bms board
+     * @param queue     where to put parsed samples
+     */
+    public IngestLink(Transport transport, SampleQueue queue) {
+        this(transport, queue, 0);
+    }
+
+    /**
+     * Binds transport to queue
+     *
+     * @param transport link with bms board
+     * @param queue     where to put parsed samples
+     * @param bmsOffset number added to bms of each sample (when many boards
+     *                  monitor the same pack)
+     */
+    public IngestLink(Transport transport, SampleQueue queue, int bmsOffset) {
+        super("INGEST " + transport.getName(), true);
+        this.transport = transport;
+        this.queue = queue;
+        this.bmsOffset = bmsOffset;
+        transport.setReceiveListener(() -> onReceive(transport));
+    }
+
+    public int getBmsOffset() {
+        return bmsOffset;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Link quality: frames received, corrupted, lost ...
+     *
+     * @return counters of link
+     */
+    public LinkStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Time of last valid frame (System.nanoTime)
+     *
+     * @return time frame was parsed
+     */
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    public BmsStreamFormat.StreamFormat getStreamFormat() {
+        return requestedFormat;
+    }
+
+    /**
+     * Replaces lost transport with a new one already open (e.g board found
+     * on another port), queue and counters are kept
+     *
+     * @param recovered open transport reaching board again
+     */
+    public synchronized void reattach(Transport recovered) {
+        Transport lost = transport;
+        lost.setReceiveListener(() -> {
+        });
+        lost.close();
+
+        resetRequested = true;  // partial frame of lost transport
+        lastFrameTime = System.nanoTime();
+        transport = recovered;
+        recovered.setReceiveListener(() -> onReceive(recovered));
+        logAction("reattached to " + recovered.getName());
+    }
+
+    public SampleQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Number of frames that could not be parsed
+     *
+     * @return number of malformed frames
+     */
+    public long getMalformedFrames() {
+        return jsonParser.getMalformedFrames() + binaryParser
+                .getMalformedFrames();
+    }
+
+    /**
+     * Parses next frames in given format (format switch happens on transport
+     * thread)
+     *
+     * @param format format of frames
+     */
+    public void setStreamFormat(BmsStreamFormat.StreamFormat format) {
+        requestedFormat = format;
+    }
+
+    /**
+     * Consumes bytes received (on transport thread)
+     *
+     * @param source transport that received bytes
+     */
+    private void onReceive(Transport source) {
+        if (requestedFormat != format) {
+            applyStreamFormat();
+        } else if (resetRequested) {
+            resetRequested = false;
+            framer.reset();
+        }
+
+        long before = frames;
+        now = System.nanoTime();  // once per chunk
+        framer.drain(source.getReceiveBuffer(), frameHandler);
+        if (frames != before) {
+            lastFrameTime = now;
+        }
+        stats.setCorrupted(jsonParser.getCorruptedFrames() + binaryParser
+                .getCorruptedFrames());
+    }
+
+    /**
+     * Switches framer and parser
+     */
+    private void applyStreamFormat() {
+        resetRequested = false;
+        format = requestedFormat;
+        if (format == BmsStreamFormat.StreamFormat.BINARY) {
+            framer = binaryFramer;
+            parser = binaryParser;
+        } else {
+            framer = jsonFramer;
+            parser = jsonParser;
+        }
+        framer.reset();  // drop partial frame of old format
+    }
+
+    private void onFrame(byte[] frame, int length) {
+        if (!parser.parse(frame, length, sample)) {
+            return;
+        }
+
+        frames++;
+        stats.onFrame(sample, now);
+        if (sample.getType() != BmsSample.TYPE_UNKNOWN) {
+            sample.shiftBms(bmsOffset);
+            queue.offer(sample);
+        }
+    }
+}
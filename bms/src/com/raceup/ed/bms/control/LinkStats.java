@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+
+/**
+ * Link quality of an ingest link, updated on transport thread for every
+ * valid frame. Losses come from gaps in frame counters (16 bit, wrapping),
+ * latency from board clocks: the smallest host - board offset seen is taken
+ * as zero latency, so latency is relative to the fastest frame (clock drift
+ * is not compensated). A board restarted when its clock goes back, or
+ * without clock when its counter goes back or jumps far ahead to a small
+ * value (counting again from 0), so restarts are not counted as losses.
+ */
+public class LinkStats {
+    private static final int SEQUENCE_MASK = 0xFFFF;
+    private static final int WINDOW = 64;  // frame counters remembered
+    private static final int RESTART_SEQUENCE = 256;  // first after reset
+    private static final int MAX_GAP = 4096;  // frames lost at once
+    private static final long MAX_CLOCK_STEP_BACK = 1000;  // ms, late frames
+    private static final long CLOCK_RANGE = 1L << 32;  // ms, board clock
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final long MICROS_PER_MILLI = 1000;
+    private boolean synced = false;  // a frame counter has been seen
+    private int highest;  // highest frame counter seen
+    private long window;  // bit i set iff frame highest - i was seen
+    private long minOffset = Long.MAX_VALUE;  // host - board clock (us)
+    private long lastClock = -1;  // board clock of last frame (ms)
+    private long latencySum = 0;  // us
+    private volatile long received = 0;
+    private volatile long corrupted = 0;
+    private volatile long lost = 0;
+    private volatile long duplicated = 0;
+    private volatile long reordered = 0;
+    private volatile long restarts = 0;
+    private volatile long timedFrames = 0;
+    private volatile long lastLatency = 0;  // us
+    private volatile long maxLatency = 0;  // us
+
+    /**
+     * Accounts frame (on transport thread)
+     *
+     * @param sample    sample just parsed
+     * @param hostNanos when frame was parsed (System.nanoTime)
+     */
+    public void onFrame(BmsSample sample, long hostNanos) {
+        received++;
+        int sequence = sample.getSequence();
+        long timestamp = sample.getTimestamp();
+        if (timestamp >= 0 && isClockRestarted(timestamp)) {
+            restarts++;
+            restart(sequence);
+        } else if (sequence >= 0) {
+            onSequence(sequence);
+        }
+        if (timestamp >= 0) {
+            onTimestamp(timestamp);
+            onLatency(timestamp, hostNanos);
+        }
+    }
+
+    /**
+     * Sets number of frames with wrong checksum (on transport thread)
+     *
+     * @param corrupted number of corrupted frames
+     */
+    public void setCorrupted(long corrupted) {
+        this.corrupted = corrupted;
+    }
+
+    private void onSequence(int sequence) {
+        sequence &= SEQUENCE_MASK;
+        if (!synced) {
+            restart(sequence);
+            return;
+        }
+
+        if (sequence < RESTART_SEQUENCE && ((sequence - highest) &
+                SEQUENCE_MASK) > MAX_GAP) {
+            restarts++;  // counting from 0 again, whatever highest was
+            restart(sequence);
+            return;
+        }
+
+        int delta = (short) (sequence - highest);  // distance with wrap
+        if (delta > 0) {
+            lost += delta - 1;  // until they come late
+            window = delta < WINDOW ? (window << delta) | 1 : 1;
+            highest = sequence;
+        } else if (delta == 0) {
+            duplicated++;
+        } else if (-delta < WINDOW) {
+            long bit = 1L << -delta;
+            if ((window & bit) != 0) {
+                duplicated++;
+            } else {
+                window |= bit;
+                reordered++;
+                lost--;
+            }
+        } else {
+            restarts++;  // too old to be late: board restarted
+            restart(sequence);
+        }
+    }
+
+    /**
+     * Check if board clock went back (not by wrapping), i.e. board restarted
+     *
+     * @param boardMillis board clock of frame (ms)
+     * @return True iff clock went back more than late frames can
+     */
+    private boolean isClockRestarted(long boardMillis) {
+        if (lastClock < 0) {
+            return false;
+        }
+        long back = lastClock - boardMillis;
+        return back > MAX_CLOCK_STEP_BACK && back < CLOCK_RANGE / 2;
+    }
+
+    /**
+     * Starts counting again from frame
+     *
+     * @param sequence first frame counter, -1 if not sent
+     */
+    private void restart(int sequence) {
+        synced = sequence >= 0;
+        highest = sequence & SEQUENCE_MASK;
+        window = -1L;  // frames before are not lost
+        minOffset = Long.MAX_VALUE;  // board clock restarted too
+        lastClock = -1;
+    }
+
+    private void onTimestamp(long boardMillis) {
+        long ahead = (boardMillis - lastClock) & (CLOCK_RANGE - 1);
+        if (lastClock < 0 || ahead < CLOCK_RANGE / 2) {
+            lastClock = boardMillis;  // late frames do not move it back
+        }
+    }
+
+    private void onLatency(long boardMillis, long hostNanos) {
+        long offset = hostNanos / NANOS_PER_MICRO - boardMillis *
+                MICROS_PER_MILLI;
+        if (offset < minOffset) {
+            minOffset = offset;
+        }
+
+        long latency = offset - minOffset;
+        latencySum += latency;
+        timedFrames++;
+        lastLatency = latency;
+        if (latency > maxLatency) {
+            maxLatency = latency;
+        }
+    }
+
+    /**
+     * Number of valid frames
+     *
+     * @return number of frames received
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Number of frames with wrong checksum
+     *
+     * @return number of corrupted frames
+     */
+    public long getCorrupted() {
+        return corrupted;
+    }
+
+    /**
+     * Number of frames never received (gaps in frame counters)
+     *
+     * @return number of lost frames
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * Number of frames received more than once
+     *
+     * @return number of duplicated frames
+     */
+    public long getDuplicated() {
+        return duplicated;
+    }
+
+    /**
+     * Number of frames received after a following one
+     *
+     * @return number of reordered frames
+     */
+    public long getReordered() {
+        return reordered;
+    }
+
+    /**
+     * Number of times board restarted (clock or frame counter from 0)
+     *
+     * @return number of restarts
+     */
+    public long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Board to host latency of last frame with a board clock
+     *
+     * @return latency (ms)
+     */
+    public double getLastLatency() {
+        return lastLatency / (double) MICROS_PER_MILLI;
+    }
+
+    /**
+     * Max board to host latency
+     *
+     * @return latency (ms)
+     */
+    public double getMaxLatency() {
+        return maxLatency / (double) MICROS_PER_MILLI;
+    }
+
+    /**
+     * Mean board to host latency
+     *
+     * @return latency (ms), NaN if board sends no clock
+     */
+    public double getMeanLatency() {
+        long count = timedFrames;
+        return count == 0 ? Double.NaN : latencySum / (double) count /
+                MICROS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        String summary = "rx " + received + ", corrupted " + corrupted +
+                ", lost " + lost + ", dup " + duplicated + ", late " +
+                reordered;
+        if (timedFrames > 0) {
+            summary += String.format(", latency %.1f ms (max %.1f)",
+                    getLastLatency(), getMaxLatency());
+        }
+        return summary;
+    }
+}
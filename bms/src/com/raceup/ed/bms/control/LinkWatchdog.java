@@ -0,0 +1,311 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.raceup.ed.bms.control;
+
+import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.stream.bms.BinaryFrameParser;
+import com.raceup.ed.bms.models.stream.bms.BmsFrameParser;
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
+import com.raceup.ed.bms.models.stream.bms.FrameParser;
+import com.raceup.ed.bms.models.stream.frame.Cobs;
+import com.raceup.ed.bms.models.stream.frame.FrameListener;
+import com.raceup.ed.bms.models.stream.frame.LineFramer;
+import com.raceup.ed.bms.models.stream.transport.Transport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Watches ingest links: when a board stays silent longer than deadline, its
+ * transports are rescanned in background, candidates are probed in parallel
+ * and link is reattached to the first one answering with a valid frame.
+ */
+public class LinkWatchdog extends Debugger {
+    public static final long DEFAULT_DEADLINE = 2000;  // ms without frames
+    public static final long PROBE_TIMEOUT = 1000;  // ms to get first frame
+    private static final long RESCAN_PERIOD = 250;  // ms between 2 scans
+    private static final long MIN_CHECK_PERIOD = 50;  // ms
+    private final IngestLink[] links;
+    private final long deadline;  // ns
+    private final long checkPeriod;  // ms
+    private final AtomicBoolean[] recovering;  // one recovery per link
+    private final ScheduledExecutorService monitor;
+    private final ExecutorService probes;
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile long lastReconnectTime = -1;  // ms
+    private volatile BooleanSupplier expectingData = () -> true;
+    private volatile Consumer<IngestLink> reconnectListener = link -> {
+    };
+    private volatile boolean closed = false;
+    private long quietSince = 0;  // last check boards were not expected
+
+    /**
+     * Create new watchdog (checks start with start)
+     *
+     * @param links    ingest pipelines to watch
+     * @param deadline max time without frames before link is recovered (ms)
+     */
+    public LinkWatchdog(IngestLink[] links, long deadline) {
+        super("WATCHDOG", true);
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+
+        this.links = links;
+        this.deadline = TimeUnit.MILLISECONDS.toNanos(deadline);
+        this.checkPeriod = Math.max(MIN_CHECK_PERIOD, deadline / 4);
+        recovering = new AtomicBoolean[links.length];
+        for (int i = 0; i < links.length; i++) {
+            recovering[i] = new AtomicBoolean(false);
+        }
+        monitor = Executors.newSingleThreadScheduledExecutor(runnable ->
+                newDaemon(runnable, "watchdog"));
+        probes = Executors.newCachedThreadPool(runnable -> newDaemon(runnable,
+                "probe"));
+    }
+
+    private static Thread newDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Sets when boards are supposed to stream (e.g not in sleep mode)
+     *
+     * @param expectingData True iff silence means link is lost
+     */
+    public void setExpectingData(BooleanSupplier expectingData) {
+        this.expectingData = expectingData;
+    }
+
+    /**
+     * Sets who is notified (on probe thread) after a link is reattached
+     *
+     * @param reconnectListener consumer of recovered link
+     */
+    public void setReconnectListener(Consumer<IngestLink>
+                                             reconnectListener) {
+        this.reconnectListener = reconnectListener;
+    }
+
+    /**
+     * Number of links recovered
+     *
+     * @return number of reconnects
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * Time from silence detected to link reattached, of last reconnect
+     *
+     * @return reconnect time (ms), -1 if never reconnected
+     */
+    public long getLastReconnectTime() {
+        return lastReconnectTime;
+    }
+
+    public void start() {
+        monitor.scheduleAtFixedRate(this::check, checkPeriod, checkPeriod,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checks and recoveries
+     */
+    public void close() {
+        closed = true;
+        monitor.shutdownNow();
+        probes.shutdownNow();
+    }
+
+    /**
+     * Looks for silent links (on monitor thread)
+     */
+    private void check() {
+        long now = System.nanoTime();
+        if (!expectingData.getAsBoolean()) {
+            quietSince = now;  // silence is fine, and some time after
+            return;
+        }
+
+        for (int i = 0; i < links.length; i++) {
+            long lastFrame = Math.max(links[i].getLastFrameTime(),
+                    quietSince);
+            if (now - lastFrame > deadline && recovering[i].compareAndSet
+                    (false, true)) {
+                int index = i;
+                probes.execute(() -> recover(index));
+            }
+        }
+    }
+
+    /**
+     * Searches board of link until found or watchdog closed (on probe
+     * thread)
+     *
+     * @param index index of link to recover
+     */
+    private void recover(int index) {
+        IngestLink link = links[index];
+        Transport lost = link.getTransport();
+        long start = System.nanoTime();
+        try {
+            Transport[] candidates = lost.getReconnectCandidates();
+            if (candidates == null) {
+                return;  // nothing to search, keep waiting for data
+            }
+
+            logError(lost.getName() + " silent, searching board");
+            lost.close();  // frees port if board comes back on it
+            candidates = lost.getReconnectCandidates();
+            while (!closed) {
+                Transport found = probeAll(candidates, link);
+                if (found != null) {
+                    link.reattach(found);
+                    lastReconnectTime = TimeUnit.NANOSECONDS.toMillis(System
+                            .nanoTime() - start);
+                    reconnects.incrementAndGet();
+                    logAction("board found on " + found.getName() + " in " +
+                            lastReconnectTime + " ms");
+                    reconnectListener.accept(link);
+                    return;
+                }
+
+                Thread.sleep(RESCAN_PERIOD);
+                candidates = lost.getReconnectCandidates();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logException(e);
+        } finally {
+            recovering[index].set(false);
+        }
+    }
+
+    /**
+     * Probes candidates in parallel
+     *
+     * @param candidates transports that may reach board (not open)
+     * @param link       link to recover
+     * @return first candidate answering (open), null if none did
+     * @throws InterruptedException when watchdog is closed
+     */
+    private Transport probeAll(Transport[] candidates, IngestLink link)
+            throws InterruptedException {
+        if (candidates.length == 0) {
+            return null;
+        }
+
+        BmsStreamFormat.StreamFormat format = link.getStreamFormat();
+        CompletableFuture<Transport> winner = new CompletableFuture<>();
+        AtomicInteger left = new AtomicInteger(candidates.length);
+        for (Transport candidate : candidates) {
+            probes.execute(() -> {
+                boolean answered = probe(candidate, format);
+                if (!answered || !winner.complete(candidate)) {
+                    candidate.close();  // not a board, or too late
+                }
+                if (left.decrementAndGet() == 0) {
+                    winner.complete(null);
+                }
+            });
+        }
+
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens candidate and asks for frames (handshake)
+     *
+     * @param candidate transport that may reach board
+     * @param format    format of frames board should send
+     * @return True iff a valid frame was received in time
+     */
+    private boolean probe(Transport candidate, BmsStreamFormat.StreamFormat
+            format) {
+        Probe probe = new Probe(candidate, format);
+        candidate.setReceiveListener(probe);
+        try {
+            candidate.open();
+            candidate.write(Bms.STREAM_FORMAT.get(format).getArduinoCommand()
+                    .getBytes(StandardCharsets.US_ASCII));
+            return probe.answered.await(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            return false;  // busy or unplugged
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits for first valid frame on a candidate (on transport thread)
+     */
+    private static class Probe implements Runnable {
+        private final Transport candidate;
+        private final LineFramer framer;
+        private final FrameParser parser;
+        private final BmsSample sample = new BmsSample();
+        private final CountDownLatch answered = new CountDownLatch(1);
+        private final FrameListener frameHandler = this::onFrame;
+
+        private Probe(Transport candidate, BmsStreamFormat.StreamFormat
+                format) {
+            this.candidate = candidate;
+            if (format == BmsStreamFormat.StreamFormat.BINARY) {
+                framer = new LineFramer(BinaryFrameParser.MAX_FRAME_LENGTH,
+                        Cobs.DELIMITER);
+                parser = new BinaryFrameParser();
+            } else {
+                framer = new LineFramer();
+                parser = new BmsFrameParser();
+            }
+        }
+
+        @Override
+        public void run() {
+            framer.drain(candidate.getReceiveBuffer(), frameHandler);
+        }
+
+        private void onFrame(byte[] frame, int length) {
+            if (parser.parse(frame, length, sample)) {
+                answered.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.raceup.ed.bms.logging;
+
+import com.raceup.ed.bms.models.alarm.AlarmEvent;
+import com.raceup.ed.bms.models.alarm.AlarmListener;
+import com.raceup.ed.bms.models.alarm.AlarmRule;
+
+/**
+ * Logs alarm transitions (raised warnings and critical alarms on errors)
+ */
+public class AlarmLog extends Logger implements AlarmListener {
+    public AlarmLog(String tag) {
+        super(tag);
+    }
+
+    @Override
+    public void onAlarm(AlarmEvent event) {
+        if (event.getType() == AlarmEvent.Type.RAISED && event.getSeverity()
+                != AlarmRule.Severity.INFO) {
+            logError(event.toString());
+        } else {
+            logAction(event.toString());
+        }
+    }
+}
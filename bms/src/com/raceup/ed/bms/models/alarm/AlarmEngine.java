@@ -0,0 +1,418 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.alarm;
+
+import com.raceup.ed.bms.models.battery.AggregateTree;
+import com.raceup.ed.bms.models.battery.ChangeSet;
+import com.raceup.ed.bms.models.battery.PackStore;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Evaluates alarm rules on a pack store and emits transitions of alarms to
+ * listeners. Rules are grouped by source and only channels changed since
+ * last evaluation are checked (own change set): cost follows the update
+ * rate, not rules times channels. State of each rule and channel:
+ * <pre>
+ * NORMAL -(condition)-> PENDING -(held for debounce)-> RAISED
+ * RAISED -(cleared, past hysteresis)-> NORMAL, or LATCHED if latching
+ * LATCHED -(acknowledged)-> NORMAL, -(condition again)-> RAISED
+ * </pre>
+ * A pending alarm is promoted on next update of its channel. Only the
+ * writer thread of the store evaluates (e.g bms loop); counts and
+ * acknowledge requests can be used from any thread.
+ */
+public class AlarmEngine {
+    public static final long RATE_WINDOW = 1000;  // ms between rate points
+    private static final byte NORMAL = 0;
+    private static final byte PENDING = 1;
+    private static final byte RAISED = 2;
+    private static final byte LATCHED = 3;  // cleared, not acknowledged
+    private static final int SOURCES = AlarmRule.Source.values().length;
+    private static final int SEVERITIES = AlarmRule.Severity.values().length;
+    private final PackStore store;
+    private final ChangeSet changes;
+    private final AlarmRule[] rules;
+    private final int[][] rulesOfSource;  // source -> rules to check
+    private final byte[][] states;  // rule -> channel -> state
+    private final long[][] pendingSince;  // rule -> channel -> ns
+    private final double[][] rateValues;  // source -> channel -> last point
+    private final long[][] rateTimes;  // source -> channel -> ns of point
+    private final double[][] rates;  // source -> channel -> per s, NaN
+    private final int[] bmsOfCell;  // cell of pack -> bms
+    private final int[] changed;  // scratch of drained channels
+    private final int[] raisedOfSeverity = new int[SEVERITIES];
+    private final CopyOnWriteArrayList<AlarmListener> listeners = new
+            CopyOnWriteArrayList<>();
+    private final AtomicBoolean acknowledgeRequest = new AtomicBoolean();
+    private volatile int raised = 0;  // raised or latched alarms
+    private volatile AlarmRule.Severity highestSeverity = null;
+    private long evaluations = 0;  // channel checks so far
+
+    /**
+     * Builds engine of store (all alarms normal)
+     *
+     * @param store values to check
+     * @param rules rules to check
+     */
+    public AlarmEngine(PackStore store, AlarmRules rules) {
+        this.store = store;
+        changes = store.newChangeSet();
+        this.rules = new AlarmRule[rules.size()];
+        int[] counts = new int[SOURCES];
+        for (int rule = 0; rule < this.rules.length; rule++) {
+            this.rules[rule] = rules.get(rule);
+            counts[this.rules[rule].getSource().ordinal()]++;
+        }
+
+        rulesOfSource = new int[SOURCES][];
+        for (int source = 0; source < SOURCES; source++) {
+            rulesOfSource[source] = new int[counts[source]];
+            counts[source] = 0;
+        }
+        states = new byte[this.rules.length][];
+        pendingSince = new long[this.rules.length][];
+        rateValues = new double[SOURCES][];
+        rateTimes = new long[SOURCES][];
+        rates = new double[SOURCES][];
+        for (int rule = 0; rule < this.rules.length; rule++) {
+            AlarmRule.Source source = this.rules[rule].getSource();
+            int channels = getNumberOfChannels(source);
+            int group = source.ordinal();
+            rulesOfSource[group][counts[group]++] = rule;
+            states[rule] = new byte[channels];
+            if (this.rules[rule].getDebounce() > 0) {
+                pendingSince[rule] = new long[channels];
+            }
+            if (this.rules[rule].getCondition().isRate() && rates[source
+                    .ordinal()] == null) {
+                rateValues[source.ordinal()] = new double[channels];
+                rateTimes[source.ordinal()] = new long[channels];
+                rates[source.ordinal()] = new double[channels];
+                Arrays.fill(rates[source.ordinal()], Double.NaN);
+                Arrays.fill(rateValues[source.ordinal()], Double.NaN);
+            }
+        }
+
+        bmsOfCell = new int[store.getNumberOfCells()];
+        for (int bms = 0; bms < store.getNumberOfBms(); bms++) {
+            for (int cell = store.getFirstCell(bms); cell < store
+                    .getFirstCell(bms + 1); cell++) {
+                bmsOfCell[cell] = bms;
+            }
+        }
+        changed = new int[Math.max(bmsOfCell.length, store.getNumberOfBms() *
+                PackStore.TEMPERATURES_PER_BMS)];
+    }
+
+    private int getNumberOfChannels(AlarmRule.Source source) {
+        switch (source) {
+            case VOLTAGE:
+                return store.getNumberOfCells();
+            case TEMPERATURE:
+                return store.getNumberOfBms() * PackStore.TEMPERATURES_PER_BMS;
+            default:
+                return store.getNumberOfBms();
+        }
+    }
+
+    /**
+     * Registers a listener of alarm transitions (any thread)
+     *
+     * @param listener what to notify
+     */
+    public void addListener(AlarmListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(AlarmListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Asks to clear latched alarms whose condition is gone (any thread,
+     * done at next evaluation)
+     */
+    public void acknowledge() {
+        acknowledgeRequest.set(true);
+    }
+
+    /**
+     * Checks rules on channels changed since last call (writer thread,
+     * e.g every loop)
+     *
+     * @return number of channels checked
+     */
+    public int evaluate() {
+        long now = System.nanoTime();
+        if (acknowledgeRequest.getAndSet(false)) {
+            clearLatched();
+        }
+
+        int count = 0;
+        if (rulesOfSource[AlarmRule.Source.VOLTAGE.ordinal()].length > 0) {
+            int cells = changes.drainCells(changed);
+            for (int i = 0; i < cells; i++) {
+                int bms = bmsOfCell[changed[i]];
+                int cell = changed[i] - store.getFirstCell(bms);
+                double value = store.getVoltage(bms, cell);
+                check(AlarmRule.Source.VOLTAGE, changed[i], bms, cell, value,
+                        value > 0.0, store.isVoltageStale(bms, cell), now);
+            }
+            count += cells;
+        }
+
+        if (rulesOfSource[AlarmRule.Source.TEMPERATURE.ordinal()].length >
+                0) {
+            int sensors = changes.drainSensors(changed);
+            for (int i = 0; i < sensors; i++) {
+                int bms = changed[i] / PackStore.TEMPERATURES_PER_BMS;
+                int sensor = changed[i] % PackStore.TEMPERATURES_PER_BMS;
+                double value = sensor == 0 ? store.getTemperature1(bms) :
+                        store.getTemperature2(bms);
+                boolean stale = sensor == 0 ? store.isTemperature1Stale(bms)
+                        : store.isTemperature2Stale(bms);
+                check(AlarmRule.Source.TEMPERATURE, changed[i], bms, sensor,
+                        value, !Double.isNaN(value), stale, now);  // any C°
+            }
+            count += sensors;
+        }
+
+        int bmsChanged = changes.drainBms(changed);  // drained anyway
+        if (rulesOfSource[AlarmRule.Source.SPREAD.ordinal()].length > 0) {
+            for (int i = 0; i < bmsChanged; i++) {
+                AggregateTree voltages = store.getBmsVoltages(changed[i]);
+                double spread = voltages.getMax() - voltages.getMin();
+                check(AlarmRule.Source.SPREAD, changed[i], changed[i], -1,
+                        spread, !Double.isNaN(spread), false, now);
+            }
+            count += bmsChanged;
+        }
+        evaluations += count;
+        return count;
+    }
+
+    /**
+     * Checks rules of source on a channel
+     */
+    private void check(AlarmRule.Source source, int channel, int bms, int
+            index, double value, boolean read, boolean stale, long now) {
+        int[] checked = rulesOfSource[source.ordinal()];
+        double rate = read ? updateRate(source.ordinal(), channel, value,
+                now) : Double.NaN;
+        for (int i = 0; i < checked.length; i++) {
+            int rule = checked[i];
+            AlarmRule.Condition condition = rules[rule].getCondition();
+            if (!read && condition != AlarmRule.Condition.STALE) {
+                continue;  // nothing to compare
+            }
+
+            double input = condition == AlarmRule.Condition.STALE ? (stale ?
+                    1.0 : 0.0) : condition.isRate() ? rate : value;
+            byte state = states[rule][channel];
+            boolean met = rules[rule].isMet(input, state == RAISED);
+            step(rule, channel, state, met, bms, index, input, now);
+        }
+    }
+
+    /**
+     * Updates rate of channel, over points at least RATE_WINDOW apart (so
+     * noise between close samples does not look like a fast change)
+     *
+     * @return rate (per s), NaN until 2 points
+     */
+    private double updateRate(int source, int channel, double value, long
+            now) {
+        if (rates[source] == null) {
+            return Double.NaN;
+        }
+
+        double last = rateValues[source][channel];
+        long elapsed = now - rateTimes[source][channel];
+        if (Double.isNaN(last)) {
+            rateValues[source][channel] = value;
+            rateTimes[source][channel] = now;
+        } else if (elapsed >= RATE_WINDOW * 1000000L) {
+            rates[source][channel] = (value - last) / (elapsed / 1e9);
+            rateValues[source][channel] = value;
+            rateTimes[source][channel] = now;
+        }
+        return rates[source][channel];
+    }
+
+    private void step(int rule, int channel, byte state, boolean met, int
+            bms, int index, double value, long now) {
+        AlarmRule alarm = rules[rule];
+        switch (state) {
+            case NORMAL:
+                if (met && alarm.getDebounce() == 0) {
+                    raise(rule, channel, bms, index, value);
+                } else if (met) {
+                    states[rule][channel] = PENDING;
+                    pendingSince[rule][channel] = now;
+                }
+                break;
+            case PENDING:
+                if (!met) {
+                    states[rule][channel] = NORMAL;
+                } else if (now - pendingSince[rule][channel] >= alarm
+                        .getDebounce() * 1000000L) {
+                    raise(rule, channel, bms, index, value);
+                }
+                break;
+            case RAISED:
+                if (!met && alarm.isLatching()) {
+                    states[rule][channel] = LATCHED;  // still counted
+                } else if (!met) {
+                    clear(rule, channel, bms, index, value);
+                }
+                break;
+            default:  // latched
+                if (met) {
+                    states[rule][channel] = RAISED;  // never cleared
+                }
+        }
+    }
+
+    private void raise(int rule, int channel, int bms, int index, double
+            value) {
+        states[rule][channel] = RAISED;
+        raisedOfSeverity[rules[rule].getSeverity().ordinal()]++;
+        updateCounts();
+        notify(new AlarmEvent(rules[rule], AlarmEvent.Type.RAISED, bms,
+                index, value, System.currentTimeMillis()));
+    }
+
+    private void clear(int rule, int channel, int bms, int index, double
+            value) {
+        states[rule][channel] = NORMAL;
+        raisedOfSeverity[rules[rule].getSeverity().ordinal()]--;
+        updateCounts();
+        notify(new AlarmEvent(rules[rule], AlarmEvent.Type.CLEARED, bms,
+                index, value, System.currentTimeMillis()));
+    }
+
+    /**
+     * Clears latched alarms (O(rules * channels), only when acknowledged)
+     */
+    private void clearLatched() {
+        for (int rule = 0; rule < rules.length; rule++) {
+            for (int channel = 0; channel < states[rule].length; channel++) {
+                if (states[rule][channel] == LATCHED) {
+                    clear(rule, channel, getBms(rule, channel), getIndex(
+                            rule, channel), Double.NaN);
+                }
+            }
+        }
+    }
+
+    private int getBms(int rule, int channel) {
+        switch (rules[rule].getSource()) {
+            case VOLTAGE:
+                return bmsOfCell[channel];
+            case TEMPERATURE:
+                return channel / PackStore.TEMPERATURES_PER_BMS;
+            default:
+                return channel;
+        }
+    }
+
+    private int getIndex(int rule, int channel) {
+        switch (rules[rule].getSource()) {
+            case VOLTAGE:
+                return channel - store.getFirstCell(bmsOfCell[channel]);
+            case TEMPERATURE:
+                return channel % PackStore.TEMPERATURES_PER_BMS;
+            default:
+                return -1;
+        }
+    }
+
+    private void updateCounts() {
+        int total = 0;
+        AlarmRule.Severity highest = null;
+        for (AlarmRule.Severity severity : AlarmRule.Severity.values()) {
+            total += raisedOfSeverity[severity.ordinal()];
+            if (raisedOfSeverity[severity.ordinal()] > 0) {
+                highest = severity;
+            }
+        }
+        highestSeverity = highest;
+        raised = total;
+    }
+
+    private void notify(AlarmEvent event) {
+        for (AlarmListener listener : listeners) {
+            try {
+                listener.onAlarm(event);
+            } catch (Exception e) {
+                System.err.println("AlarmEngine: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Gets number of raised alarms, latched ones included (any thread)
+     *
+     * @return number of alarms of all rules and channels
+     */
+    public int getRaisedCount() {
+        return raised;
+    }
+
+    /**
+     * Gets severity of worst raised alarm (any thread)
+     *
+     * @return severity, null if no alarm is raised
+     */
+    public AlarmRule.Severity getHighestSeverity() {
+        return highestSeverity;
+    }
+
+    /**
+     * Check if alarm of rule is raised on a channel (writer thread)
+     *
+     * @param rule    index of rule
+     * @param channel index of cell, sensor (bms * 2 + sensor) or bms in pack
+     * @return True iff alarm is raised or latched
+     */
+    public boolean isRaised(int rule, int channel) {
+        return states[rule][channel] >= RAISED;
+    }
+
+    public int getNumberOfRules() {
+        return rules.length;
+    }
+
+    /**
+     * Gets number of channel checks done so far (writer thread)
+     *
+     * @return checks of changed channels (each against rules of its source)
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Stops tracking changes of store
+     */
+    public void close() {
+        changes.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.alarm;
+
+/**
+ * Transition of an alarm of a channel (immutable)
+ */
+public class AlarmEvent {
+    private final AlarmRule rule;
+    private final Type type;
+    private final int bms;  // index of bms in pack
+    private final int index;  // cell or sensor in bms, -1 for whole bms
+    private final double value;  // value that caused transition
+    private final long time;  // ms since epoch
+
+    AlarmEvent(AlarmRule rule, Type type, int bms, int index, double value,
+               long time) {
+        this.rule = rule;
+        this.type = type;
+        this.bms = bms;
+        this.index = index;
+        this.value = value;
+        this.time = time;
+    }
+
+    public AlarmRule getRule() {
+        return rule;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public AlarmRule.Severity getSeverity() {
+        return rule.getSeverity();
+    }
+
+    /**
+     * Gets bms of channel
+     *
+     * @return index of bms in pack
+     */
+    public int getBms() {
+        return bms;
+    }
+
+    /**
+     * Gets channel in its bms
+     *
+     * @return index of cell or sensor in bms, -1 if alarm is of whole bms
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets value that caused transition
+     *
+     * @return value (rate per s for rising and falling), NaN when
+     * acknowledged
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Gets when transition happened
+     *
+     * @return time (ms since epoch)
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Describes channel of alarm (numbers from 1, as in frames)
+     *
+     * @return e.g "bms 3 cell 4"
+     */
+    public String getChannel() {
+        String channel = "bms " + (bms + 1);
+        switch (rule.getSource()) {
+            case VOLTAGE:
+                return channel + " cell " + (index + 1);
+            case TEMPERATURE:
+                return channel + " temp " + (index + 1);
+            default:
+                return channel;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String reading = Double.isNaN(value) ? "" : String.format(" (%.2f)",
+                value);
+        return type + " " + rule.getSeverity() + " " + rule.getName() + ": " +
+                getChannel() + reading;
+    }
+
+    /**
+     * What happened to alarm
+     */
+    public enum Type {
+        RAISED,  // condition held for debounce time
+        CLEARED  // condition cleared (or latched alarm acknowledged)
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.alarm;
+
+/**
+ * Something that reacts to alarms (e.g ui, log, buzzer)
+ */
+public interface AlarmListener {
+    /**
+     * Handle alarm transition. Called on thread evaluating alarms (bms
+     * thread, not EDT): return quickly and hand work over to own thread.
+     *
+     * @param event what happened
+     */
+    void onAlarm(AlarmEvent event);
+}
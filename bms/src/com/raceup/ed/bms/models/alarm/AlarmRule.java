@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.alarm;
+
+import org.json.JSONObject;
+
+/**
+ * Declarative alarm rule: condition on a source, applied to every channel
+ * of the source (e.g every cell). E.g
+ * <pre>
+ * {"name": "cell overvoltage", "source": "voltage", "condition": "above",
+ *  "threshold": 4200, "hysteresis": 20, "debounce": 500,
+ *  "latching": true, "severity": "critical"}
+ * </pre>
+ * Hysteresis: an alarm raised above threshold clears only below threshold
+ * minus hysteresis (above threshold plus hysteresis for "below").
+ * Debounce: condition must hold for that long (ms) before alarm is raised.
+ * Latching: alarm stays raised until acknowledged, even if condition
+ * clears.
+ */
+public class AlarmRule {
+    public static final String NAME_KEY = "name";
+    public static final String SOURCE_KEY = "source";
+    public static final String CONDITION_KEY = "condition";
+    public static final String THRESHOLD_KEY = "threshold";
+    public static final String HYSTERESIS_KEY = "hysteresis";
+    public static final String DEBOUNCE_KEY = "debounce";  // ms
+    public static final String LATCHING_KEY = "latching";
+    public static final String SEVERITY_KEY = "severity";
+    private final String name;
+    private final Source source;
+    private final Condition condition;
+    private final double threshold;
+    private final double hysteresis;
+    private final long debounce;  // ms
+    private final boolean latching;
+    private final Severity severity;
+
+    /**
+     * Builds rule
+     *
+     * @param name       description of alarm
+     * @param source     values checked
+     * @param condition  when alarm is raised
+     * @param threshold  limit of value (of rate, per s, for rising and
+     *                   falling; ignored for stale)
+     * @param hysteresis margin to cross back before alarm clears
+     * @param debounce   time condition must hold before alarm is raised (ms)
+     * @param latching   True to keep alarm raised until acknowledged
+     * @param severity   how bad alarm is
+     */
+    public AlarmRule(String name, Source source, Condition condition, double
+            threshold, double hysteresis, long debounce, boolean latching,
+                     Severity severity) {
+        if (name == null || source == null || condition == null || severity
+                == null) {
+            throw new IllegalArgumentException("Incomplete alarm rule");
+        }
+        if (condition != Condition.STALE && Double.isNaN(threshold)) {
+            throw new IllegalArgumentException("No threshold in " + name);
+        }
+        if (!(hysteresis >= 0.0) || debounce < 0) {
+            throw new IllegalArgumentException("Bad " + HYSTERESIS_KEY +
+                    " or " + DEBOUNCE_KEY + " in " + name);
+        }
+        if (condition == Condition.STALE && source == Source.SPREAD) {
+            throw new IllegalArgumentException("Spread is never stale in " +
+                    name);
+        }
+
+        this.name = name;
+        this.source = source;
+        this.condition = condition;
+        this.threshold = threshold;
+        this.hysteresis = hysteresis;
+        this.debounce = debounce;
+        this.latching = latching;
+        this.severity = severity;
+    }
+
+    /**
+     * Compiles rule
+     *
+     * @param root json rule
+     */
+    public AlarmRule(JSONObject root) {
+        this(root.getString(NAME_KEY), Source.parse(root.getString(
+                SOURCE_KEY)), Condition.parse(root.getString(CONDITION_KEY)),
+                root.optDouble(THRESHOLD_KEY, Double.NaN), root.optDouble(
+                        HYSTERESIS_KEY, 0.0), root.optLong(DEBOUNCE_KEY, 0),
+                root.optBoolean(LATCHING_KEY, false), Severity.parse(root
+                        .optString(SEVERITY_KEY, "warning")));
+    }
+
+    /**
+     * Checks condition on value of a channel
+     *
+     * @param value  value, rate (per s) or 1 if stale (0 otherwise)
+     * @param raised True iff alarm of channel is raised (hysteresis)
+     * @return True iff condition holds, False if value is NaN
+     */
+    boolean isMet(double value, boolean raised) {
+        double margin = raised ? hysteresis : 0.0;
+        switch (condition) {
+            case ABOVE:
+            case RISING:
+                return value > threshold - margin;
+            case BELOW:
+                return value < threshold + margin;
+            case FALLING:
+                return -value > threshold - margin;
+            default:  // stale
+                return value > 0.5;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    public long getDebounce() {
+        return debounce;
+    }
+
+    public boolean isLatching() {
+        return latching;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    @Override
+    public String toString() {
+        String limit = condition == Condition.STALE ? "" : " " + threshold;
+        return name + " (" + source + " " + condition + limit + ", " +
+                severity + ")";
+    }
+
+    /**
+     * Values a rule applies to
+     */
+    public enum Source {
+        VOLTAGE("voltage"),  // each cell (mV)
+        TEMPERATURE("temperature"),  // each sensor (C°)
+        SPREAD("spread");  // max - min voltage of cells of each bms (mV)
+
+        private final String key;
+
+        Source(String key) {
+            this.key = key;
+        }
+
+        static Source parse(String key) {
+            for (Source source : values()) {
+                if (source.key.equals(key)) {
+                    return source;
+                }
+            }
+            throw new IllegalArgumentException("Unknown alarm source " + key);
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * When an alarm is raised
+     */
+    public enum Condition {
+        ABOVE("above"),  // value above threshold
+        BELOW("below"),  // value below threshold
+        RISING("rising"),  // value rising faster than threshold per s
+        FALLING("falling"),  // value falling faster than threshold per s
+        STALE("stale");  // value missed its updates
+
+        private final String key;
+
+        Condition(String key) {
+            this.key = key;
+        }
+
+        static Condition parse(String key) {
+            for (Condition condition : values()) {
+                if (condition.key.equals(key)) {
+                    return condition;
+                }
+            }
+            throw new IllegalArgumentException("Unknown alarm condition " +
+                    key);
+        }
+
+        boolean isRate() {
+            return this == RISING || this == FALLING;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * How bad an alarm is (in increasing order)
+     */
+    public enum Severity {
+        INFO("info"),
+        WARNING("warning"),
+        CRITICAL("critical");
+
+        private final String key;
+
+        Severity(String key) {
+            this.key = key;
+        }
+
+        static Severity parse(String key) {
+            for (Severity severity : values()) {
+                if (severity.key.equals(key)) {
+                    return severity;
+                }
+            }
+            throw new IllegalArgumentException("Unknown alarm severity " +
+                    key);
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
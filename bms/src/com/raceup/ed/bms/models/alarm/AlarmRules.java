@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.alarm;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static com.raceup.ed.bms.utils.Streams.readAllFromStream;
+
+/**
+ * Set of alarm rules read from a json descriptor, e.g
+ * <pre>
+ * {"rules": [{"name": "overtemperature", "source": "temperature",
+ *             "condition": "above", "threshold": 60, "hysteresis": 2,
+ *             "debounce": 1000, "latching": true, "severity": "critical"},
+ *            {"name": "stale cell", "source": "voltage",
+ *             "condition": "stale"}]}
+ * </pre>
+ */
+public class AlarmRules {
+    public static final String DEFAULT_RESOURCE = "/res/alarms/default.json";
+    public static final String RULES_KEY = "rules";
+    private final AlarmRule[] rules;
+
+    /**
+     * Builds set of rules
+     *
+     * @param rules rules to check
+     */
+    public AlarmRules(AlarmRule[] rules) {
+        this.rules = rules.clone();
+    }
+
+    /**
+     * Compiles descriptor
+     *
+     * @param root json descriptor
+     */
+    public AlarmRules(JSONObject root) {
+        JSONArray entries = root.getJSONArray(RULES_KEY);
+        rules = new AlarmRule[entries.length()];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new AlarmRule(entries.getJSONObject(i));
+        }
+    }
+
+    /**
+     * Compiles descriptor
+     *
+     * @param json content of descriptor
+     * @return rules
+     */
+    public static AlarmRules parse(String json) {
+        return new AlarmRules(new JSONObject(json));
+    }
+
+    /**
+     * Reads and compiles descriptor file
+     *
+     * @param file json descriptor
+     * @return rules
+     * @throws IOException when file cannot be read
+     */
+    public static AlarmRules load(File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            return load(stream);
+        }
+    }
+
+    /**
+     * Reads and compiles rules of the car (in app resources)
+     *
+     * @return default rules
+     * @throws IOException when resource cannot be read
+     */
+    public static AlarmRules loadDefault() throws IOException {
+        try (InputStream stream = AlarmRules.class.getResourceAsStream(
+                DEFAULT_RESOURCE)) {
+            if (stream == null) {
+                throw new IOException("Cannot find " + DEFAULT_RESOURCE);
+            }
+            return load(stream);
+        }
+    }
+
+    private static AlarmRules load(InputStream stream) throws IOException {
+        return parse(readAllFromStream(new BufferedReader(new
+                InputStreamReader(stream, StandardCharsets.UTF_8))));
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public AlarmRule get(int rule) {
+        return rules[rule];
+    }
+
+    @Override
+    public String toString() {
+        return rules.length + " alarm rules";
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Aggregate of values updated on every write: running sum and count, plus a
+ * tree of min and max (tournament tree). Reading min, max, sum or count of
+ * all leaves is O(1), writing a leaf is O(log n) and stops as soon as a node
+ * does not change. Values not read yet (0 or less, NaN) are left out.
+ * A leaf can be a value or the aggregate of another tree (e.g a bms in the
+ * tree of its segment).
+ */
+public class AggregateTree {
+    private static final double MISSING_MIN = Double.POSITIVE_INFINITY;
+    private static final double MISSING_MAX = Double.NEGATIVE_INFINITY;
+    private final int leaves;  // number of leaves used
+    private final int size;  // number of leaves (power of 2)
+    private final double[] extremes;  // node -> min, max (side by side)
+    private final double[] leafSums;
+    private final int[] leafCounts;
+    private double sum = 0.0;
+    private int count = 0;  // number of values read
+
+    /**
+     * Builds tree of values not read yet
+     *
+     * @param leaves number of values
+     */
+    public AggregateTree(int leaves) {
+        int size = 1;
+        while (size < leaves) {
+            size <<= 1;
+        }
+        this.leaves = leaves;
+        this.size = size;
+        extremes = new double[4 * size];
+        for (int node = 0; node < 2 * size; node++) {
+            extremes[2 * node] = MISSING_MIN;
+            extremes[2 * node + 1] = MISSING_MAX;
+        }
+        leafSums = new double[leaves];
+        leafCounts = new int[leaves];
+    }
+
+    public int getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * Sets value of leaf
+     *
+     * @param index index of leaf
+     * @param value new value (0 or less if not read)
+     */
+    void set(int index, double value) {
+        set(index, value, value > 0);
+    }
+
+    /**
+     * Sets value of leaf, for values where 0 is valid (e.g state of charge)
+     *
+     * @param index index of leaf
+     * @param value new value
+     * @param read  False to leave leaf out
+     */
+    void set(int index, double value, boolean read) {
+        if (read && !Double.isNaN(value)) {
+            setLeaf(index, value, value, value, 1);
+        } else {
+            setLeaf(index, MISSING_MIN, MISSING_MAX, 0.0, 0);
+        }
+    }
+
+    /**
+     * Sets leaf to aggregate of another tree
+     *
+     * @param index index of leaf
+     * @param child tree whose root becomes leaf
+     */
+    void set(int index, AggregateTree child) {
+        setLeaf(index, child.extremes[2], child.extremes[3], child.sum, child
+                .count);
+    }
+
+    private void setLeaf(int index, double minimum, double maximum, double
+            total, int read) {
+        if (index < 0 || index >= leaves) {
+            throw new IndexOutOfBoundsException("No leaf " + index);
+        }
+
+        sum += total - leafSums[index];
+        count += read - leafCounts[index];
+        leafSums[index] = total;
+        leafCounts[index] = read;
+        if (count == 0) {
+            sum = 0.0;  // drop rounding errors
+        }
+
+        int node = size + index;
+        extremes[2 * node] = minimum;
+        extremes[2 * node + 1] = maximum;
+        for (node >>= 1; node > 0; node >>= 1) {
+            int left = 4 * node;  // min of left child
+            double newMin = Math.min(extremes[left], extremes[left + 2]);
+            double newMax = Math.max(extremes[left + 1], extremes[left + 3]);
+            if (extremes[2 * node] == newMin && extremes[2 * node + 1] ==
+                    newMax) {
+                return;  // nodes above do not change either
+            }
+            extremes[2 * node] = newMin;
+            extremes[2 * node + 1] = newMax;
+        }
+    }
+
+    /**
+     * Gets min of all values read
+     *
+     * @return min, NaN if nothing read
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : extremes[2];
+    }
+
+    /**
+     * Gets max of all values read
+     *
+     * @return max, NaN if nothing read
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : extremes[3];
+    }
+
+    /**
+     * Gets sum of all values read
+     *
+     * @return sum, 0 if nothing read
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Gets number of values read
+     *
+     * @return number of values
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets average of all values read
+     *
+     * @return average, NaN if nothing read
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+}
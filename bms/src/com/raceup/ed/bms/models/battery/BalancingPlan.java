@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Balancing plan of a pack at a given time (immutable): target voltage,
+ * spread of cells and how long each cell must bleed to reach target.
+ */
+public class BalancingPlan {
+    private final PackStore layout;  // only used for (immutable) index tables
+    private final double target;  // mV
+    private final double minVoltage;
+    private final double maxVoltage;
+    private final double medianVoltage;
+    private final int cellsAbove;  // cells to bleed
+    private final int[] bleedSeconds;  // cell of pack -> seconds, 0 if none
+    private final int longestBleed;  // seconds
+    private final double progress;  // 0 - 1 since session began
+    private final boolean converged;
+
+    BalancingPlan(PackStore layout, double target, double minVoltage, double
+            maxVoltage, double medianVoltage, int cellsAbove, int[]
+                          bleedSeconds, double progress, boolean converged) {
+        this.layout = layout;
+        this.target = target;
+        this.minVoltage = minVoltage;
+        this.maxVoltage = maxVoltage;
+        this.medianVoltage = medianVoltage;
+        this.cellsAbove = cellsAbove;
+        this.bleedSeconds = bleedSeconds;
+        this.progress = progress;
+        this.converged = converged;
+
+        int longest = 0;
+        for (int seconds : bleedSeconds) {
+            longest = Math.max(longest, seconds);
+        }
+        longestBleed = longest;
+    }
+
+    /**
+     * Gets voltage all cells are bled to
+     *
+     * @return target (mV), NaN if nothing read
+     */
+    public double getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets difference between highest and lowest cell
+     *
+     * @return spread (mV), NaN if nothing read
+     */
+    public double getSpread() {
+        return maxVoltage - minVoltage;
+    }
+
+    public double getMinVoltage() {
+        return minVoltage;
+    }
+
+    public double getMaxVoltage() {
+        return maxVoltage;
+    }
+
+    public double getMedianVoltage() {
+        return medianVoltage;
+    }
+
+    /**
+     * Gets number of cells above target (and tolerance)
+     *
+     * @return number of cells to bleed
+     */
+    public int getCellsAbove() {
+        return cellsAbove;
+    }
+
+    /**
+     * Gets how long cell must bleed
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return seconds of bleeding, 0 if cell is balanced
+     */
+    public int getBleedSeconds(int bms, int cell) {
+        return bleedSeconds[layout.getFirstCell(bms) + cell];
+    }
+
+    /**
+     * Check if any cell of bms must bleed
+     *
+     * @param bms index of bms in pack
+     * @return True iff bms has a cell above target
+     */
+    public boolean isBleeding(int bms) {
+        for (int cell = layout.getFirstCell(bms); cell < layout.getFirstCell(
+                bms + 1); cell++) {
+            if (bleedSeconds[cell] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets time left to balance pack (longest bleed)
+     *
+     * @return seconds
+     */
+    public int getLongestBleed() {
+        return longestBleed;
+    }
+
+    /**
+     * Gets how much of initial spread has been removed
+     *
+     * @return progress (0 - 1)
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    /**
+     * Check if all cells are within tolerance of each other
+     *
+     * @return True iff balancing is over
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    @Override
+    public String toString() {
+        if (Double.isNaN(target)) {
+            return "Balance: DNF";
+        }
+        if (converged) {
+            return String.format("Balanced: spread %.0f mV", getSpread());
+        }
+        return String.format("Balance: target %.0f mV, spread %.0f mV, %d " +
+                        "cells, %d min left, %.0f%%", target, getSpread(),
+                cellsAbove, (longestBleed + 59) / 60, progress * 100.0);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Plans passive balancing of a pack (writer thread): all cells are bled to
+ * the lowest one. Ranks of cells come from the rank tree of the store, kept
+ * up to date on every write, so the spread and the cells above target are
+ * known without sorting. Stale cells are not ranked: a dead or silent cell
+ * neither sets the target nor keeps the pack from converging. Charge to
+ * bleed from a cell comes from the OCV table (balancing happens at rest, so
+ * voltages are OCVs), time from the current drawn by its bleed resistor.
+ * Plans are computed again while cells bleed, so durations follow what
+ * cells really do (closed loop).
+ */
+public class BalancingPlanner {
+    public static final double DEFAULT_TOLERANCE = 5.0;  // mV of spread
+    public static final double DEFAULT_CELL_CAPACITY = 2.5;  // Ah
+    public static final double DEFAULT_BLEED_RESISTANCE = 33.0;  // Ohm
+    public static final int MAX_BLEED_SECONDS = 0xFFFF;  // of a command
+    private final PackStore store;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double cellCapacity = DEFAULT_CELL_CAPACITY;
+    private double bleedResistance = DEFAULT_BLEED_RESISTANCE;
+    private double initialSpread = Double.NaN;  // when session began
+
+    /**
+     * Builds planner of pack with default cells and bleed resistors
+     *
+     * @param store values of pack
+     */
+    public BalancingPlanner(PackStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets max spread of a balanced pack
+     *
+     * @param tolerance spread (mV)
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Sets capacity of a cell (of cells in parallel, if any)
+     *
+     * @param cellCapacity capacity (Ah)
+     */
+    public void setCellCapacity(double cellCapacity) {
+        this.cellCapacity = cellCapacity;
+    }
+
+    /**
+     * Sets resistor cells bleed through
+     *
+     * @param bleedResistance resistance (Ohm)
+     */
+    public void setBleedResistance(double bleedResistance) {
+        this.bleedResistance = bleedResistance;
+    }
+
+    /**
+     * Starts a new balancing session (progress is measured from next plan)
+     */
+    public void reset() {
+        initialSpread = Double.NaN;
+    }
+
+    /**
+     * Computes plan from current values (only writer thread should call
+     * this): O(log n) when pack is balanced, O(n) otherwise
+     *
+     * @return new plan
+     */
+    public BalancingPlan plan() {
+        RankTree ranks = store.getVoltageRanks();
+        int[] bleedSeconds = new int[store.getNumberOfCells()];
+        if (ranks.getCount() == 0) {  // nothing read, or all stale
+            return new BalancingPlan(store, Double.NaN, Double.NaN, Double
+                    .NaN, Double.NaN, 0, bleedSeconds, 0.0, false);
+        }
+
+        double min = ranks.select(0);  // of fresh cells, at rank resolution
+        double max = ranks.select(ranks.getCount() - 1);
+
+        double target = Math.max(min, BmsDevice.VOLTAGE_BOUNDS[0]);
+        double spread = max - min;
+        if (Double.isNaN(initialSpread)) {
+            initialSpread = spread;
+        }
+        double progress = initialSpread <= tolerance ? 1.0 : Math.max(0.0,
+                Math.min(1.0, (initialSpread - spread) / (initialSpread -
+                        tolerance)));
+        double median = ranks.select(ranks.getCount() / 2);
+        int above = ranks.countAbove(target + tolerance);
+        boolean converged = spread <= tolerance;
+        if (above > 0) {
+            plan(target, bleedSeconds);
+        }
+        return new BalancingPlan(store, target, min, max, median, above,
+                bleedSeconds, progress, converged);
+    }
+
+    private void plan(double target, int[] bleedSeconds) {
+        SocEstimator socs = store.getSocEstimator();
+        double targetSoc = socs.ocvToSoc(target);
+        for (int bms = 0; bms < store.getNumberOfBms(); bms++) {
+            for (int cell = 0; cell < store.getNumberOfCells(bms); cell++) {
+                double voltage = store.getVoltage(bms, cell);
+                if (!(voltage > target + tolerance) || store.isVoltageStale(
+                        bms, cell)) {
+                    continue;  // balanced, not read or not trusted
+                }
+
+                double charge = (socs.ocvToSoc(voltage) - targetSoc) /
+                        100.0 * cellCapacity * 3600.0;  // As
+                double current = voltage / 1000.0 / bleedResistance;  // A
+                bleedSeconds[store.getFirstCell(bms) + cell] = (int) Math.min(
+                        MAX_BLEED_SECONDS, Math.ceil(charge / current));
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.raceup.ed.bms.models.battery;
 
-import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 public class BmsDevice implements BmsControllable {
@@ -10,12 +9,18 @@ public class BmsDevice implements BmsControllable {
             426.0, 596.4};
     public static final double[] TEMPERATURE_BOUNDS = new double[]{0.0,
             60.0};
-    private double[] voltages;
-    private double temperature1;
-    private double temperature2;
+    public static final double[] SOC_BOUNDS = new double[]{10.0, 100.1};
+    public static final double[] TIME_TO_LIMIT_BOUNDS = new double[]{
+            300.0, Double.POSITIVE_INFINITY};  // s, warn 5 min before
+    public static final double[] OUTLIER_BOUNDS = new double[]{-1.0, 0.5};
+    public static final double[] ALARM_BOUNDS = new double[]{-1.0, 0.5};
+    public static final int DEFAULT_NUMBER_OF_CELLS = 6;
+    private final PackStore store;  // where values live
+    private final int bms;  // index of bms in store
+    private final AggregateTree voltages;  // of cells of bms
 
     public BmsDevice() {
-        this(6);
+        this(DEFAULT_NUMBER_OF_CELLS);
     }
 
     /**
@@ -24,7 +29,28 @@ public class BmsDevice implements BmsControllable {
      * @param numberOfVoltages number of voltages in BMS
      */
     public BmsDevice(int numberOfVoltages) {
-        voltages = new double[numberOfVoltages];
+        this(new PackStore(1, 1, numberOfVoltages), 0);
+    }
+
+    /**
+     * Builds view of bms of a pack
+     *
+     * @param store values of pack
+     * @param bms   index of bms in pack
+     */
+    BmsDevice(PackStore store, int bms) {
+        this.store = store;
+        this.bms = bms;
+        this.voltages = store.getBmsVoltages(bms);
+    }
+
+    /**
+     * Number of cells monitored by device
+     *
+     * @return number of voltages
+     */
+    public int getNumberOfCells() {
+        return voltages.getLeaves();
     }
 
     /**
@@ -32,7 +58,7 @@ public class BmsDevice implements BmsControllable {
      * @return temperature 1
      */
     public double getTemperature1() {
-        return temperature1;
+        return store.getTemperature1(bms);
     }
 
     /**
@@ -40,7 +66,7 @@ public class BmsDevice implements BmsControllable {
      * @param value temperature 2
      */
     public void setTemperature1(double value) {
-        temperature1 = value;
+        store.setTemperature1(bms, value);
     }
 
     /**
@@ -48,7 +74,7 @@ public class BmsDevice implements BmsControllable {
      * @return temperature 2
      */
     public double getTemperature2() {
-        return temperature2;
+        return store.getTemperature2(bms);
     }
 
     /**
@@ -56,7 +82,7 @@ public class BmsDevice implements BmsControllable {
      * @param value temperature 2
      */
     public void setTemperature2(double value) {
-        temperature2 = value;
+        store.setTemperature2(bms, value);
     }
 
     /**
@@ -65,7 +91,7 @@ public class BmsDevice implements BmsControllable {
      * @return voltage of cell
      */
     public double getVoltage(int index) {
-        return voltages[index];
+        return store.getVoltage(bms, index);
     }
 
     /**
@@ -74,32 +100,22 @@ public class BmsDevice implements BmsControllable {
      * @param value voltage of cell
      */
     public void setVoltage(int index, double value) {
-        voltages[index] = value;
+        store.setVoltage(bms, index, value);
     }
 
     @Override
     public double getTemperature() {
-        return Math.max(getTemperature1(), getTemperature2());
+        return store.getTemperature(bms);
     }
 
     @Override
     public double getVoltage() {
-        double sum = 0.0;
-        for (double voltage : voltages) {
-            sum += voltage;
-        }
-        return sum;
+        return voltages.getSum();
     }
 
     public double getMinVoltage() throws NoSuchElementException {
-        double result = Double.MAX_VALUE;
-        for (double voltage : voltages) {
-            if (voltage > 0 && voltage < result) {
-                result = voltage;
-            }
-        }
-
-        if (result == Double.MAX_VALUE) {
+        double result = voltages.getMin();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find min");
         }
 
@@ -107,14 +123,8 @@ public class BmsDevice implements BmsControllable {
     }
 
     public double getMaxVoltage() throws NoSuchElementException {
-        double result = Double.MIN_VALUE;
-        for (double voltage : voltages) {
-            if (voltage > 0 && voltage > result) {
-                result = voltage;
-            }
-        }
-
-        if (result == Double.MIN_VALUE) {
+        double result = voltages.getMax();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find max");
         }
 
@@ -122,55 +132,28 @@ public class BmsDevice implements BmsControllable {
     }
 
     public double getAvgVoltage() throws NoSuchElementException {
-        double result = 0.0;
-        int samples = 0;
-        for (double voltage : voltages) {
-            if (voltage > 0) {
-                result += voltage;
-                samples += 1;
-            }
-        }
-
-        if (result == 0.0) {
+        double result = voltages.getAverage();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find avg");
         }
 
-        result /= samples;
         return result;
     }
 
-    public HashMap<String, Double> getCurrentValues() {
-        HashMap<String, Double> map = new HashMap<>();
-        try {
-            map.put("min", getMinVoltage());
-        } catch (Exception e) {
-            map.put("min", null);
-        }
-
-        try {
-            map.put("max", getMaxVoltage());
-        } catch (Exception e) {
-            map.put("max", null);
-        }
-
-        try {
-            map.put("avg", getAvgVoltage());
-        } catch (Exception e) {
-            map.put("avg", null);
-        }
-
-        try {
-            map.put("t1", getTemperature1());
-        } catch (Exception e) {
-            map.put("t1", null);
-        }
-
-        try {
-            map.put("t2", getTemperature2());
-        } catch (Exception e) {
-            map.put("t2", null);
+    /**
+     * Copies current values in readout (throws nothing, allocates nothing)
+     *
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readCurrentValues(DeviceReadout readout) {
+        readout.set(voltages.getMin(), voltages.getMax(), voltages
+                .getAverage(), getTemperature1(), getTemperature2());
+        boolean voltagesStale = false;
+        for (int cell = 0; cell < getNumberOfCells(); cell++) {
+            voltagesStale |= store.isVoltageStale(bms, cell);
         }
-
-        return map;
+        readout.setSoc(store.getBmsSocs(bms).getAverage());
+        readout.setStale(voltagesStale, store.isTemperature1Stale(bms), store
+                .isTemperature2Stale(bms));
     }
 }
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cells, temperature sensors and bms changed since a consumer last drained
+ * them (one bitset each, one change set per consumer). Writer marks bits,
+ * consumer drains them and reads only what changed: its work follows the
+ * change rate, not the pack size. Everything is marked changed at start.
+ */
+public class ChangeSet {
+    private final PackStore store;
+    private final AtomicLongArray cells;  // cell of pack -> changed
+    private final AtomicLongArray sensors;  // bms * 2 + sensor -> changed
+    private final AtomicLongArray bms;  // bms -> values or aggregates changed
+    private final int numberOfCells;
+    private final int numberOfSensors;
+    private final int numberOfBms;
+
+    /**
+     * Builds change set of store (register it with PackStore.newChangeSet)
+     *
+     * @param store store to track
+     */
+    ChangeSet(PackStore store) {
+        this.store = store;
+        numberOfCells = store.getNumberOfCells();
+        numberOfBms = store.getNumberOfBms();
+        numberOfSensors = numberOfBms * PackStore.TEMPERATURES_PER_BMS;
+        cells = newBitset(numberOfCells);
+        sensors = newBitset(numberOfSensors);
+        bms = newBitset(numberOfBms);
+    }
+
+    private static AtomicLongArray newBitset(int bits) {
+        AtomicLongArray words = new AtomicLongArray((bits + 63) >>> 6);
+        for (int word = 0; word < words.length(); word++) {
+            int left = bits - word * 64;
+            words.set(word, left >= 64 ? -1L : (1L << left) - 1);  // all
+        }
+        return words;
+    }
+
+    /**
+     * Sets bit, without writing shared memory if it is already set (e.g
+     * consumer slower than writer)
+     */
+    private static void mark(AtomicLongArray words, int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;  // shift is mod 64
+        long current = words.get(word);
+        while ((current & bit) == 0 && !words.compareAndSet(word, current,
+                current | bit)) {
+            current = words.get(word);
+        }
+    }
+
+    /**
+     * Moves set bits to indices and clears them
+     *
+     * @return number of indices
+     */
+    private static int drain(AtomicLongArray words, int[] indices) {
+        int count = 0;
+        for (int word = 0; word < words.length(); word++) {
+            if (words.get(word) == 0) {
+                continue;
+            }
+
+            long bits = words.getAndSet(word, 0);
+            while (bits != 0) {
+                indices[count++] = (word << 6) + Long.numberOfTrailingZeros(
+                        bits);
+                bits &= bits - 1;  // clear lowest bit
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Writer side (called by store)
+     */
+
+    void markCell(int cell, int bms) {
+        mark(cells, cell);
+        mark(this.bms, bms);
+    }
+
+    void markSensor(int sensor, int bms) {
+        mark(sensors, sensor);
+        mark(this.bms, bms);
+    }
+
+    /*
+     * Consumer side
+     */
+
+    /**
+     * Check if anything changed since last drain
+     *
+     * @return True iff a bms has been marked
+     */
+    public boolean hasChanges() {
+        for (int word = 0; word < bms.length(); word++) {
+            if (bms.get(word) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets changed cells and forgets them
+     *
+     * @param changed where to put indices of cells in pack (as many as
+     *                cells in pack)
+     * @return number of changed cells
+     */
+    public int drainCells(int[] changed) {
+        return drain(cells, changed);
+    }
+
+    /**
+     * Gets changed temperature sensors and forgets them
+     *
+     * @param changed where to put indices of sensors (bms * 2 + sensor, as
+     *                many as sensors in pack)
+     * @return number of changed sensors
+     */
+    public int drainSensors(int[] changed) {
+        return drain(sensors, changed);
+    }
+
+    /**
+     * Gets bms whose cells, sensors or aggregates changed and forgets them
+     *
+     * @param changed where to put indices of bms (as many as bms in pack)
+     * @return number of changed bms
+     */
+    public int drainBms(int[] changed) {
+        return drain(bms, changed);
+    }
+
+    public int getNumberOfCells() {
+        return numberOfCells;
+    }
+
+    public int getNumberOfSensors() {
+        return numberOfSensors;
+    }
+
+    public int getNumberOfBms() {
+        return numberOfBms;
+    }
+
+    /**
+     * Stops tracking changes (writer no longer marks this set)
+     */
+    public void close() {
+        store.removeChangeSet(this);
+    }
+}
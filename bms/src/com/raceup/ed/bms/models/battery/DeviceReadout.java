@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Current values of a bms, reused by reader on every refresh (no boxing, no
+ * exceptions). Values not read yet are NaN.
+ */
+public class DeviceReadout {
+    private double minVoltage = Double.NaN;
+    private double maxVoltage = Double.NaN;
+    private double avgVoltage = Double.NaN;
+    private double temperature1 = Double.NaN;
+    private double temperature2 = Double.NaN;
+    private double avgSoc = Double.NaN;
+    private boolean voltagesStale = false;  // any cell missed its updates
+    private boolean temperature1Stale = false;
+    private boolean temperature2Stale = false;
+
+    /**
+     * Sets all values of readout
+     *
+     * @param minVoltage   min voltage of cells
+     * @param maxVoltage   max voltage of cells
+     * @param avgVoltage   average voltage of cells
+     * @param temperature1 value of sensor 1 (NaN if not read)
+     * @param temperature2 value of sensor 2 (NaN if not read)
+     */
+    void set(double minVoltage, double maxVoltage, double avgVoltage,
+             double temperature1, double temperature2) {
+        this.minVoltage = minVoltage;
+        this.maxVoltage = maxVoltage;
+        this.avgVoltage = avgVoltage;
+        this.temperature1 = temperature1;
+        this.temperature2 = temperature2;
+    }
+
+    /**
+     * Sets which values missed their updates
+     *
+     * @param voltagesStale     True iff any cell is stale
+     * @param temperature1Stale True iff sensor 1 is stale
+     * @param temperature2Stale True iff sensor 2 is stale
+     */
+    void setStale(boolean voltagesStale, boolean temperature1Stale, boolean
+            temperature2Stale) {
+        this.voltagesStale = voltagesStale;
+        this.temperature1Stale = temperature1Stale;
+        this.temperature2Stale = temperature2Stale;
+    }
+
+    void setSoc(double avgSoc) {
+        this.avgSoc = avgSoc;
+    }
+
+    /**
+     * Gets average state of charge of cells
+     *
+     * @return state of charge (%), NaN if nothing read
+     */
+    public double getAvgSoc() {
+        return avgSoc;
+    }
+
+    public boolean isVoltagesStale() {
+        return voltagesStale;
+    }
+
+    public boolean isTemperature1Stale() {
+        return temperature1Stale;
+    }
+
+    public boolean isTemperature2Stale() {
+        return temperature2Stale;
+    }
+
+    public double getMinVoltage() {
+        return minVoltage;
+    }
+
+    public double getMaxVoltage() {
+        return maxVoltage;
+    }
+
+    public double getAvgVoltage() {
+        return avgVoltage;
+    }
+
+    public double getTemperature1() {
+        return temperature1;
+    }
+
+    public double getTemperature2() {
+        return temperature2;
+    }
+
+    /**
+     * Check if any cell voltage has been read
+     *
+     * @return True iff min, max and average voltages are known
+     */
+    public boolean hasVoltages() {
+        return !Double.isNaN(avgVoltage);
+    }
+}
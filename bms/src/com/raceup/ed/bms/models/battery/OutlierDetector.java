@@ -0,0 +1,235 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Finds cells deviating from the other cells of their segment, once per
+ * update cycle: robust z score of each cell against median and median
+ * absolute deviation (MAD) of its segment, so the cells to find do not pull
+ * the reference. Medians come from quickselect on a scratch array (O(n)
+ * expected), all loops run on primitive arrays and nothing is allocated
+ * after construction.
+ */
+public class OutlierDetector {
+    public static final double DEFAULT_THRESHOLD = 3.5;  // robust z score
+    public static final double MIN_MAD = 1.0;  // mV, resolution of cells
+    private static final double MAD_SCALE = 0.6745;  // MAD -> sigma
+    private final int[] firstCellOfSegment;  // segment -> first cell (+ end)
+    private final double[] scratch;  // values of a segment
+    private final double[] scores;  // cell -> robust z score, NaN if none
+    private final int[] outliers;  // cells above threshold
+    private int numberOfOutliers = 0;
+    private double threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * Builds detector of a pack layout
+     *
+     * @param firstCellOfSegment index of first cell of each segment,
+     *                           followed by number of cells
+     */
+    public OutlierDetector(int[] firstCellOfSegment) {
+        this.firstCellOfSegment = firstCellOfSegment;
+        int cells = firstCellOfSegment[firstCellOfSegment.length - 1];
+        int maxCellsOfSegment = 0;
+        for (int segment = 0; segment < firstCellOfSegment.length - 1;
+             segment++) {
+            maxCellsOfSegment = Math.max(maxCellsOfSegment,
+                    firstCellOfSegment[segment + 1] -
+                            firstCellOfSegment[segment]);
+        }
+        scratch = new double[maxCellsOfSegment];
+        scores = new double[cells];
+        outliers = new int[cells];
+    }
+
+    /**
+     * Sets robust z score above which a cell is an outlier
+     *
+     * @param threshold min absolute score of outliers
+     */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Scores all cells (O(n) expected)
+     *
+     * @param values  cell -> value (0 or less if not read)
+     * @param ignored cell -> True iff value must not be scored (e.g stale),
+     *                null if all are scored
+     * @return number of outliers
+     */
+    public int detect(double[] values, boolean[] ignored) {
+        numberOfOutliers = 0;
+        for (int segment = 0; segment < firstCellOfSegment.length - 1;
+             segment++) {
+            detect(values, ignored, firstCellOfSegment[segment],
+                    firstCellOfSegment[segment + 1]);
+        }
+        return numberOfOutliers;
+    }
+
+    private void detect(double[] values, boolean[] ignored, int first, int
+            end) {
+        int count = 0;
+        for (int cell = first; cell < end; cell++) {
+            double value = values[cell];
+            if (value > 0.0 && (ignored == null || !ignored[cell])) {
+                scratch[count++] = value;
+            }
+        }
+
+        if (count < 3) {  // no majority to compare with
+            for (int cell = first; cell < end; cell++) {
+                scores[cell] = Double.NaN;
+            }
+            return;
+        }
+
+        double median = median(scratch, count);
+        double mad = Math.max(MIN_MAD, mad(scratch, count, median));
+
+        for (int cell = first; cell < end; cell++) {
+            double value = values[cell];
+            if (value > 0.0 && (ignored == null || !ignored[cell])) {
+                double score = score(value, median, mad);
+                scores[cell] = score;
+                if (Math.abs(score) > threshold) {
+                    outliers[numberOfOutliers++] = cell;
+                }
+            } else {
+                scores[cell] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Gets robust z score of value
+     *
+     * @param median median of values
+     * @param mad    median absolute deviation of values (more than 0)
+     * @return score, about the z score of normally distributed values
+     */
+    static double score(double value, double median, double mad) {
+        return MAD_SCALE * (value - median) / mad;
+    }
+
+    /**
+     * Finds median absolute deviation of values (overwrites them with their
+     * deviations)
+     *
+     * @param median median of values
+     */
+    static double mad(double[] values, int count, double median) {
+        for (int i = 0; i < count; i++) {
+            values[i] = Math.abs(values[i] - median);
+        }
+        return median(values, count);
+    }
+
+    /**
+     * Finds median of values (reorders them)
+     */
+    static double median(double[] values, int count) {
+        int middle = count / 2;
+        double upper = select(values, count, middle);
+        if (count % 2 == 1) {
+            return upper;
+        }
+
+        double lower = values[0];  // max of values before middle
+        for (int i = 1; i < middle; i++) {
+            lower = Math.max(lower, values[i]);
+        }
+        return (lower + upper) / 2.0;
+    }
+
+    /**
+     * Moves k-th smallest value at index k, smaller values before it
+     * (quickselect, median of 3 pivot)
+     */
+    private static double select(double[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (right > left) {
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left]) {
+                swap(values, left, middle);
+            }
+            if (values[right] < values[left]) {
+                swap(values, left, right);
+            }
+            if (values[right] < values[middle]) {
+                swap(values, middle, right);
+            }
+            double pivot = values[middle];
+
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;  // between j and i: equal to pivot
+            }
+        }
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Gets score of cell at last detection
+     *
+     * @param cell index of cell in pack
+     * @return robust z score, NaN if cell was not scored
+     */
+    public double getScore(int cell) {
+        return scores[cell];
+    }
+
+    public int getNumberOfOutliers() {
+        return numberOfOutliers;
+    }
+
+    /**
+     * Gets outlier found at last detection
+     *
+     * @param outlier index of outlier
+     * @return index of cell in pack
+     */
+    public int getOutlier(int outlier) {
+        return outliers[outlier];
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Cells deviating from their segment at last detection, reused by reader on
+ * every refresh.
+ */
+public class OutlierReport {
+    private int[] bms = new int[0];  // grown when more outliers are found
+    private int[] cells = new int[0];
+    private double[] scores = new double[0];
+    private int size = 0;
+    private long epoch = -1;  // of store when detected, -1 if never
+
+    void ensureCapacity(int capacity) {
+        if (cells.length < capacity) {
+            bms = new int[capacity];
+            cells = new int[capacity];
+            scores = new double[capacity];
+        }
+    }
+
+    void set(int outlier, int bms, int cell, double score) {
+        this.bms[outlier] = bms;
+        this.cells[outlier] = cell;
+        this.scores[outlier] = score;
+    }
+
+    void setSize(int size, long epoch) {
+        this.size = size;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Gets number of outliers
+     *
+     * @return number of cells deviating from their segment
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets bms of outlier
+     *
+     * @param outlier index of outlier
+     * @return index of bms in pack
+     */
+    public int getBms(int outlier) {
+        return bms[outlier];
+    }
+
+    /**
+     * Gets cell of outlier
+     *
+     * @param outlier index of outlier
+     * @return index of cell in bms
+     */
+    public int getCell(int outlier) {
+        return cells[outlier];
+    }
+
+    /**
+     * Gets robust z score of outlier (positive when above its segment)
+     *
+     * @param outlier index of outlier
+     * @return score
+     */
+    public double getScore(int outlier) {
+        return scores[outlier];
+    }
+
+    /**
+     * Check if bms has an outlier cell
+     *
+     * @param bms index of bms in pack
+     * @return True iff a cell of bms is an outlier
+     */
+    public boolean contains(int bms) {
+        for (int outlier = 0; outlier < size; outlier++) {
+            if (this.bms[outlier] == bms) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets epoch of store when outliers were detected
+     *
+     * @return epoch, -1 if never detected
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int outlier = 0; outlier < size; outlier++) {
+            if (outlier > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format("bms %d cell %d (z %+.1f)",
+                    bms[outlier] + 1, cells[outlier] + 1, scores[outlier]));
+        }
+        return builder.toString();
+    }
+}
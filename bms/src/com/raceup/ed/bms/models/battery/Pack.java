@@ -16,16 +16,15 @@
 
 package com.raceup.ed.bms.models.battery;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 /**
  * Battery pack containing segments of battery cells
  */
 public class Pack implements BmsControllable {
-    private Segment[] segments;  // list of segments in battery pack
+    private final PackStore store;  // values of all cells
+    private final Segment[] segments;  // views of segments in battery pack
+    private final BalancingPlanner balancingPlanner;
 
     /**
      * Builds new battery pack model
@@ -33,10 +32,137 @@ public class Pack implements BmsControllable {
      * @param numberOfBmsPerSegment number of bms in each segment
      */
     public Pack(int numberOfSegments, int numberOfBmsPerSegment) {
-        segments = new Segment[numberOfSegments];
+        this(new PackStore(numberOfSegments, numberOfBmsPerSegment,
+                BmsDevice.DEFAULT_NUMBER_OF_CELLS));
+    }
+
+    /**
+     * Builds battery pack model from a topology descriptor
+     *
+     * @param topology layout of pack
+     */
+    public Pack(PackTopology topology) {
+        this(topology.newStore());
+        balancingPlanner.setCellCapacity(topology.getCellCapacity());
+        balancingPlanner.setBleedResistance(topology.getBleedResistance());
+    }
+
+    /**
+     * Builds battery pack model over a store
+     *
+     * @param store values and layout of pack
+     */
+    public Pack(PackStore store) {
+        this.store = store;
+        segments = new Segment[store.getNumberOfSegments()];
         for (int i = 0; i < segments.length; i++) {
-            segments[i] = new Segment(numberOfBmsPerSegment);
+            segments[i] = new Segment(store, i);
         }
+        balancingPlanner = new BalancingPlanner(store);
+    }
+
+    /**
+     * Gets flat store of values (for pack-wide scans)
+     *
+     * @return store of pack
+     */
+    public PackStore getStore() {
+        return store;
+    }
+
+    /**
+     * Gets planner of balancing sessions (writer thread)
+     *
+     * @return planner of pack
+     */
+    public BalancingPlanner getBalancingPlanner() {
+        return balancingPlanner;
+    }
+
+    /**
+     * Gets segment of pack
+     *
+     * @param segment index of segment
+     * @return view of segment
+     */
+    public Segment getSegment(int segment) {
+        return segments[segment];
+    }
+
+    /**
+     * Builds snapshot to be owned by a reader thread
+     *
+     * @return empty snapshot of pack (fill it with read)
+     */
+    public PackSnapshot newSnapshot() {
+        return new PackSnapshot(store);
+    }
+
+    /**
+     * Copies consistent state of whole pack (any thread, never blocks
+     * writer)
+     *
+     * @param snapshot where to copy state
+     */
+    public void read(PackSnapshot snapshot) {
+        store.read(snapshot);
+    }
+
+    /**
+     * Marks values that missed their updates (writer thread, e.g every
+     * loop)
+     *
+     * @return number of cells and sensors that just became stale
+     */
+    public int expireStale() {
+        return store.expireStale();
+    }
+
+    /**
+     * Scores cells against their segment and keeps outliers (writer
+     * thread, once per update cycle)
+     *
+     * @return number of cells deviating from their segment
+     */
+    public int detectOutliers() {
+        return store.detectOutliers();
+    }
+
+    /**
+     * Copies outliers found at last detection (any thread, never blocks
+     * writer)
+     *
+     * @param report where to copy outliers
+     */
+    public void readOutliers(OutlierReport report) {
+        store.readOutliers(report);
+    }
+
+    public boolean isVoltageStale(int bms, int cell) {
+        return store.isVoltageStale(bms, cell);
+    }
+
+    /**
+     * Registers a consumer that reads only what changed since its last
+     * drain
+     *
+     * @return change set of consumer (close it when done)
+     */
+    public ChangeSet newChangeSet() {
+        return store.newChangeSet();
+    }
+
+    /**
+     * Starts a group of writes published at once to readers (writer thread)
+     *
+     * @return stamp to end update with
+     */
+    public long beginUpdate() {
+        return store.beginUpdate();
+    }
+
+    public void endUpdate(long stamp) {
+        store.endUpdate(stamp);
     }
 
     /*
@@ -62,12 +188,31 @@ public class Pack implements BmsControllable {
     }
 
     /**
-     * Number of segments in battery pack
+     * Number of cells monitored by each bms
      *
-     * @return length of list of segments
+     * @return number of cells of bms
+     */
+    public int getNumberOfCellsPerBms() {
+        return segments[0].getNumberOfCellsPerBms();
+    }
+
+    /**
+     * Number of bms in battery pack
+     *
+     * @return number of bms of all segments
      */
     public int getNumberOfBms() {
-        return getNumberOfBmsPerSegment() * getNumberOfSegments();
+        return store.getNumberOfBms();
+    }
+
+    /**
+     * Number of cells monitored by bms (wired or not)
+     *
+     * @param bms index of bms in pack
+     * @return number of cells of bms
+     */
+    public int getNumberOfCells(int bms) {
+        return store.getNumberOfCells(bms);
     }
 
     /*
@@ -80,65 +225,57 @@ public class Pack implements BmsControllable {
      * @return average temperature
      */
     public double getTemperature() {
-        double result = 0.0;
-        int samples = 0;
-        for (Segment segment : segments) {
-            double temperature = segment.getTemperature();
-            if (temperature > 0) {
-                result += temperature;
-                samples += 1;
-            }
-        }
-
-        if (result == 0.0) {
+        double result = store.getPackTemperatures().getAverage();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find avg");
         }
 
-        result /= samples;
         return result;
     }
 
+    /**
+     * Retrieve temperature of hottest bms of pack
+     *
+     * @return max temperature
+     */
     public double getMaxTemperature() {
-        double result = Double.MIN_VALUE;
-        for (Segment segment : segments) {
-            double temperature = segment.getTemperature();
-            if (temperature > 0 && temperature > result) {
-                result = temperature;
-            }
-        }
-
-        if (result == Double.MIN_VALUE) {
+        double result = store.getPackTemperatures().getMax();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find max");
         }
 
         return result;
     }
 
+    /**
+     * Predicts time left before a sensor of pack reaches temperature limit
+     * (writer thread)
+     *
+     * @return s (0 if already reached), NaN if none is heading to limit
+     */
+    public double getTimeToLimit() {
+        return store.getThermalTrend().getTimeToLimit(System.nanoTime());
+    }
+
     /**
      * Update temperature of cell of given cell
      *
      * @param value new temperature reading
      */
     public void setTemperature1(int bms, double value) {
-        segments[getSegmentOfBms(bms)].setTemperature1OfBms(
-                getBmsIndex(bms), value
-        );
+        store.setTemperature1(bms, value);
     }
 
     public void setTemperature2(int bms, double value) {
-        segments[getSegmentOfBms(bms)].setTemperature2OfBms(
-                getBmsIndex(bms), value
-        );
+        store.setTemperature2(bms, value);
     }
 
     public double getTemperature1(int bms) {
-        return segments[getSegmentOfBms(bms)].getTemperature1OfBms(
-                getBmsIndex(bms));
+        return store.getTemperature1(bms);
     }
 
     public double getTemperature2(int bms) {
-        return segments[getSegmentOfBms(bms)].getTemperature2OfBms(
-                getBmsIndex(bms));
+        return store.getTemperature2(bms);
     }
 
     public double getTemperature(int bms) {
@@ -152,15 +289,38 @@ public class Pack implements BmsControllable {
      * @param value      new voltage reading
      */
     public void setVoltage(int bms, int cell, double value) {
-        if (bms == 1 || bms == 21) {
-            if (cell == 5) {
-                return;
-            }
-        }
+        store.setVoltage(bms, cell, value);  // cells not wired are skipped
+    }
 
-        segments[getSegmentOfBms(bms)].setVoltageOfBms(
-                getBmsIndex(bms), cell, value
-        );
+    /**
+     * Update current of pack (fits internal resistance of cells)
+     *
+     * @param value new current (A, positive when discharging)
+     */
+    public void setCurrent(double value) {
+        store.setCurrent(value);
+    }
+
+    /**
+     * Gets internal resistance of cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return resistance (mOhm), NaN if pack current never moved
+     */
+    public double getResistance(int bms, int cell) {
+        return store.getResistance(bms, cell);
+    }
+
+    /**
+     * Check if a cell is in pack and wired (as declared by topology)
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return True iff voltages of cell are kept
+     */
+    public boolean isCellWired(int bms, int cell) {
+        return store.getCellIndex(bms, cell) >= 0;
     }
 
     /**
@@ -169,14 +329,7 @@ public class Pack implements BmsControllable {
      * @return average voltage
      */
     public double getVoltage() {
-        double result = 0.0;
-        for (Segment segment : segments) {
-            double voltage = segment.getVoltage();
-            if (voltage > 0) {
-                result += voltage;
-            }
-        }
-
+        double result = store.getPackVoltages().getSum();
         if (result == 0.0) {
             throw new NoSuchElementException("Cannot find tot");
         }
@@ -185,91 +338,114 @@ public class Pack implements BmsControllable {
     }
 
     public double getVoltage(int bms, int cell) {
-        return segments[getSegmentOfBms(bms)].getVoltage(
-                getBmsIndex(bms), cell);
+        return store.getVoltage(bms, cell);
+    }
+
+    /**
+     * Gets state of charge of cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return state of charge (%), NaN if not read yet
+     */
+    public double getSoc(int bms, int cell) {
+        return store.getSoc(bms, cell);
+    }
+
+    /**
+     * Gets average state of charge of cells of bms
+     *
+     * @param bms index of bms in pack
+     * @return state of charge (%), NaN if not read yet
+     */
+    public double getSoc(int bms) {
+        return store.getBmsSocs(bms).getAverage();
+    }
+
+    /**
+     * Gets state of charge of emptiest cell (the one limiting the pack)
+     *
+     * @return state of charge (%), NaN if not read yet
+     */
+    public double getMinSoc() {
+        return store.getPackSocs().getMin();
+    }
+
+    /**
+     * Gets average state of charge of all cells
+     *
+     * @return state of charge (%), NaN if not read yet
+     */
+    public double getSoc() {
+        return store.getPackSocs().getAverage();
     }
 
     public double getMinVoltage(int bms) {
-        return segments[getSegmentOfBms(bms)].getMinVoltage(getBmsIndex(bms));
+        return getBmsDevice(bms).getMinVoltage();
     }
 
     public double getMaxVoltage(int bms) {
-        return segments[getSegmentOfBms(bms)].getMaxVoltage(getBmsIndex(bms));
+        return getBmsDevice(bms).getMaxVoltage();
     }
 
     public double getAvgVoltage(int bms) {
-        return segments[getSegmentOfBms(bms)].getAvgVoltage(getBmsIndex(bms));
+        return getBmsDevice(bms).getAvgVoltage();
+    }
+
+    /**
+     * Gets bms of pack
+     *
+     * @param bms index of bms in pack
+     * @return view of bms
+     */
+    public BmsDevice getBmsDevice(int bms) {
+        return segments[getSegmentOfBms(bms)].getBmsDevice(getBmsIndex(bms));
     }
 
-    public double getMinVoltage() {
-        ArrayList<Double> voltages = new ArrayList<>();
-        for (Segment segment : segments) {
-            try {
-                voltages.add(segment.getMinVoltage());
-            } catch (Exception e) {
-            }
+    public double getMinVoltage() throws NoSuchElementException {
+        double result = store.getPackVoltages().getMin();
+        if (Double.isNaN(result)) {
+            throw new NoSuchElementException("Cannot find min");
         }
 
-        int index = voltages.indexOf(Collections.min(voltages));
-        return voltages.get(index);
+        return result;
     }
 
-    public double getMaxVoltage() {
-        ArrayList<Double> voltages = new ArrayList<>();
-        for (Segment segment : segments) {
-            try {
-                voltages.add(segment.getMaxVoltage());
-            } catch (Exception e) {
-            }
+    public double getMaxVoltage() throws NoSuchElementException {
+        double result = store.getPackVoltages().getMax();
+        if (Double.isNaN(result)) {
+            throw new NoSuchElementException("Cannot find max");
         }
 
-        int index = voltages.indexOf(Collections.min(voltages));
-        return voltages.get(index);
+        return result;
     }
 
     public int getSegmentOfBms(int bms) {
-        return bms / getNumberOfBmsPerSegment();
+        return store.getSegmentOfBms(bms);
     }
 
     public int getBmsIndex(int bms) {
-        return bms % getNumberOfBmsPerSegment();
+        return store.getBmsIndex(bms);
     }
 
-    public HashMap<String, Double> getInfoOverall() {
-        HashMap<String, Double> map = new HashMap<>();
-        try {
-            map.put("min", getMinVoltage());
-        } catch (Exception e) {
-            map.put("min", null);
-        }
-
-        try {
-            map.put("max", getMaxVoltage());
-        } catch (Exception e) {
-            map.put("max", null);
-        }
-
-        try {
-            map.put("tot", getVoltage());
-        } catch (Exception e) {
-            map.put("tot", null);
-        }
-
-        try {
-            map.put("tMax", getMaxTemperature());
-        } catch (Exception e) {
-            map.put("tMax", null);
-        }
-
-        return map;
+    /**
+     * Copies overall values of pack in readout (throws nothing, allocates
+     * nothing)
+     *
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readInfoOverall(PackReadout readout) {
+        store.readInfoOverall(readout);  // consistent, any thread
     }
 
-    public HashMap<String, Double> getCurrentValues(int bms) {
-        try {
-            return segments[getSegmentOfBms(bms)].getCurrentValues
-                    (getBmsIndex(bms));
-        } catch (Exception e) {
-            return null;
-        }
+    /**
+     * Copies current values of bms in readout (throws nothing, allocates
+     * nothing)
+     *
+     * @param bms     index of bms in pack
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readCurrentValues(int bms, DeviceReadout readout) {
+        getBmsDevice(bms).readCurrentValues(readout);
     }
 }
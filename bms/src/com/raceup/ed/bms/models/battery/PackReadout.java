@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Overall values of a pack, reused by reader on every refresh (no boxing, no
+ * exceptions). Values not read yet are NaN.
+ */
+public class PackReadout {
+    private double minVoltage = Double.NaN;
+    private double maxVoltage = Double.NaN;
+    private double totVoltage = Double.NaN;
+    private double maxTemperature = Double.NaN;
+    private double minSoc = Double.NaN;
+    private double avgSoc = Double.NaN;
+    private double timeToLimit = Double.NaN;
+    private int limitSensor = -1;
+    private double limitSlope = Double.NaN;
+
+    /**
+     * Sets all values of readout
+     *
+     * @param minVoltage     min voltage of cells
+     * @param maxVoltage     max voltage of cells
+     * @param totVoltage     sum of cells read
+     * @param maxTemperature temperature of hottest bms
+     */
+    void set(double minVoltage, double maxVoltage, double totVoltage,
+             double maxTemperature) {
+        this.minVoltage = minVoltage;
+        this.maxVoltage = maxVoltage;
+        this.totVoltage = totVoltage;
+        this.maxTemperature = maxTemperature;
+    }
+
+    /**
+     * Sets state of charge of pack
+     *
+     * @param minSoc state of charge of emptiest cell (%)
+     * @param avgSoc average state of charge of cells (%)
+     */
+    void setSoc(double minSoc, double avgSoc) {
+        this.minSoc = minSoc;
+        this.avgSoc = avgSoc;
+    }
+
+    /**
+     * Sets prediction of first sensor reaching temperature limit
+     *
+     * @param timeToLimit s left, NaN if no sensor is heading to limit
+     * @param sensor      index of sensor in pack, -1 if none
+     * @param slope       slope of sensor (C° per s)
+     */
+    void setTimeToLimit(double timeToLimit, int sensor, double slope) {
+        this.timeToLimit = timeToLimit;
+        this.limitSensor = sensor;
+        this.limitSlope = slope;
+    }
+
+    /**
+     * Gets time left before first sensor of pack reaches temperature limit
+     *
+     * @return s (0 if already reached), NaN if none is heading to limit
+     */
+    public double getTimeToLimit() {
+        return timeToLimit;
+    }
+
+    /**
+     * Gets bms of sensor reaching temperature limit first
+     *
+     * @return index of bms in pack, -1 if none
+     */
+    public int getLimitBms() {
+        return limitSensor < 0 ? -1 : limitSensor / PackStore
+                .TEMPERATURES_PER_BMS;
+    }
+
+    /**
+     * Gets sensor (in its bms) reaching temperature limit first
+     *
+     * @return index of sensor in bms, -1 if none
+     */
+    public int getLimitSensor() {
+        return limitSensor < 0 ? -1 : limitSensor % PackStore
+                .TEMPERATURES_PER_BMS;
+    }
+
+    /**
+     * Gets slope of temperature of sensor reaching limit first
+     *
+     * @return C° per s, NaN if none
+     */
+    public double getLimitSlope() {
+        return limitSlope;
+    }
+
+    /**
+     * Gets state of charge of emptiest cell (the one limiting the pack)
+     *
+     * @return state of charge (%), NaN if nothing read
+     */
+    public double getMinSoc() {
+        return minSoc;
+    }
+
+    public double getAvgSoc() {
+        return avgSoc;
+    }
+
+    public double getMinVoltage() {
+        return minVoltage;
+    }
+
+    public double getMaxVoltage() {
+        return maxVoltage;
+    }
+
+    /**
+     * Gets total voltage of pack
+     *
+     * @return sum of cells read, NaN if nothing read
+     */
+    public double getTotVoltage() {
+        return totVoltage;
+    }
+
+    public double getMaxTemperature() {
+        return maxTemperature;
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Consistent copy of a pack store at a given epoch, owned by one reader
+ * thread and refreshed with PackStore.read (no allocation).
+ * Voltages not read yet are 0, temperatures not read yet and aggregates of
+ * nothing read are NaN.
+ */
+public class PackSnapshot {
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int SUM = 2;
+    private static final int COUNT = 3;
+    private static final int FIELDS = 4;  // values in row of an aggregate
+    private final PackStore layout;  // only used for (immutable) index tables
+    private final double[] voltages;
+    private final double[] temperatures;
+    private final double[] aggregates;  // row -> min, max, sum, count
+    private final boolean[] stale;  // cells, then sensors -> stale
+    private final long[] times;  // cells, then sensors -> receive time
+    private final double[] socs;  // cell -> state of charge
+    private final double[] resistances;  // cell -> mOhm
+    private final double[] relativeResistances;  // cell -> to average cell
+    private final double[] spread;  // resistances of a segment (scratch)
+    private final double[] temperatureSlopes;  // sensor -> C° per s
+    private final long[] limitCrossings;  // sensor -> when limit is reached
+    private int soonestSensor = -1;  // first to reach limit, -1 if none
+    private double current = Double.NaN;
+    private int staleChannels = 0;
+    private final int segmentVoltagesRow;
+    private final int packVoltagesRow;
+    private final int segmentTemperaturesRow;
+    private final int packTemperaturesRow;
+    private final int bmsSocsRow;
+    private final int segmentSocsRow;
+    private final int packSocsRow;
+    private long epoch = -1;  // -1 until first read
+
+    /**
+     * Builds empty snapshot of store
+     *
+     * @param store store to copy
+     */
+    public PackSnapshot(PackStore store) {
+        layout = store;
+        voltages = new double[store.getNumberOfCells()];
+        temperatures = new double[store.getNumberOfBms() * PackStore
+                .TEMPERATURES_PER_BMS];
+
+        segmentVoltagesRow = store.getNumberOfBms();  // after bms rows
+        packVoltagesRow = segmentVoltagesRow + store.getNumberOfSegments();
+        segmentTemperaturesRow = packVoltagesRow + 1;
+        packTemperaturesRow = segmentTemperaturesRow + store
+                .getNumberOfSegments();
+        bmsSocsRow = packTemperaturesRow + 1;
+        segmentSocsRow = bmsSocsRow + store.getNumberOfBms();
+        packSocsRow = segmentSocsRow + store.getNumberOfSegments();
+        aggregates = new double[(packSocsRow + 1) * FIELDS];
+        socs = new double[voltages.length];
+        resistances = new double[voltages.length];
+        relativeResistances = new double[voltages.length];
+        int maxCellsOfSegment = 0;
+        for (int segment = 0; segment < store.getNumberOfSegments();
+             segment++) {
+            int first = store.getFirstBms(segment);
+            maxCellsOfSegment = Math.max(maxCellsOfSegment, store
+                    .getFirstCell(first + store.getNumberOfBms(segment)) -
+                    store.getFirstCell(first));
+        }
+        spread = new double[maxCellsOfSegment];
+        temperatureSlopes = new double[temperatures.length];
+        limitCrossings = new long[temperatures.length];
+        stale = new boolean[voltages.length + temperatures.length];
+        times = new long[stale.length];
+    }
+
+    /**
+     * Copies values of store (called by store while validating read)
+     */
+    void copy(PackStore store, long epoch, double[] voltages, double[]
+            temperatures, boolean[] stale, int staleChannels, TimerWheel
+                      freshness, SocEstimator socs, ResistanceEstimator
+                      resistances, double current, ThermalTrend thermal) {
+        if (store != layout) {
+            throw new IllegalArgumentException("Snapshot of another store");
+        }
+
+        System.arraycopy(voltages, 0, this.voltages, 0, this.voltages.length);
+        System.arraycopy(temperatures, 0, this.temperatures, 0, this
+                .temperatures.length);
+        for (int bms = 0; bms < segmentVoltagesRow; bms++) {
+            copy(store.getBmsVoltages(bms), bms);
+            copy(store.getBmsSocs(bms), bmsSocsRow + bms);
+        }
+        for (int segment = 0; segment < layout.getNumberOfSegments();
+             segment++) {
+            copy(store.getSegmentVoltages(segment), segmentVoltagesRow +
+                    segment);
+            copy(store.getSegmentTemperatures(segment),
+                    segmentTemperaturesRow + segment);
+            copy(store.getSegmentSocs(segment), segmentSocsRow + segment);
+        }
+        copy(store.getPackVoltages(), packVoltagesRow);
+        copy(store.getPackTemperatures(), packTemperaturesRow);
+        copy(store.getPackSocs(), packSocsRow);
+        socs.copySocs(this.socs);
+        resistances.copyResistances(this.resistances, relativeResistances);
+        this.current = current;
+        thermal.copyTrends(temperatureSlopes, limitCrossings);
+        soonestSensor = thermal.getSoonestSensor();
+        System.arraycopy(stale, 0, this.stale, 0, this.stale.length);
+        freshness.copyTimes(times);
+        this.staleChannels = staleChannels;
+        this.epoch = epoch;
+    }
+
+    private void copy(AggregateTree tree, int row) {
+        int offset = row * FIELDS;
+        aggregates[offset + MIN] = tree.getMin();
+        aggregates[offset + MAX] = tree.getMax();
+        aggregates[offset + SUM] = tree.getSum();
+        aggregates[offset + COUNT] = tree.getCount();
+    }
+
+    private double getAverage(int row) {
+        double count = aggregates[row * FIELDS + COUNT];
+        return count == 0 ? Double.NaN : aggregates[row * FIELDS + SUM] /
+                count;
+    }
+
+    /**
+     * Gets number of updates of store when snapshot was taken
+     *
+     * @return epoch of snapshot, -1 if never read
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getNumberOfBms() {
+        return layout.getNumberOfBms();
+    }
+
+    public int getNumberOfCells(int bms) {
+        return layout.getNumberOfCells(bms);
+    }
+
+    /*
+     * Values
+     */
+
+    public double getVoltage(int bms, int cell) {
+        return voltages[layout.getFirstCell(bms) + cell];
+    }
+
+    public double getTemperature1(int bms) {
+        return temperatures[bms * PackStore.TEMPERATURES_PER_BMS];
+    }
+
+    public double getTemperature2(int bms) {
+        return temperatures[bms * PackStore.TEMPERATURES_PER_BMS + 1];
+    }
+
+    /*
+     * Freshness
+     */
+
+    public boolean isVoltageStale(int bms, int cell) {
+        return stale[layout.getFirstCell(bms) + cell];
+    }
+
+    public boolean isTemperature1Stale(int bms) {
+        return stale[voltages.length + bms * PackStore.TEMPERATURES_PER_BMS];
+    }
+
+    public boolean isTemperature2Stale(int bms) {
+        return stale[voltages.length + bms * PackStore.TEMPERATURES_PER_BMS +
+                1];
+    }
+
+    /**
+     * Check if any cell of bms is stale
+     *
+     * @param bms index of bms in pack
+     * @return True iff a cell missed its updates
+     */
+    public boolean isAnyVoltageStale(int bms) {
+        for (int cell = layout.getFirstCell(bms); cell < layout.getFirstCell(
+                bms + 1); cell++) {
+            if (stale[cell]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets when cell value was received
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return time (System.nanoTime), 0 if never read
+     */
+    public long getVoltageTime(int bms, int cell) {
+        return times[layout.getFirstCell(bms) + cell];
+    }
+
+    /**
+     * Gets when temperature was received
+     *
+     * @param bms    index of bms in pack
+     * @param sensor index of sensor in bms (0 or 1)
+     * @return time (System.nanoTime), 0 if never read
+     */
+    public long getTemperatureTime(int bms, int sensor) {
+        return times[voltages.length + bms * PackStore.TEMPERATURES_PER_BMS +
+                sensor];
+    }
+
+    /**
+     * Gets number of cells and sensors whose value is stale
+     *
+     * @return number of stale channels
+     */
+    public int getStaleChannels() {
+        return staleChannels;
+    }
+
+    /*
+     * Bms aggregates
+     */
+
+    public double getMinVoltage(int bms) {
+        return aggregates[bms * FIELDS + MIN];
+    }
+
+    public double getMaxVoltage(int bms) {
+        return aggregates[bms * FIELDS + MAX];
+    }
+
+    public double getAvgVoltage(int bms) {
+        return getAverage(bms);
+    }
+
+    /*
+     * Segment aggregates
+     */
+
+    public double getMinVoltageOfSegment(int segment) {
+        return aggregates[(segmentVoltagesRow + segment) * FIELDS + MIN];
+    }
+
+    public double getMaxVoltageOfSegment(int segment) {
+        return aggregates[(segmentVoltagesRow + segment) * FIELDS + MAX];
+    }
+
+    public double getMaxTemperatureOfSegment(int segment) {
+        return aggregates[(segmentTemperaturesRow + segment) * FIELDS + MAX];
+    }
+
+    /*
+     * Pack aggregates
+     */
+
+    public double getMinVoltage() {
+        return aggregates[packVoltagesRow * FIELDS + MIN];
+    }
+
+    public double getMaxVoltage() {
+        return aggregates[packVoltagesRow * FIELDS + MAX];
+    }
+
+    /**
+     * Gets total voltage of pack
+     *
+     * @return sum of cells read, NaN if nothing read
+     */
+    public double getVoltage() {
+        return aggregates[packVoltagesRow * FIELDS + COUNT] == 0 ? Double
+                .NaN : aggregates[packVoltagesRow * FIELDS + SUM];
+    }
+
+    /**
+     * Gets average temperature of pack (hottest sensor of each bms)
+     *
+     * @return average temperature, NaN if nothing read
+     */
+    public double getTemperature() {
+        return getAverage(packTemperaturesRow);
+    }
+
+    public double getMaxTemperature() {
+        return aggregates[packTemperaturesRow * FIELDS + MAX];
+    }
+
+    /*
+     * State of charge (%, NaN if not read)
+     */
+
+    public double getSoc(int bms, int cell) {
+        return socs[layout.getFirstCell(bms) + cell];
+    }
+
+    public double getMinSoc(int bms) {
+        return aggregates[(bmsSocsRow + bms) * FIELDS + MIN];
+    }
+
+    public double getAvgSoc(int bms) {
+        return getAverage(bmsSocsRow + bms);
+    }
+
+    public double getMinSocOfSegment(int segment) {
+        return aggregates[(segmentSocsRow + segment) * FIELDS + MIN];
+    }
+
+    public double getAvgSocOfSegment(int segment) {
+        return getAverage(segmentSocsRow + segment);
+    }
+
+    /**
+     * Gets state of charge of emptiest cell (the one limiting the pack)
+     *
+     * @return state of charge (%), NaN if nothing read
+     */
+    public double getMinSoc() {
+        return aggregates[packSocsRow * FIELDS + MIN];
+    }
+
+    public double getAvgSoc() {
+        return getAverage(packSocsRow);
+    }
+
+    /**
+     * Gets current of pack
+     *
+     * @return current (A), NaN if not read or stale
+     */
+    public double getCurrent() {
+        return current;
+    }
+
+    /*
+     * Internal resistance
+     */
+
+    /**
+     * Gets internal resistance of cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return resistance (mOhm), NaN if pack current never moved
+     */
+    public double getResistance(int bms, int cell) {
+        return resistances[layout.getFirstCell(bms) + cell];
+    }
+
+    public double getRelativeResistance(int bms, int cell) {
+        return relativeResistances[layout.getFirstCell(bms) + cell];
+    }
+
+    /**
+     * Gets slope of temperature of sensor
+     *
+     * @param bms    index of bms in pack
+     * @param sensor index of sensor in bms
+     * @return C° per s, NaN while not enough samples
+     */
+    public double getTemperatureSlope(int bms, int sensor) {
+        return temperatureSlopes[bms * PackStore.TEMPERATURES_PER_BMS +
+                sensor];
+    }
+
+    /**
+     * Gets time left before first sensor of pack reaches its limit
+     *
+     * @param now current time (ns, System.nanoTime)
+     * @return s (0 if already reached), NaN if none is heading to limit
+     */
+    public double getTimeToLimit(long now) {
+        return soonestSensor < 0 ? Double.NaN : Math.max(0.0,
+                (limitCrossings[soonestSensor] - now) / 1e9);
+    }
+
+    /**
+     * Computes spread of resistance of cells of segment and finds weak
+     * cells (O(n log n) in cells of segment, no allocation). Resistances in
+     * mOhm are used when at least half the cells have one, relative ones
+     * otherwise.
+     *
+     * @param segment index of segment
+     * @param readout where to copy spread and outliers
+     */
+    public void readResistanceSpread(int segment, ResistanceSpread readout) {
+        int firstBms = layout.getFirstBms(segment);
+        int first = layout.getFirstCell(firstBms);
+        int end = layout.getFirstCell(firstBms + layout.getNumberOfBms(
+                segment));
+        double[] values = resistances;
+        boolean relative = false;
+        if (count(resistances, first, end) * 2 < end - first) {
+            values = relativeResistances;
+            relative = true;
+        }
+
+        int cells = 0;
+        for (int cell = first; cell < end; cell++) {
+            if (!Double.isNaN(values[cell])) {
+                spread[cells++] = values[cell];
+            }
+        }
+        if (cells == 0) {
+            readout.set(Double.NaN, Double.NaN, 0, relative);
+            return;
+        }
+
+        double median = OutlierDetector.median(spread, cells);
+        double mad = OutlierDetector.mad(spread, cells, median);
+        readout.set(median, mad, cells, relative);
+        if (!(mad > 0.0)) {
+            return;  // too few or identical cells: nothing stands out
+        }
+
+        int bms = firstBms;
+        for (int cell = first; cell < end; cell++) {
+            while (cell >= layout.getFirstCell(bms + 1)) {
+                bms++;
+            }
+            double score = OutlierDetector.score(values[cell], median, mad);
+            if (score > ResistanceSpread.OUTLIER_SCORE) {  // false if NaN
+                readout.addOutlier(bms, cell - layout.getFirstCell(bms),
+                        score);
+            }
+        }
+    }
+
+    private static int count(double[] values, int first, int end) {
+        int count = 0;
+        for (int i = first; i < end; i++) {
+            if (!Double.isNaN(values[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Readouts
+     */
+
+    /**
+     * Copies overall values of pack in readout
+     *
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readInfoOverall(PackReadout readout) {
+        readout.set(getMinVoltage(), getMaxVoltage(), getVoltage(),
+                getMaxTemperature());
+        readout.setSoc(getMinSoc(), getAvgSoc());
+        readout.setTimeToLimit(getTimeToLimit(System.nanoTime()),
+                soonestSensor, soonestSensor < 0 ? Double.NaN :
+                        temperatureSlopes[soonestSensor]);
+    }
+
+    /**
+     * Copies current values of bms in readout
+     *
+     * @param bms     index of bms in pack
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readCurrentValues(int bms, DeviceReadout readout) {
+        readout.set(getMinVoltage(bms), getMaxVoltage(bms), getAvgVoltage(
+                bms), getTemperature1(bms), getTemperature2(bms));
+        readout.setSoc(getAvgSoc(bms));
+        readout.setStale(isAnyVoltageStale(bms), isTemperature1Stale(bms),
+                isTemperature2Stale(bms));
+    }
+}
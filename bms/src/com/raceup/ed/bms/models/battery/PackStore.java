@@ -0,0 +1,958 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Flat state of a battery pack: all cell voltages in one array, all
+ * temperatures in another, plus index tables mapping segments to bms and
+ * bms to cells. Bms of a segment and cells of a bms are contiguous, so any
+ * pack, segment or bms scan is a linear loop on a range of cells.
+ * Min, max, sum and count of bms, segments and pack are kept by aggregate
+ * trees updated on every write (bms -> segment -> pack).
+ * Pack, Segment and BmsDevice are views over a store.
+ * A single writer thread changes values inside updates (seqlock): any number
+ * of reader threads copy a consistent snapshot of the whole store with
+ * optimistic reads, so readers never block writer nor each other.
+ * Consumers can also ask which cells, sensors and bms changed (ChangeSet).
+ */
+public class PackStore {
+    public static final int TEMPERATURES_PER_BMS = 2;
+    public static final long DEFAULT_STALE_TIMEOUT = 2000;  // ms
+    public static final double MIN_RANKED_VOLTAGE = 2000.0;  // mV
+    public static final double MAX_RANKED_VOLTAGE = 4500.0;  // mV
+    public static final double RANK_RESOLUTION = 1.0;  // mV
+    public static final double VOLTAGE_STATS_RESOLUTION = 5.0;  // mV
+    public static final double MIN_TEMPERATURE = -20.0;  // C° of histogram
+    public static final double MAX_TEMPERATURE = 100.0;
+    public static final double TEMPERATURE_STATS_RESOLUTION = 0.5;  // C°
+    private final double[] voltages;  // cell -> voltage (0 until read)
+    private final double[] temperatures;  // bms * 2 + sensor -> C°, NaN
+    private final int[] firstBmsOfSegment;  // segment -> first bms (+ end)
+    private final int[] firstCellOfBms;  // bms -> first cell (+ end)
+    private final int[] segmentOfBms;  // bms -> segment
+    private final int[] bmsIndexInSegment;  // bms -> index in its segment
+    private final int[] bmsOfCell;  // cell of pack -> bms
+    private final int cellsStride;  // max cells of a bms
+    private final int[] cellOfChannel;  // bms * stride + cell -> cell or -1
+    private final boolean[] sensorWired;  // bms * 2 + sensor -> wired
+    private final AggregateTree[] bmsVoltages;  // bms -> its cells
+    private final AggregateTree[] segmentVoltages;  // segment -> its bms
+    private final AggregateTree packVoltages;  // segments
+    private final AggregateTree[] segmentTemperatures;  // segment -> its bms
+    private final AggregateTree packTemperatures;  // segments
+    private final SocEstimator socs;  // cell -> state of charge
+    private final AggregateTree[] bmsSocs;  // bms -> its cells
+    private final AggregateTree[] segmentSocs;  // segment -> its bms
+    private final AggregateTree packSocs;  // segments
+    private final ResistanceEstimator resistances;  // cell -> resistance
+    private final RankTree voltageRanks;  // fresh cells read, by voltage
+    private final StreamingStats voltageStats;  // cells and roll-ups
+    private final StreamingStats temperatureStats;  // sensors and roll-ups
+    private final OutlierDetector outlierDetector;  // cells vs segment
+    private final ThermalTrend thermalTrend;  // sensors -> time to limit
+    private long detectedEpoch = -1;  // epoch outliers were detected at
+    private double current = Double.NaN;  // of pack (A), NaN if not read
+    private long currentTime = 0;  // when current was received (ns)
+    private final StampedLock lock = new StampedLock();  // seqlock of values
+    private long epoch = 0;  // number of updates, only changed when locked
+    private long updateTime = 0;  // when current update began (ns)
+    private final boolean[] stale;  // cells, then sensors -> stale
+    private final int[] expired;  // channels expired in a tick
+    private TimerWheel freshness;  // only used by writer
+    private int staleChannels = 0;
+    private volatile ChangeSet[] changeSets = new ChangeSet[0];  // consumers
+
+    /**
+     * Builds store of a pack made of equal segments and bms
+     *
+     * @param numberOfSegments      number of segments in pack
+     * @param numberOfBmsPerSegment number of bms in each segment
+     * @param numberOfCellsPerBms   number of cells monitored by each bms
+     */
+    public PackStore(int numberOfSegments, int numberOfBmsPerSegment, int
+            numberOfCellsPerBms) {
+        this(uniformRanges(numberOfSegments, numberOfBmsPerSegment),
+                uniformRanges(numberOfSegments * numberOfBmsPerSegment,
+                        numberOfCellsPerBms));
+    }
+
+    /**
+     * Builds store of any pack layout
+     *
+     * @param firstBmsOfSegment index of first bms of each segment, followed
+     *                          by number of bms
+     * @param firstCellOfBms    index of first cell of each bms, followed by
+     *                          number of cells
+     */
+    public PackStore(int[] firstBmsOfSegment, int[] firstCellOfBms) {
+        this(firstBmsOfSegment, firstCellOfBms, null, null);
+    }
+
+    /**
+     * Builds store of any pack layout, some cells or sensors not wired
+     * (writes to them are ignored)
+     *
+     * @param firstBmsOfSegment  index of first bms of each segment, followed
+     *                           by number of bms
+     * @param firstCellOfBms     index of first cell of each bms, followed by
+     *                           number of cells
+     * @param unpopulatedCells   cell of pack -> True iff not wired (null if
+     *                           all are)
+     * @param unpopulatedSensors bms * 2 + sensor -> True iff not wired (null
+     *                           if all are)
+     */
+    public PackStore(int[] firstBmsOfSegment, int[] firstCellOfBms,
+                     boolean[] unpopulatedCells, boolean[]
+                             unpopulatedSensors) {
+        int numberOfSegments = firstBmsOfSegment.length - 1;
+        int numberOfBms = firstCellOfBms.length - 1;
+        if (numberOfSegments < 1 || firstBmsOfSegment[numberOfSegments] !=
+                numberOfBms) {
+            throw new IllegalArgumentException("Segments do not cover bms");
+        }
+
+        this.firstBmsOfSegment = firstBmsOfSegment.clone();
+        this.firstCellOfBms = firstCellOfBms.clone();
+        voltages = new double[firstCellOfBms[numberOfBms]];
+        temperatures = new double[numberOfBms * TEMPERATURES_PER_BMS];
+        Arrays.fill(temperatures, Double.NaN);  // 0 C° is a valid reading
+
+        int maxCells = 0;
+        for (int bms = 0; bms < numberOfBms; bms++) {
+            maxCells = Math.max(maxCells, firstCellOfBms[bms + 1] -
+                    firstCellOfBms[bms]);
+        }
+        cellsStride = maxCells;
+        cellOfChannel = new int[numberOfBms * cellsStride];
+        for (int bms = 0; bms < numberOfBms; bms++) {
+            for (int cell = 0; cell < cellsStride; cell++) {
+                int index = firstCellOfBms[bms] + cell;
+                boolean wired = index < firstCellOfBms[bms + 1] &&
+                        (unpopulatedCells == null || !unpopulatedCells[index]);
+                cellOfChannel[bms * cellsStride + cell] = wired ? index : -1;
+            }
+        }
+        bmsOfCell = new int[voltages.length];
+        for (int bms = 0; bms < numberOfBms; bms++) {
+            Arrays.fill(bmsOfCell, firstCellOfBms[bms], firstCellOfBms[bms +
+                    1], bms);
+        }
+        stale = new boolean[voltages.length + temperatures.length];
+        expired = new int[stale.length];
+        freshness = new TimerWheel(stale.length, DEFAULT_STALE_TIMEOUT);
+        sensorWired = new boolean[temperatures.length];
+        for (int sensor = 0; sensor < sensorWired.length; sensor++) {
+            sensorWired[sensor] = unpopulatedSensors == null ||
+                    !unpopulatedSensors[sensor];
+        }
+
+        segmentOfBms = new int[numberOfBms];
+        bmsIndexInSegment = new int[numberOfBms];
+        for (int segment = 0; segment < numberOfSegments; segment++) {
+            for (int bms = firstBmsOfSegment[segment]; bms <
+                    firstBmsOfSegment[segment + 1]; bms++) {
+                segmentOfBms[bms] = segment;
+                bmsIndexInSegment[bms] = bms - firstBmsOfSegment[segment];
+            }
+        }
+
+        bmsVoltages = new AggregateTree[numberOfBms];
+        for (int bms = 0; bms < numberOfBms; bms++) {
+            bmsVoltages[bms] = new AggregateTree(getNumberOfCells(bms));
+        }
+        segmentVoltages = new AggregateTree[numberOfSegments];
+        segmentTemperatures = new AggregateTree[numberOfSegments];
+        for (int segment = 0; segment < numberOfSegments; segment++) {
+            segmentVoltages[segment] = new AggregateTree(getNumberOfBms(
+                    segment));
+            segmentTemperatures[segment] = new AggregateTree(getNumberOfBms(
+                    segment));
+        }
+        packVoltages = new AggregateTree(numberOfSegments);
+        packTemperatures = new AggregateTree(numberOfSegments);
+
+        socs = new SocEstimator(voltages.length);
+        bmsSocs = new AggregateTree[numberOfBms];
+        for (int bms = 0; bms < numberOfBms; bms++) {
+            bmsSocs[bms] = new AggregateTree(getNumberOfCells(bms));
+        }
+        segmentSocs = new AggregateTree[numberOfSegments];
+        for (int segment = 0; segment < numberOfSegments; segment++) {
+            segmentSocs[segment] = new AggregateTree(getNumberOfBms(segment));
+        }
+        packSocs = new AggregateTree(numberOfSegments);
+        resistances = new ResistanceEstimator(voltages.length);
+        voltageRanks = new RankTree(MIN_RANKED_VOLTAGE, MAX_RANKED_VOLTAGE,
+                RANK_RESOLUTION);
+        voltageStats = new StreamingStats(this.firstCellOfBms, this
+                .firstBmsOfSegment, MIN_RANKED_VOLTAGE, MAX_RANKED_VOLTAGE,
+                VOLTAGE_STATS_RESOLUTION);
+        temperatureStats = new StreamingStats(uniformRanges(numberOfBms,
+                TEMPERATURES_PER_BMS), this.firstBmsOfSegment,
+                MIN_TEMPERATURE, MAX_TEMPERATURE, TEMPERATURE_STATS_RESOLUTION);
+        int[] firstCellOfSegment = new int[numberOfSegments + 1];
+        for (int segment = 0; segment <= numberOfSegments; segment++) {
+            firstCellOfSegment[segment] = this.firstCellOfBms[this
+                    .firstBmsOfSegment[segment]];
+        }
+        outlierDetector = new OutlierDetector(firstCellOfSegment);
+        thermalTrend = new ThermalTrend(temperatures.length, BmsDevice
+                .TEMPERATURE_BOUNDS[1]);
+    }
+
+    private static int[] uniformRanges(int count, int length) {
+        int[] firsts = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            firsts[i] = i * length;
+        }
+        return firsts;
+    }
+
+    /*
+     * Layout
+     */
+
+    public int getNumberOfSegments() {
+        return firstBmsOfSegment.length - 1;
+    }
+
+    public int getNumberOfBms() {
+        return firstCellOfBms.length - 1;
+    }
+
+    public int getNumberOfCells() {
+        return voltages.length;
+    }
+
+    public int getNumberOfBms(int segment) {
+        return firstBmsOfSegment[segment + 1] - firstBmsOfSegment[segment];
+    }
+
+    public int getNumberOfCells(int bms) {
+        return firstCellOfBms[bms + 1] - firstCellOfBms[bms];
+    }
+
+    /**
+     * Gets first bms of segment (bms of segment are contiguous)
+     *
+     * @param segment index of segment
+     * @return index of bms in pack
+     */
+    public int getFirstBms(int segment) {
+        return firstBmsOfSegment[segment];
+    }
+
+    /**
+     * Gets first cell of bms (cells of bms are contiguous)
+     *
+     * @param bms index of bms in pack
+     * @return index of cell in pack
+     */
+    public int getFirstCell(int bms) {
+        return firstCellOfBms[bms];
+    }
+
+    /**
+     * Looks up cell of pack (one table read, used by ingest)
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return index of cell in pack, -1 if cell is not in pack or not wired
+     */
+    public int getCellIndex(int bms, int cell) {
+        if (bms < 0 || cell < 0 || cell >= cellsStride || bms >= segmentOfBms
+                .length) {
+            return -1;
+        }
+        return cellOfChannel[bms * cellsStride + cell];
+    }
+
+    /**
+     * Check if temperature sensor of bms is wired
+     *
+     * @param bms    index of bms in pack
+     * @param sensor index of sensor in bms (0 or 1)
+     * @return True iff sensor values are kept
+     */
+    public boolean isSensorWired(int bms, int sensor) {
+        return sensor >= 0 && sensor < TEMPERATURES_PER_BMS && sensorWired[
+                bms * TEMPERATURES_PER_BMS + sensor];
+    }
+
+    public int getSegmentOfBms(int bms) {
+        return segmentOfBms[bms];
+    }
+
+    public int getBmsIndex(int bms) {
+        return bmsIndexInSegment[bms];
+    }
+
+    /*
+     * Values
+     */
+
+    public double getVoltage(int bms, int cell) {
+        return voltages[firstCellOfBms[bms] + cell];
+    }
+
+    /**
+     * Sets voltage of cell, updates its state of charge, its resistance and
+     * aggregates of its bms, segment and pack (O(log n)). Cells not wired
+     * are left out.
+     *
+     * @param bms   index of bms in pack
+     * @param cell  index of cell in bms
+     * @param value new voltage
+     */
+    public void setVoltage(int bms, int cell, double value) {
+        int index = getCellIndex(bms, cell);
+        if (index < 0) {
+            return;  // not wired
+        }
+
+        long stamp = lock.isWriteLocked() ? 0L : beginUpdate();
+        rank(stale[index] ? 0.0 : voltages[index], value);  // stale: unranked
+        voltages[index] = value;
+        touch(index);
+        for (ChangeSet changes : changeSets) {
+            changes.markCell(index, bms);
+        }
+
+        resistances.update(index, value, getFreshCurrent());
+        int segment = segmentOfBms[bms];
+        voltageStats.add(index, bms, segment, value, updateTime);
+        bmsVoltages[bms].set(cell, value);
+        segmentVoltages[segment].set(bmsIndexInSegment[bms], bmsVoltages[bms]);
+        packVoltages.set(segment, segmentVoltages[segment]);
+
+        bmsSocs[bms].set(cell, socs.update(index, value, getFreshCurrent(),
+                updateTime), true);
+        segmentSocs[segment].set(bmsIndexInSegment[bms], bmsSocs[bms]);
+        packSocs.set(segment, segmentSocs[segment]);
+        if (stamp != 0L) {
+            endUpdate(stamp);
+        }
+    }
+
+    /**
+     * Sets current of pack, used to fit resistance and count charge of cells
+     * sampled next
+     *
+     * @param value new current (A, positive when discharging)
+     */
+    public void setCurrent(double value) {
+        long stamp = lock.isWriteLocked() ? 0L : beginUpdate();
+        current = value;
+        currentTime = updateTime;
+        if (stamp != 0L) {
+            endUpdate(stamp);
+        }
+    }
+
+    /**
+     * Gets last current of pack
+     *
+     * @return current (A), NaN if never read
+     */
+    public double getCurrent() {
+        return current;
+    }
+
+    /**
+     * Current of pack if it did not miss its updates (writer thread)
+     *
+     * @return current (A), NaN if never read or stale
+     */
+    private double getFreshCurrent() {
+        return updateTime - currentTime > freshness.getTimeout() * 1000000L ?
+                Double.NaN : current;
+    }
+
+    /**
+     * Keeps rank tree in step with a new voltage (values not read, 0 or
+     * less, and stale values are not ranked)
+     *
+     * @param from old voltage
+     * @param to   new voltage
+     */
+    private void rank(double from, double to) {
+        if (from > 0.0 && to > 0.0) {
+            voltageRanks.move(from, to);
+        } else if (to > 0.0) {
+            voltageRanks.add(to);
+        } else if (from > 0.0) {
+            voltageRanks.remove(from);
+        }
+    }
+
+    /**
+     * Gets fresh cells read, ranked by voltage (writer thread)
+     *
+     * @return rank tree of voltages
+     */
+    public RankTree getVoltageRanks() {
+        return voltageRanks;
+    }
+
+    /**
+     * Gets rank of cell in pack (writer thread, O(log n))
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return number of fresh cells with a lower voltage, -1 if not read
+     * or stale
+     */
+    public int getVoltageRank(int bms, int cell) {
+        double voltage = getVoltage(bms, cell);
+        return voltage > 0.0 && !isVoltageStale(bms, cell) ? voltageRanks
+                .countBelow(voltage) : -1;
+    }
+
+    public double getTemperature1(int bms) {
+        return temperatures[bms * TEMPERATURES_PER_BMS];
+    }
+
+    public void setTemperature1(int bms, double value) {
+        setTemperature(bms * TEMPERATURES_PER_BMS, value);
+    }
+
+    public double getTemperature2(int bms) {
+        return temperatures[bms * TEMPERATURES_PER_BMS + 1];
+    }
+
+    public void setTemperature2(int bms, double value) {
+        setTemperature(bms * TEMPERATURES_PER_BMS + 1, value);
+    }
+
+    /**
+     * Sets temperature of sensor and updates aggregates of segment and pack
+     *
+     * @param sensor index of sensor in pack
+     * @param value  new temperature
+     */
+    private void setTemperature(int sensor, double value) {
+        if (!sensorWired[sensor]) {
+            return;
+        }
+
+        long stamp = lock.isWriteLocked() ? 0L : beginUpdate();
+        temperatures[sensor] = value;
+        touch(voltages.length + sensor);
+
+        int bms = sensor / TEMPERATURES_PER_BMS;
+        for (ChangeSet changes : changeSets) {
+            changes.markSensor(sensor, bms);
+        }
+        int segment = segmentOfBms[bms];
+        temperatureStats.add(sensor, bms, segment, value, updateTime);
+        thermalTrend.update(sensor, value, updateTime);
+        segmentTemperatures[segment].set(bmsIndexInSegment[bms],
+                getTemperature(bms), true);  // below 0 C° too, not NaN
+        packTemperatures.set(segment, segmentTemperatures[segment]);
+        if (stamp != 0L) {
+            endUpdate(stamp);
+        }
+    }
+
+    /**
+     * Gets temperature of bms (hottest sensor read)
+     *
+     * @param bms index of bms in pack
+     * @return temperature of bms, NaN if no sensor was read
+     */
+    public double getTemperature(int bms) {
+        double temperature1 = getTemperature1(bms);
+        double temperature2 = getTemperature2(bms);
+        if (Double.isNaN(temperature1)) {
+            return temperature2;
+        }
+        return Double.isNaN(temperature2) ? temperature1 : Math.max(
+                temperature1, temperature2);
+    }
+
+    /*
+     * Aggregates (O(1), values not read yet are left out)
+     */
+
+    /**
+     * Gets aggregate of voltages of cells of bms
+     *
+     * @param bms index of bms in pack
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getBmsVoltages(int bms) {
+        return bmsVoltages[bms];
+    }
+
+    /**
+     * Gets aggregate of voltages of cells of segment
+     *
+     * @param segment index of segment
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getSegmentVoltages(int segment) {
+        return segmentVoltages[segment];
+    }
+
+    /**
+     * Gets aggregate of voltages of all cells
+     *
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getPackVoltages() {
+        return packVoltages;
+    }
+
+    /**
+     * Gets state of charge of cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return state of charge (%), NaN if not read yet
+     */
+    public double getSoc(int bms, int cell) {
+        return socs.getSoc(firstCellOfBms[bms] + cell);
+    }
+
+    /**
+     * Gets estimator of state of charge (writer thread)
+     *
+     * @return estimator of cells
+     */
+    public SocEstimator getSocEstimator() {
+        return socs;
+    }
+
+    /**
+     * Gets aggregate of states of charge of cells of bms
+     *
+     * @param bms index of bms in pack
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getBmsSocs(int bms) {
+        return bmsSocs[bms];
+    }
+
+    /**
+     * Gets aggregate of states of charge of cells of segment
+     *
+     * @param segment index of segment
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getSegmentSocs(int segment) {
+        return segmentSocs[segment];
+    }
+
+    /**
+     * Gets aggregate of states of charge of all cells (min is the cell
+     * limiting the pack)
+     *
+     * @return min, max, sum of cells
+     */
+    public AggregateTree getPackSocs() {
+        return packSocs;
+    }
+
+    /**
+     * Gets internal resistance of cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return resistance (mOhm), NaN if pack current never moved
+     */
+    public double getResistance(int bms, int cell) {
+        return resistances.getResistance(firstCellOfBms[bms] + cell);
+    }
+
+    /**
+     * Gets internal resistance of cell relative to average cell
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return relative resistance, NaN if pack voltage never moved
+     */
+    public double getRelativeResistance(int bms, int cell) {
+        return resistances.getRelativeResistance(firstCellOfBms[bms] + cell);
+    }
+
+    /**
+     * Gets aggregate of temperatures of bms of segment (hottest sensor of
+     * each bms)
+     *
+     * @param segment index of segment
+     * @return min, max, sum of bms temperatures
+     */
+    public AggregateTree getSegmentTemperatures(int segment) {
+        return segmentTemperatures[segment];
+    }
+
+    /**
+     * Gets aggregate of temperatures of all bms (hottest sensor of each bms)
+     *
+     * @return min, max, sum of bms temperatures
+     */
+    public AggregateTree getPackTemperatures() {
+        return packTemperatures;
+    }
+
+    /*
+     * Freshness
+     */
+
+    /**
+     * Sets max time between 2 updates of a cell or sensor before its value
+     * is stale (before any write)
+     *
+     * @param timeout max time without updates (ms)
+     */
+    public void setStaleTimeout(long timeout) {
+        freshness = new TimerWheel(stale.length, timeout);
+    }
+
+    public long getStaleTimeout() {
+        return freshness.getTimeout();
+    }
+
+    /**
+     * Records receive time of channel and makes it fresh again
+     *
+     * @param channel index of cell, or number of cells + index of sensor
+     */
+    private void touch(int channel) {
+        freshness.touch(channel, updateTime);
+        if (stale[channel]) {
+            stale[channel] = false;
+            staleChannels--;
+        }
+    }
+
+    /**
+     * Marks stale cells and sensors whose timeout expired since last call
+     * (only writer thread should call this, e.g every loop). Work is
+     * proportional to channels due, not to pack size.
+     *
+     * @return number of channels that just became stale
+     */
+    public int expireStale() {
+        int count = freshness.advance(System.nanoTime(), expired);
+        if (count == 0) {
+            return 0;
+        }
+
+        long stamp = lock.isWriteLocked() ? 0L : beginUpdate();
+        for (int i = 0; i < count; i++) {
+            int channel = expired[i];
+            if (channel < voltages.length && voltages[channel] > 0.0) {
+                voltageRanks.remove(voltages[channel]);  // not trusted
+            }
+            stale[channel] = true;
+            staleChannels++;
+            for (ChangeSet changes : changeSets) {
+                if (channel < voltages.length) {
+                    changes.markCell(channel, bmsOfCell[channel]);
+                } else {
+                    int sensor = channel - voltages.length;
+                    changes.markSensor(sensor, sensor / TEMPERATURES_PER_BMS);
+                }
+            }
+            if (channel >= voltages.length) {
+                thermalTrend.forget(channel - voltages.length);  // no slope
+            }
+        }
+        if (stamp != 0L) {
+            endUpdate(stamp);
+        }
+        return count;
+    }
+
+    public boolean isVoltageStale(int bms, int cell) {
+        return stale[firstCellOfBms[bms] + cell];
+    }
+
+    public boolean isTemperature1Stale(int bms) {
+        return stale[voltages.length + bms * TEMPERATURES_PER_BMS];
+    }
+
+    public boolean isTemperature2Stale(int bms) {
+        return stale[voltages.length + bms * TEMPERATURES_PER_BMS + 1];
+    }
+
+    /**
+     * Gets number of cells and sensors whose value is stale
+     *
+     * @return number of stale channels
+     */
+    public int getStaleChannels() {
+        return staleChannels;
+    }
+
+    /*
+     * Change tracking
+     */
+
+    /**
+     * Registers a consumer of changes (e.g ui, alarms, export)
+     *
+     * @return change set of consumer, everything marked changed
+     */
+    public synchronized ChangeSet newChangeSet() {
+        ChangeSet changes = new ChangeSet(this);
+        ChangeSet[] current = changeSets;
+        ChangeSet[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = changes;
+        changeSets = next;  // copy on write: writer never locks
+        return changes;
+    }
+
+    /**
+     * Unregisters a consumer of changes
+     *
+     * @param changes change set of consumer
+     */
+    synchronized void removeChangeSet(ChangeSet changes) {
+        ChangeSet[] current = changeSets;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == changes) {
+                ChangeSet[] next = new ChangeSet[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, next.length - i);
+                changeSets = next;
+                return;
+            }
+        }
+    }
+
+    /*
+     * Snapshots
+     */
+
+    /**
+     * Starts a group of writes seen at once by readers (only writer thread
+     * should call this). Writes outside updates are published one by one.
+     *
+     * @return stamp to end update with
+     */
+    public long beginUpdate() {
+        long stamp = lock.writeLock();  // readers never hold it: no block
+        updateTime = System.nanoTime();  // receive time of all writes
+        return stamp;
+    }
+
+    /**
+     * Publishes writes made since beginUpdate as a new epoch
+     *
+     * @param stamp stamp returned by beginUpdate
+     */
+    public void endUpdate(long stamp) {
+        resistances.endUpdate(packVoltages.getAverage());
+        epoch++;
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Gets number of updates published so far
+     *
+     * @return epoch of store (may be stale when read outside snapshots)
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Copies all values and aggregates in snapshot. Copy is retried while
+     * writer is updating store, so snapshot is never torn. Readers only read
+     * shared memory: adding readers does not slow down writer.
+     *
+     * @param snapshot where to copy values (of a store with same layout)
+     */
+    public void read(PackSnapshot snapshot) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                snapshot.copy(this, epoch, voltages, temperatures, stale,
+                        staleChannels, freshness, socs, resistances,
+                        getFreshCurrent(), thermalTrend);
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+            Thread.yield();  // writer is in the middle of an update
+        }
+    }
+
+    /**
+     * Gets streaming statistics of cells (to find slots of cells, bms,
+     * segments and pack)
+     *
+     * @return statistics of voltages
+     */
+    public StreamingStats getVoltageStats() {
+        return voltageStats;
+    }
+
+    /**
+     * Gets streaming statistics of temperature sensors (bms * 2 + sensor)
+     *
+     * @return statistics of temperatures
+     */
+    public StreamingStats getTemperatureStats() {
+        return temperatureStats;
+    }
+
+    /**
+     * Gets trends of temperature sensors (writer thread)
+     *
+     * @return slopes and predicted limit crossings of sensors
+     */
+    public ThermalTrend getThermalTrend() {
+        return thermalTrend;
+    }
+
+    /**
+     * Copies statistics of voltages of a cell or roll-up in readout,
+     * consistent as read(snapshot)
+     *
+     * @param slot    slot in voltage statistics (e.g getBmsSlot)
+     * @param readout where to copy statistics
+     */
+    public void readVoltageStats(int slot, StatsReadout readout) {
+        readStats(voltageStats, slot, readout);
+    }
+
+    /**
+     * Copies statistics of temperatures of a sensor or roll-up in readout,
+     * consistent as read(snapshot)
+     *
+     * @param slot    slot in temperature statistics (e.g getBmsSlot)
+     * @param readout where to copy statistics
+     */
+    public void readTemperatureStats(int slot, StatsReadout readout) {
+        readStats(temperatureStats, slot, readout);
+    }
+
+    private void readStats(StreamingStats stats, int slot, StatsReadout
+            readout) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                stats.read(slot, readout, System.nanoTime());
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /*
+     * Outliers
+     */
+
+    /**
+     * Scores every cell against its segment and publishes outliers (writer
+     * thread, once per update cycle). Stale cells are not scored. Nothing is
+     * done if no update was published since last detection.
+     *
+     * @return number of outliers
+     */
+    public int detectOutliers() {
+        if (detectedEpoch == epoch) {
+            return outlierDetector.getNumberOfOutliers();
+        }
+
+        long stamp = lock.writeLock();  // not a new epoch: values unchanged
+        int found;
+        try {
+            found = outlierDetector.detect(voltages, stale);
+            detectedEpoch = epoch;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return found;
+    }
+
+    /**
+     * Gets robust z score of cell at last detection (writer thread)
+     *
+     * @param bms  index of bms in pack
+     * @param cell index of cell in bms
+     * @return score, NaN if cell was not scored
+     */
+    public double getOutlierScore(int bms, int cell) {
+        return outlierDetector.getScore(firstCellOfBms[bms] + cell);
+    }
+
+    /**
+     * Copies outliers of last detection in report, consistent as
+     * read(snapshot)
+     *
+     * @param report where to copy outliers
+     */
+    public void readOutliers(OutlierReport report) {
+        report.ensureCapacity(voltages.length);
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                int size = Math.min(outlierDetector.getNumberOfOutliers(),
+                        voltages.length);
+                for (int outlier = 0; outlier < size; outlier++) {
+                    int cell = outlierDetector.getOutlier(outlier);
+                    int bms = bmsOfCell[cell];
+                    report.set(outlier, bms, cell - firstCellOfBms[bms],
+                            outlierDetector.getScore(cell));
+                }
+                report.setSize(size, detectedEpoch);
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Copies overall values of pack in readout (only aggregates at root, so
+     * O(1)), consistent as read(snapshot)
+     *
+     * @param readout where to copy values (NaN if not read yet)
+     */
+    public void readInfoOverall(PackReadout readout) {
+        long now = System.nanoTime();
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                readout.set(packVoltages.getMin(), packVoltages.getMax(),
+                        packVoltages.getCount() == 0 ? Double.NaN :
+                                packVoltages.getSum(), packTemperatures
+                                .getMax());
+                readout.setSoc(packSocs.getMin(), packSocs.getAverage());
+                int sensor = thermalTrend.getSoonestSensor();
+                readout.setTimeToLimit(thermalTrend.getTimeToLimit(now),
+                        sensor, sensor < 0 ? Double.NaN : thermalTrend
+                                .getSlope(sensor));
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static com.raceup.ed.bms.utils.Streams.readAllFromStream;
+
+/**
+ * Layout of a pack read from a json descriptor: segments, bms of each
+ * segment, cells of each bms and sensors or cells not wired. Numbers of bms,
+ * cells and sensors start from 1 (as in frames). E.g
+ * <pre>
+ * {"name": "bench", "segments": 2, "bmsPerSegment": 3, "cellsPerBms": 6,
+ *  "unpopulatedCells": [{"bms": 2, "cell": 6}],
+ *  "unpopulatedSensors": [{"bms": 4, "sensor": 2}], "staleAfter": 2000,
+ *  "cellCapacity": 2.5, "bleedResistance": 33}
+ * </pre>
+ * Segments can also list cells of each bms (e.g "segments": [[6, 6], [6,
+ * 5]]). Descriptor is compiled once into the index tables and masks of a
+ * PackStore.
+ */
+public class PackTopology {
+    public static final String DEFAULT_RESOURCE = "/res/topology/default" +
+            ".json";
+    public static final String NAME_KEY = "name";
+    public static final String SEGMENTS_KEY = "segments";
+    public static final String BMS_PER_SEGMENT_KEY = "bmsPerSegment";
+    public static final String CELLS_PER_BMS_KEY = "cellsPerBms";
+    public static final String UNPOPULATED_CELLS_KEY = "unpopulatedCells";
+    public static final String UNPOPULATED_SENSORS_KEY = "unpopulatedSensors";
+    public static final String STALE_AFTER_KEY = "staleAfter";  // ms
+    public static final String CELL_CAPACITY_KEY = "cellCapacity";  // Ah
+    public static final String BLEED_RESISTANCE_KEY = "bleedResistance";
+    public static final String BMS_KEY = "bms";
+    public static final String CELL_KEY = "cell";
+    public static final String SENSOR_KEY = "sensor";
+    private final String name;
+    private final int[] firstBmsOfSegment;  // segment -> first bms (+ end)
+    private final int[] firstCellOfBms;  // bms -> first cell (+ end)
+    private final boolean[] unpopulatedCells;  // cell of pack -> not wired
+    private final boolean[] unpopulatedSensors;  // bms * 2 + sensor
+    private final long staleTimeout;  // ms without updates
+    private final double cellCapacity;  // Ah
+    private final double bleedResistance;  // Ohm
+
+    /**
+     * Compiles descriptor
+     *
+     * @param root json descriptor
+     */
+    public PackTopology(JSONObject root) {
+        name = root.optString(NAME_KEY, "pack");
+        staleTimeout = root.optLong(STALE_AFTER_KEY, PackStore
+                .DEFAULT_STALE_TIMEOUT);
+        if (staleTimeout <= 0) {
+            throw new IllegalArgumentException("Bad " + STALE_AFTER_KEY);
+        }
+        cellCapacity = root.optDouble(CELL_CAPACITY_KEY, BalancingPlanner
+                .DEFAULT_CELL_CAPACITY);
+        bleedResistance = root.optDouble(BLEED_RESISTANCE_KEY,
+                BalancingPlanner.DEFAULT_BLEED_RESISTANCE);
+        if (!(cellCapacity > 0.0) || !(bleedResistance > 0.0)) {
+            throw new IllegalArgumentException("Bad " + CELL_CAPACITY_KEY +
+                    " or " + BLEED_RESISTANCE_KEY);
+        }
+
+        JSONArray segments = root.optJSONArray(SEGMENTS_KEY);
+        if (segments == null) {  // equal segments and bms
+            segments = uniformSegments(root.getInt(SEGMENTS_KEY), root.getInt(
+                    BMS_PER_SEGMENT_KEY), root.getInt(CELLS_PER_BMS_KEY));
+        }
+
+        firstBmsOfSegment = new int[segments.length() + 1];
+        int numberOfBms = 0;
+        for (int segment = 0; segment < segments.length(); segment++) {
+            firstBmsOfSegment[segment] = numberOfBms;
+            numberOfBms += segments.getJSONArray(segment).length();
+        }
+        firstBmsOfSegment[segments.length()] = numberOfBms;
+
+        firstCellOfBms = new int[numberOfBms + 1];
+        int numberOfCells = 0;
+        for (int segment = 0; segment < segments.length(); segment++) {
+            JSONArray cells = segments.getJSONArray(segment);
+            for (int i = 0; i < cells.length(); i++) {
+                int bms = firstBmsOfSegment[segment] + i;
+                if (cells.getInt(i) < 1) {
+                    throw new IllegalArgumentException("No cells in bms " +
+                            (bms + 1));
+                }
+                firstCellOfBms[bms] = numberOfCells;
+                numberOfCells += cells.getInt(i);
+            }
+        }
+        firstCellOfBms[numberOfBms] = numberOfCells;
+        if (numberOfBms == 0) {
+            throw new IllegalArgumentException("No bms in " + name);
+        }
+
+        unpopulatedCells = new boolean[numberOfCells];
+        JSONArray cells = root.optJSONArray(UNPOPULATED_CELLS_KEY);
+        for (int i = 0; cells != null && i < cells.length(); i++) {
+            int bms = parseBms(cells.getJSONObject(i));
+            int cell = cells.getJSONObject(i).getInt(CELL_KEY) - 1;
+            if (cell < 0 || cell >= firstCellOfBms[bms + 1] -
+                    firstCellOfBms[bms]) {
+                throw new IllegalArgumentException("No cell " + (cell + 1) +
+                        " in bms " + (bms + 1));
+            }
+            unpopulatedCells[firstCellOfBms[bms] + cell] = true;
+        }
+
+        unpopulatedSensors = new boolean[numberOfBms * PackStore
+                .TEMPERATURES_PER_BMS];
+        JSONArray sensors = root.optJSONArray(UNPOPULATED_SENSORS_KEY);
+        for (int i = 0; sensors != null && i < sensors.length(); i++) {
+            int bms = parseBms(sensors.getJSONObject(i));
+            int sensor = sensors.getJSONObject(i).getInt(SENSOR_KEY) - 1;
+            if (sensor < 0 || sensor >= PackStore.TEMPERATURES_PER_BMS) {
+                throw new IllegalArgumentException("No sensor " + (sensor +
+                        1) + " in bms " + (bms + 1));
+            }
+            unpopulatedSensors[bms * PackStore.TEMPERATURES_PER_BMS +
+                    sensor] = true;
+        }
+    }
+
+    /**
+     * Compiles descriptor
+     *
+     * @param json content of descriptor
+     * @return topology
+     */
+    public static PackTopology parse(String json) {
+        return new PackTopology(new JSONObject(json));
+    }
+
+    /**
+     * Reads and compiles descriptor file
+     *
+     * @param file json descriptor
+     * @return topology
+     * @throws IOException when file cannot be read
+     */
+    public static PackTopology load(File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            return load(stream);
+        }
+    }
+
+    /**
+     * Reads and compiles descriptor of pack of the car (in app resources)
+     *
+     * @return default topology
+     * @throws IOException when resource cannot be read
+     */
+    public static PackTopology loadDefault() throws IOException {
+        try (InputStream stream = PackTopology.class.getResourceAsStream(
+                DEFAULT_RESOURCE)) {
+            if (stream == null) {
+                throw new IOException("Cannot find " + DEFAULT_RESOURCE);
+            }
+            return load(stream);
+        }
+    }
+
+    private static PackTopology load(InputStream stream) throws IOException {
+        return parse(readAllFromStream(new BufferedReader(new
+                InputStreamReader(stream, StandardCharsets.UTF_8))));
+    }
+
+    private static JSONArray uniformSegments(int numberOfSegments, int
+            numberOfBmsPerSegment, int numberOfCellsPerBms) {
+        JSONArray segments = new JSONArray();
+        for (int segment = 0; segment < numberOfSegments; segment++) {
+            JSONArray cells = new JSONArray();
+            for (int bms = 0; bms < numberOfBmsPerSegment; bms++) {
+                cells.put(numberOfCellsPerBms);
+            }
+            segments.put(cells);
+        }
+        return segments;
+    }
+
+    private int parseBms(JSONObject entry) {
+        int bms = entry.getInt(BMS_KEY) - 1;
+        if (bms < 0 || bms >= getNumberOfBms()) {
+            throw new IllegalArgumentException("No bms " + (bms + 1) + " in " +
+                    name);
+        }
+        return bms;
+    }
+
+    /**
+     * Builds empty store with layout and masks of topology
+     *
+     * @return new store
+     */
+    public PackStore newStore() {
+        PackStore store = new PackStore(firstBmsOfSegment, firstCellOfBms,
+                unpopulatedCells, unpopulatedSensors);
+        store.setStaleTimeout(staleTimeout);
+        store.getSocEstimator().setCellCapacity(cellCapacity);
+        return store;
+    }
+
+    /**
+     * Gets max time between 2 updates of a cell or sensor
+     *
+     * @return timeout before values are stale (ms)
+     */
+    public long getStaleTimeout() {
+        return staleTimeout;
+    }
+
+    /**
+     * Gets capacity of a cell (of cells in parallel, if any)
+     *
+     * @return capacity (Ah)
+     */
+    public double getCellCapacity() {
+        return cellCapacity;
+    }
+
+    /**
+     * Gets resistor cells bleed through when balancing
+     *
+     * @return resistance (Ohm)
+     */
+    public double getBleedResistance() {
+        return bleedResistance;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumberOfSegments() {
+        return firstBmsOfSegment.length - 1;
+    }
+
+    public int getNumberOfBms() {
+        return firstCellOfBms.length - 1;
+    }
+
+    public int getNumberOfCells() {
+        return unpopulatedCells.length;
+    }
+
+    @Override
+    public String toString() {
+        int unpopulated = 0;
+        for (boolean cell : unpopulatedCells) {
+            unpopulated += cell ? 1 : 0;
+        }
+        return name + ": " + getNumberOfSegments() + " segments, " +
+                getNumberOfBms() + " bms, " + (getNumberOfCells() -
+                unpopulated) + " cells";
+    }
+}
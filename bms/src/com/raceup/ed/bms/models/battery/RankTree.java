@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Counts of values quantized in equal bins, kept in a Fenwick (binary
+ * indexed) tree: adding or removing a value, ranking a value and finding the
+ * k-th smallest value are O(log bins), whatever the number of values.
+ * Values out of range fall in the first or last bin.
+ */
+public class RankTree {
+    private final double min;  // lower bound of first bin
+    private final double step;  // width of a bin
+    private final int bins;
+    private final int[] tree;  // 1-based Fenwick tree of bin counts
+    private final int highestBit;  // of bins, for descending the tree
+    private int count = 0;
+
+    /**
+     * Builds empty tree
+     *
+     * @param min  lower bound of values
+     * @param max  upper bound of values
+     * @param step width of a bin (resolution of ranks and selections)
+     */
+    public RankTree(double min, double max, double step) {
+        if (!(max > min && step > 0.0)) {
+            throw new IllegalArgumentException("Bad range of rank tree");
+        }
+
+        this.min = min;
+        this.step = step;
+        bins = (int) Math.ceil((max - min) / step) + 1;
+        tree = new int[bins + 1];
+        highestBit = Integer.highestOneBit(bins);
+    }
+
+    private int binOf(double value) {
+        int bin = (int) ((value - min) / step);
+        return Math.max(0, Math.min(bins - 1, bin));
+    }
+
+    private void add(int bin, int delta) {
+        for (int node = bin + 1; node <= bins; node += node & -node) {
+            tree[node] += delta;
+        }
+        count += delta;
+    }
+
+    /**
+     * Counts value (O(log bins))
+     *
+     * @param value value to add
+     */
+    public void add(double value) {
+        add(binOf(value), 1);
+    }
+
+    /**
+     * Forgets a value added before (O(log bins))
+     *
+     * @param value value to remove
+     */
+    public void remove(double value) {
+        add(binOf(value), -1);
+    }
+
+    /**
+     * Moves a value to another bin (nothing to do if bin does not change)
+     *
+     * @param from old value
+     * @param to   new value
+     */
+    public void move(double from, double to) {
+        int fromBin = binOf(from);
+        int toBin = binOf(to);
+        if (fromBin != toBin) {
+            add(fromBin, -1);
+            add(toBin, 1);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Counts values in bins below bin of value (O(log bins))
+     *
+     * @param value value to rank
+     * @return number of smaller values (at resolution of bins)
+     */
+    public int countBelow(double value) {
+        int result = 0;
+        for (int node = binOf(value); node > 0; node -= node & -node) {
+            result += tree[node];
+        }
+        return result;
+    }
+
+    /**
+     * Counts values in bins above bin of value (O(log bins))
+     *
+     * @param value value to rank
+     * @return number of greater values (at resolution of bins)
+     */
+    public int countAbove(double value) {
+        int bin = binOf(value);
+        int result = count;
+        for (int node = bin + 1; node > 0; node -= node & -node) {
+            result -= tree[node];
+        }
+        return result;
+    }
+
+    /**
+     * Finds k-th smallest value (O(log bins))
+     *
+     * @param rank number of smaller values (0 for min, count - 1 for max)
+     * @return lower bound of bin of value, NaN if rank is out of range
+     */
+    public double select(int rank) {
+        if (rank < 0 || rank >= count) {
+            return Double.NaN;
+        }
+
+        int node = 0;
+        int remaining = rank;
+        for (int bit = highestBit; bit > 0; bit >>= 1) {
+            int next = node + bit;
+            if (next <= bins && tree[next] <= remaining) {
+                node = next;
+                remaining -= tree[next];
+            }
+        }
+        return min + node * step;  // node = bins fully below value
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+
+/**
+ * Streaming internal resistance of each cell, updated in O(1) on every
+ * voltage with a recursive least squares fit (forgetting old samples), so
+ * memory per cell is fixed and history is never fitted again.
+ * Steps are used instead of values, so slow changes of OCV cancel out:
+ * when pack current is known, sag of cell between two samples over step of
+ * current is its resistance (mV / A = mOhm). Without current, sag of cell
+ * over sag of average cell is its relative resistance (1 for an average
+ * cell): weak cells sag more under load and recover more at rest. Relative
+ * fits wait for the end of the update, so all cells of a batch are compared
+ * with the same average whatever the order they were written in.
+ */
+public class ResistanceEstimator {
+    public static final double FORGETTING = 0.995;  // weight of past steps
+    public static final double MIN_CURRENT_STEP = 5.0;  // A to fit
+    public static final double MIN_SAG_STEP = 5.0;  // mV of average cell
+    private static final double INITIAL_COVARIANCE = 1e6;
+    private final double forgetting;
+    private final double[] resistances;  // cell -> mOhm, NaN until fitted
+    private final double[] resistanceCovariances;
+    private final double[] relatives;  // cell -> sag / average sag
+    private final double[] relativeCovariances;
+    private final double[] lastVoltages;  // cell -> previous sample
+    private final double[] lastCurrents;  // cell -> current at that sample
+    private final double[] fittedVoltages;  // cell -> at last relative fit
+    private final double[] fittedAverages;  // cell -> average cell at that
+    private final int[] pending;  // cells written in current update
+    private final boolean[] isPending;
+    private int pendingCells = 0;
+
+    /**
+     * Builds estimator with default forgetting factor
+     *
+     * @param cells number of cells
+     */
+    public ResistanceEstimator(int cells) {
+        this(cells, FORGETTING);
+    }
+
+    /**
+     * Builds estimator
+     *
+     * @param cells      number of cells
+     * @param forgetting weight of previous steps (0 - 1, 1 never forgets)
+     */
+    public ResistanceEstimator(int cells, double forgetting) {
+        if (!(forgetting > 0.0 && forgetting <= 1.0)) {
+            throw new IllegalArgumentException("Forgetting factor must be " +
+                    "in (0, 1]");
+        }
+
+        this.forgetting = forgetting;
+        resistances = new double[cells];
+        resistanceCovariances = new double[cells];
+        relatives = new double[cells];
+        relativeCovariances = new double[cells];
+        lastVoltages = new double[cells];
+        lastCurrents = new double[cells];
+        fittedVoltages = new double[cells];
+        fittedAverages = new double[cells];
+        pending = new int[cells];
+        isPending = new boolean[cells];
+        Arrays.fill(resistances, Double.NaN);
+        Arrays.fill(relatives, Double.NaN);
+        Arrays.fill(lastVoltages, Double.NaN);
+        Arrays.fill(fittedVoltages, Double.NaN);
+    }
+
+    /**
+     * Updates fit of cell with new voltage (O(1))
+     *
+     * @param cell    index of cell
+     * @param voltage new voltage (mV)
+     * @param current pack current (A, positive when discharging), NaN if
+     *                not known
+     */
+    public void update(int cell, double voltage, double current) {
+        double sag = lastVoltages[cell] - voltage;  // NaN on first sample
+        double currentStep = current - lastCurrents[cell];
+        if (Math.abs(currentStep) >= MIN_CURRENT_STEP) {  // false if NaN
+            fit(resistances, resistanceCovariances, cell, currentStep, sag);
+        }
+
+        lastVoltages[cell] = voltage;
+        lastCurrents[cell] = current;
+        if (!isPending[cell]) {
+            isPending[cell] = true;
+            pending[pendingCells++] = cell;
+        }
+    }
+
+    /**
+     * Fits relative resistance of cells written since last call (O(1) per
+     * cell), at the end of an update
+     *
+     * @param average average voltage of cells of pack (mV), NaN if none
+     */
+    public void endUpdate(double average) {
+        for (int i = 0; i < pendingCells; i++) {
+            int cell = pending[i];
+            isPending[cell] = false;
+            double averageSag = fittedAverages[cell] - average;
+            if (Math.abs(averageSag) >= MIN_SAG_STEP) {  // false if NaN
+                fit(relatives, relativeCovariances, cell, averageSag,
+                        fittedVoltages[cell] - lastVoltages[cell]);
+            }
+            fittedVoltages[cell] = lastVoltages[cell];
+            fittedAverages[cell] = average;
+        }
+        pendingCells = 0;
+    }
+
+    /**
+     * One step of scalar recursive least squares (y = estimate * x)
+     */
+    private void fit(double[] estimates, double[] covariances, int cell,
+                     double x, double y) {
+        if (Double.isNaN(y)) {
+            return;
+        }
+
+        if (Double.isNaN(estimates[cell])) {
+            estimates[cell] = 0.0;
+            covariances[cell] = INITIAL_COVARIANCE;
+        }
+        double covariance = covariances[cell];
+        double gain = covariance * x / (forgetting + x * covariance * x);
+        estimates[cell] += gain * (y - estimates[cell] * x);
+        covariances[cell] = Math.min(INITIAL_COVARIANCE, (covariance - gain
+                * x * covariance) / forgetting);
+    }
+
+    /**
+     * Gets resistance of cell
+     *
+     * @param cell index of cell
+     * @return resistance (mOhm), NaN if no step of current seen yet
+     */
+    public double getResistance(int cell) {
+        return resistances[cell];
+    }
+
+    /**
+     * Gets resistance of cell relative to average cell
+     *
+     * @param cell index of cell
+     * @return relative resistance (1 for an average cell), NaN if pack
+     * voltage did not move yet
+     */
+    public double getRelativeResistance(int cell) {
+        return relatives[cell];
+    }
+
+    /**
+     * Copies estimates of all cells
+     *
+     * @param resistances where to copy resistances (as many as cells)
+     * @param relatives   where to copy relative resistances
+     */
+    void copyResistances(double[] resistances, double[] relatives) {
+        System.arraycopy(this.resistances, 0, resistances, 0, resistances
+                .length);
+        System.arraycopy(this.relatives, 0, relatives, 0, relatives.length);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Spread of internal resistance of cells of a segment, reused by reader on
+ * every refresh: median, median absolute deviation (MAD) and weak cells,
+ * scored as OutlierDetector scores voltages.
+ */
+public class ResistanceSpread {
+    public static final double OUTLIER_SCORE = OutlierDetector
+            .DEFAULT_THRESHOLD;
+    public static final int MAX_OUTLIERS = 8;  // then only counted
+    private final int[] outlierBms = new int[MAX_OUTLIERS];
+    private final int[] outlierCells = new int[MAX_OUTLIERS];
+    private final double[] outlierScores = new double[MAX_OUTLIERS];
+    private double median = Double.NaN;
+    private double mad = Double.NaN;
+    private int cells = 0;  // cells with an estimate
+    private int outliers = 0;
+    private boolean relative = false;
+
+    void set(double median, double mad, int cells, boolean relative) {
+        this.median = median;
+        this.mad = mad;
+        this.cells = cells;
+        this.relative = relative;
+        this.outliers = 0;
+    }
+
+    void addOutlier(int bms, int cell, double score) {
+        if (outliers < MAX_OUTLIERS) {
+            outlierBms[outliers] = bms;
+            outlierCells[outliers] = cell;
+            outlierScores[outliers] = score;
+        }
+        outliers++;
+    }
+
+    /**
+     * Gets median resistance of cells
+     *
+     * @return resistance (mOhm, or relative), NaN if no estimate
+     */
+    public double getMedian() {
+        return median;
+    }
+
+    /**
+     * Gets median absolute deviation from median
+     *
+     * @return spread (same unit as median), NaN if no estimate
+     */
+    public double getMad() {
+        return mad;
+    }
+
+    public int getCells() {
+        return cells;
+    }
+
+    /**
+     * Check if resistances are relative to average cell (no pack current)
+     *
+     * @return True iff resistances are not in mOhm
+     */
+    public boolean isRelative() {
+        return relative;
+    }
+
+    public int getOutliers() {
+        return outliers;
+    }
+
+    /**
+     * Gets bms of outlier
+     *
+     * @param outlier index of outlier (less than MAX_OUTLIERS)
+     * @return index of bms in pack
+     */
+    public int getOutlierBms(int outlier) {
+        return outlierBms[outlier];
+    }
+
+    /**
+     * Gets cell of outlier
+     *
+     * @param outlier index of outlier (less than MAX_OUTLIERS)
+     * @return index of cell in bms
+     */
+    public int getOutlierCell(int outlier) {
+        return outlierCells[outlier];
+    }
+
+    public double getOutlierScore(int outlier) {
+        return outlierScores[outlier];
+    }
+
+    @Override
+    public String toString() {
+        if (cells == 0) {
+            return "R: DNF";
+        }
+
+        StringBuilder text = new StringBuilder(String.format("R: %.2f%s " +
+                "± %.2f", median, relative ? "x" : " mOhm", mad));
+        for (int i = 0; i < Math.min(outliers, MAX_OUTLIERS); i++) {
+            text.append(i == 0 ? ", weak: " : " ").append("#")
+                    .append(outlierBms[i] + 1).append(".")
+                    .append(outlierCells[i] + 1);
+        }
+        if (outliers > MAX_OUTLIERS) {
+            text.append(" +").append(outliers - MAX_OUTLIERS);
+        }
+        return text.toString();
+    }
+}
@@ -16,17 +16,15 @@
 
 package com.raceup.ed.bms.models.battery;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 /**
  * Battery segment containing battery cells
  */
 public class Segment implements BmsControllable {
-    private final BmsDevice[] bmsDevices;
-    // bms
+    private final BmsDevice[] bmsDevices;  // views of bms
+    private final AggregateTree voltages;  // of cells of segment
+    private final AggregateTree temperatures;  // of bms of segment
 
     /**
      * Create segment with selected number of cells
@@ -34,16 +32,44 @@ public class Segment implements BmsControllable {
      * @param numberOfBms number of cells in segment
      */
     public Segment(int numberOfBms) {
-        bmsDevices = new BmsDevice[numberOfBms];
+        this(new PackStore(1, numberOfBms, BmsDevice
+                .DEFAULT_NUMBER_OF_CELLS), 0);
+    }
+
+    /**
+     * Builds view of segment of a pack
+     *
+     * @param store   values of pack
+     * @param segment index of segment in pack
+     */
+    Segment(PackStore store, int segment) {
+        int firstBms = store.getFirstBms(segment);
+        bmsDevices = new BmsDevice[store.getNumberOfBms(segment)];
         for (int i = 0; i < bmsDevices.length; i++) {
-            bmsDevices[i] = new BmsDevice();
+            bmsDevices[i] = new BmsDevice(store, firstBms + i);
         }
+        voltages = store.getSegmentVoltages(segment);
+        temperatures = store.getSegmentTemperatures(segment);
+    }
+
+    /**
+     * Gets bms of segment
+     *
+     * @param bmsDevice bms position in segment (numbers show from 0)
+     * @return view of bms
+     */
+    public BmsDevice getBmsDevice(int bmsDevice) {
+        return bmsDevices[bmsDevice];
     }
 
     public int getNumberOfBms() {
         return bmsDevices.length;
     }
 
+    public int getNumberOfCellsPerBms() {
+        return bmsDevices[0].getNumberOfCells();
+    }
+
 
     /**
      * Retrieve average temperature value of segment
@@ -51,21 +77,11 @@ public class Segment implements BmsControllable {
      * @return average temperature of segment
      */
     public double getTemperature() {
-        double result = 0.0;
-        int samples = 0;
-        for (BmsDevice device : bmsDevices) {
-            double temperature = device.getTemperature();
-            if (temperature > 0) {
-                result += temperature;
-                samples += 1;
-            }
-        }
-
-        if (result == 0.0) {
+        double result = temperatures.getAverage();
+        if (Double.isNaN(result)) {
             throw new NoSuchElementException("Cannot find avg");
         }
 
-        result /= samples;
         return result;
     }
 
@@ -111,20 +127,12 @@ public class Segment implements BmsControllable {
      * @return average voltage of segment
      */
     public double getVoltage() {
-        double result = 0.0;
-        for (BmsDevice device : bmsDevices) {
-            double voltage = device.getVoltage();
-            if (voltage > 0) {
-                result += voltage;
-            }
-        }
-
+        double result = voltages.getSum();
         if (result == 0.0) {
             throw new NoSuchElementException("Cannot find tot");
         }
 
         return result;
-
     }
 
     /**
@@ -158,37 +166,25 @@ public class Segment implements BmsControllable {
         return bmsDevices[bmsDevice].getMaxVoltage();
     }
 
-    public HashMap<String, Double> getCurrentValues(int bmsDevice) {
-        try {
-            return bmsDevices[bmsDevice].getCurrentValues();
-        } catch (Exception e) {
-            return null;
-        }
+    public void readCurrentValues(int bmsDevice, DeviceReadout readout) {
+        bmsDevices[bmsDevice].readCurrentValues(readout);
     }
 
-    public double getMinVoltage() {
-        ArrayList<Double> voltages = new ArrayList<>();
-        for (BmsDevice bms : bmsDevices) {
-            try {
-                voltages.add(bms.getMinVoltage());
-            } catch (Exception e) {
-            }
+    public double getMinVoltage() throws NoSuchElementException {
+        double result = voltages.getMin();
+        if (Double.isNaN(result)) {
+            throw new NoSuchElementException("Cannot find min");
         }
 
-        int index = voltages.indexOf(Collections.min(voltages));
-        return voltages.get(index);
+        return result;
     }
 
-    public double getMaxVoltage() {
-        ArrayList<Double> voltages = new ArrayList<>();
-        for (BmsDevice bms : bmsDevices) {
-            try {
-                voltages.add(bms.getMaxVoltage());
-            } catch (Exception e) {
-            }
+    public double getMaxVoltage() throws NoSuchElementException {
+        double result = voltages.getMax();
+        if (Double.isNaN(result)) {
+            throw new NoSuchElementException("Cannot find max");
         }
 
-        int index = voltages.indexOf(Collections.max(voltages));
-        return voltages.get(index);
+        return result;
     }
 }
@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+
+/**
+ * Streaming state of charge of each cell, updated in O(1) on every voltage.
+ * Open circuit voltage (OCV) is turned into state of charge with a lookup
+ * table. A cell is at rest when its voltage stayed within a small band for
+ * a while (and pack current, if known, is small): then its voltage is its
+ * OCV and the estimate snaps to the table. Between rests charge is counted
+ * from pack current (cells are in series), so the estimate follows the
+ * discharge within the error of current and capacity. Without current,
+ * voltage sags under load and the estimate only follows the table slowly
+ * (time constant), erring on the low side by about the state of charge of
+ * the sag (e.g. 15 - 20 points for 150 mV in the middle of the table).
+ */
+public class SocEstimator {
+    public static final double[] DEFAULT_OCV = new double[]{3000.0,
+            3450.0, 3560.0, 3630.0, 3690.0, 3750.0, 3830.0, 3920.0,
+            4000.0, 4090.0, 4200.0};  // mV at 0%, 10%, ..., 100%
+    public static final double REST_BAND = 5.0;  // mV of noise at rest
+    public static final long REST_TIME = 30000;  // ms within band
+    public static final long LOAD_TIME_CONSTANT = 120000;  // ms
+    public static final double REST_CURRENT = 0.5;  // A, max at rest
+    private static final double NANOS_PER_HOUR = 3600e9;
+    private static final double TABLE_STEP = 1.0;  // mV between 2 entries
+    private final double minVoltage;  // mV of first entry
+    private final double[] socOfVoltage;  // (mV - min) / step -> soc
+    private final double restBand;
+    private final long restTime;  // ns
+    private final double loadTimeConstant;  // ns
+    private final double[] socs;  // cell -> soc (%), NaN if not read
+    private final double[] restVoltages;  // cell -> voltage when rest began
+    private final long[] restSince;  // cell -> when voltage entered band
+    private final long[] times;  // cell -> last update
+    private double cellCapacity = BalancingPlanner.DEFAULT_CELL_CAPACITY;
+
+    /**
+     * Builds estimator with default table and rest detection
+     *
+     * @param cells number of cells
+     */
+    public SocEstimator(int cells) {
+        this(cells, DEFAULT_OCV, REST_BAND, REST_TIME, LOAD_TIME_CONSTANT);
+    }
+
+    /**
+     * Builds estimator
+     *
+     * @param cells            number of cells
+     * @param ocv              OCV (mV) at equally spaced states of charge,
+     *                         from 0% to 100% (increasing)
+     * @param restBand         max change of voltage at rest (mV)
+     * @param restTime         time voltage must stay in band (ms)
+     * @param loadTimeConstant time constant of estimate under load (ms)
+     */
+    public SocEstimator(int cells, double[] ocv, double restBand, long
+            restTime, long loadTimeConstant) {
+        if (ocv.length < 2) {
+            throw new IllegalArgumentException("OCV table too short");
+        }
+
+        for (int i = 1; i < ocv.length; i++) {
+            if (ocv[i] <= ocv[i - 1]) {
+                throw new IllegalArgumentException("OCV table not " +
+                        "increasing");
+            }
+        }
+
+        minVoltage = ocv[0];
+        double maxVoltage = ocv[ocv.length - 1];
+        socOfVoltage = new double[(int) Math.ceil((maxVoltage - minVoltage)
+                / TABLE_STEP) + 1];
+        int segment = 0;
+        for (int i = 0; i < socOfVoltage.length; i++) {
+            double voltage = minVoltage + i * TABLE_STEP;
+            while (segment < ocv.length - 2 && voltage > ocv[segment + 1]) {
+                segment++;
+            }
+            double fraction = (voltage - ocv[segment]) / (ocv[segment + 1] -
+                    ocv[segment]);
+            socOfVoltage[i] = 100.0 * Math.min(1.0, (segment + fraction) /
+                    (ocv.length - 1));
+        }
+
+        this.restBand = restBand;
+        this.restTime = restTime * 1000000L;
+        this.loadTimeConstant = loadTimeConstant * 1e6;
+        socs = new double[cells];
+        Arrays.fill(socs, Double.NaN);
+        restVoltages = new double[cells];
+        restSince = new long[cells];
+        times = new long[cells];
+    }
+
+    /**
+     * Sets capacity of a cell, to count charge from current
+     *
+     * @param cellCapacity capacity (Ah)
+     */
+    public void setCellCapacity(double cellCapacity) {
+        this.cellCapacity = cellCapacity;
+    }
+
+    /**
+     * Looks up state of charge of an open circuit voltage (O(1))
+     *
+     * @param voltage voltage of cell at rest (mV)
+     * @return state of charge (%), clamped to 0 - 100
+     */
+    public double ocvToSoc(double voltage) {
+        double position = (voltage - minVoltage) / TABLE_STEP;
+        if (!(position > 0)) {
+            return 0.0;  // below table (or NaN)
+        }
+        int index = (int) position;
+        if (index >= socOfVoltage.length - 1) {
+            return 100.0;
+        }
+        double fraction = position - index;
+        return socOfVoltage[index] + fraction * (socOfVoltage[index + 1] -
+                socOfVoltage[index]);
+    }
+
+    /**
+     * Updates estimate of cell with new voltage, pack current not known
+     * (O(1))
+     *
+     * @param cell    index of cell
+     * @param voltage new voltage (mV)
+     * @param now     receive time (System.nanoTime)
+     * @return new state of charge (%)
+     */
+    public double update(int cell, double voltage, long now) {
+        return update(cell, voltage, Double.NaN, now);
+    }
+
+    /**
+     * Updates estimate of cell with new voltage (O(1))
+     *
+     * @param cell    index of cell
+     * @param voltage new voltage (mV)
+     * @param current pack current since last voltage (A, positive when
+     *                discharging), NaN if not known
+     * @param now     receive time (System.nanoTime)
+     * @return new state of charge (%)
+     */
+    public double update(int cell, double voltage, double current, long
+            now) {
+        double table = ocvToSoc(voltage);
+        if (Double.isNaN(socs[cell])) {  // first value: best guess is table
+            socs[cell] = table;
+            restVoltages[cell] = voltage;
+            restSince[cell] = now;
+            times[cell] = now;
+            return table;
+        }
+
+        if (Math.abs(voltage - restVoltages[cell]) > restBand || Math.abs(
+                current) > REST_CURRENT) {  // false if current is NaN
+            restVoltages[cell] = voltage;  // moving: rest starts again
+            restSince[cell] = now;
+        }
+
+        long elapsed = Math.max(0L, now - times[cell]);
+        times[cell] = now;
+        if (now - restSince[cell] >= restTime) {
+            socs[cell] = table;  // voltage is OCV
+        } else if (!Double.isNaN(current)) {
+            double charge = current * elapsed / NANOS_PER_HOUR;  // Ah
+            socs[cell] = Math.max(0.0, Math.min(100.0, socs[cell] - 100.0 *
+                    charge / cellCapacity));
+        } else {
+            double gain = elapsed / (loadTimeConstant + elapsed);
+            socs[cell] += gain * (table - socs[cell]);
+        }
+        return socs[cell];
+    }
+
+    /**
+     * Gets estimate of cell
+     *
+     * @param cell index of cell
+     * @return state of charge (%), NaN if no voltage read yet
+     */
+    public double getSoc(int cell) {
+        return socs[cell];
+    }
+
+    /**
+     * Check if cell voltage has been steady long enough to be its OCV
+     *
+     * @param cell index of cell
+     * @param now  current time (System.nanoTime)
+     * @return True iff cell is at rest
+     */
+    public boolean isAtRest(int cell, long now) {
+        return !Double.isNaN(socs[cell]) && now - restSince[cell] >= restTime;
+    }
+
+    /**
+     * Copies estimates of all cells
+     *
+     * @param destination where to copy (as many as cells)
+     */
+    void copySocs(double[] destination) {
+        System.arraycopy(socs, 0, destination, 0, socs.length);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+/**
+ * Statistics of a channel or roll-up, reused by reader on every refresh.
+ * Readouts of statistics with the same bins can be merged (e.g packs of a
+ * fleet): counts, means and variances are pooled, histograms added, so
+ * quantiles of the merge are exact at resolution of bins. Values not read
+ * yet are NaN.
+ */
+public class StatsReadout {
+    private long count = 0;
+    private double mean = Double.NaN;
+    private double squares = 0.0;  // sum of squared deviations from mean
+    private double ewma = Double.NaN;
+    private double windowMax = Double.NaN;
+    private double windowMin = Double.NaN;
+    private int[] histogram = new int[0];  // grown on first copy only
+    private double histogramMin = 0.0;
+    private double resolution = 1.0;
+
+    void set(long count, double mean, double squares, double ewma, double
+            windowMax, double windowMin) {
+        this.count = count;
+        this.mean = count == 0 ? Double.NaN : mean;
+        this.squares = squares;
+        this.ewma = ewma;
+        this.windowMax = windowMax;
+        this.windowMin = windowMin;
+    }
+
+    void setHistogram(int[] histograms, int offset, int bins, double
+            histogramMin, double resolution) {
+        if (histogram.length != bins) {
+            histogram = new int[bins];
+        }
+        System.arraycopy(histograms, offset, histogram, 0, bins);
+        this.histogramMin = histogramMin;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Adds statistics of another readout (Chan et al. for variance)
+     *
+     * @param other readout of statistics with same bins
+     */
+    public void merge(StatsReadout other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            copy(other);
+            return;
+        }
+        if (histogram.length != other.histogram.length || histogramMin !=
+                other.histogramMin || resolution != other.resolution) {
+            throw new IllegalArgumentException("Cannot merge histograms " +
+                    "with other bins");
+        }
+
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        squares += other.squares + delta * delta * count * other.count /
+                total;
+        mean += delta * other.count / total;
+        ewma = Double.isNaN(ewma) ? other.ewma : Double.isNaN(other.ewma) ?
+                ewma : (ewma * count + other.ewma * other.count) / total;
+        windowMax = Double.isNaN(windowMax) || other.windowMax > windowMax ?
+                other.windowMax : windowMax;
+        windowMin = Double.isNaN(windowMin) || other.windowMin < windowMin ?
+                other.windowMin : windowMin;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            histogram[bin] += other.histogram[bin];
+        }
+        count = total;
+    }
+
+    private void copy(StatsReadout other) {
+        set(other.count, other.mean, other.squares, other.ewma, other
+                .windowMax, other.windowMin);
+        setHistogram(other.histogram, 0, other.histogram.length, other
+                .histogramMin, other.resolution);
+    }
+
+    /**
+     * Gets number of samples since statistics began
+     *
+     * @return number of samples
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Gets variance of samples (of all samples of channels, for roll-ups)
+     *
+     * @return sample variance, NaN if less than 2 samples
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : squares / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Gets moving average (average of moving averages of channels, for
+     * roll-ups)
+     *
+     * @return moving average, NaN if nothing read
+     */
+    public double getEwma() {
+        return ewma;
+    }
+
+    /**
+     * Gets max of samples in time window
+     *
+     * @return max, NaN if no sample in window
+     */
+    public double getWindowMax() {
+        return windowMax;
+    }
+
+    public double getWindowMin() {
+        return windowMin;
+    }
+
+    /**
+     * Estimates quantile from histogram (O(bins), interpolated in bin)
+     *
+     * @param quantile quantile (0 - 1, e.g 0.5 for median)
+     * @return value, NaN if nothing read
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double rank = Math.max(0.0, Math.min(1.0, quantile)) * count;
+        long seen = 0;
+        for (int bin = 0; bin < histogram.length; bin++) {
+            if (histogram[bin] > 0 && seen + histogram[bin] >= rank) {
+                double fraction = (rank - seen) / histogram[bin];
+                return histogramMin + (bin + fraction) * resolution;
+            }
+            seen += histogram[bin];
+        }
+        return histogramMin + histogram.length * resolution;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics of channels (e.g cells), of their bms, segments and
+ * pack, in flat arrays of fixed size: memory does not grow with samples.
+ * Every sample updates its channel and the bms, segment and pack it belongs
+ * to in O(1) (amortized), which is the same as merging statistics of
+ * channels, so rolled up statistics are read as cheaply as those of a
+ * channel. Each slot (channel or roll-up) keeps:
+ * <ul>
+ * <li>exponentially weighted moving average (of channels, average of
+ * channel averages for roll-ups)</li>
+ * <li>count, mean and variance of all samples (Welford)</li>
+ * <li>min and max of samples in a time window (monotonic deques)</li>
+ * <li>histogram of all samples in fixed bins (mergeable quantile sketch)</li>
+ * </ul>
+ * Only writer thread should update statistics.
+ */
+public class StreamingStats {
+    public static final double DEFAULT_ALPHA = 0.1;  // weight of new sample
+    public static final long DEFAULT_WINDOW = 10000;  // ms
+    public static final int DEFAULT_WINDOW_CAPACITY = 64;  // per channel
+    private static final int MAX_ROLL_UP_CAPACITY = 16;  // in channels
+    private final int channels;
+    private final int bmsSlot;  // first slot of bms roll-ups
+    private final int segmentSlot;  // first slot of segment roll-ups
+    private final int packSlot;
+    private final double alpha;
+    private long window;  // ns
+    private final double[] ewmaSums;  // slot -> sum of channel averages
+    private final int[] ewmaCounts;  // slot -> channels with an average
+    private final long[] counts;  // slot -> samples (Welford)
+    private final double[] means;
+    private final double[] squares;  // sum of squared deviations from mean
+    private final int[] dequeOffsets;  // slot -> first entry (+ end)
+    private final int[] maxHeads;  // slot -> index of front in its entries
+    private final int[] maxSizes;
+    private final double[] maxValues;
+    private final long[] maxTimes;
+    private final int[] minHeads;
+    private final int[] minSizes;
+    private final double[] minValues;
+    private final long[] minTimes;
+    private final double histogramMin;  // lower bound of first bin
+    private final double resolution;  // width of a bin
+    private final int bins;
+    private final int[] histograms;  // slot * bins + bin -> samples
+
+    /**
+     * Builds statistics with default average, window and capacity
+     *
+     * @param firstChannelOfBms index of first channel of each bms, followed
+     *                          by number of channels
+     * @param firstBmsOfSegment index of first bms of each segment, followed
+     *                          by number of bms
+     * @param min               lower bound of histogram
+     * @param max               upper bound of histogram
+     * @param resolution        width of a bin of histogram
+     */
+    public StreamingStats(int[] firstChannelOfBms, int[] firstBmsOfSegment,
+                          double min, double max, double resolution) {
+        this(firstChannelOfBms, firstBmsOfSegment, min, max, resolution,
+                DEFAULT_ALPHA, DEFAULT_WINDOW, DEFAULT_WINDOW_CAPACITY);
+    }
+
+    /**
+     * Builds statistics
+     *
+     * @param firstChannelOfBms index of first channel of each bms, followed
+     *                          by number of channels
+     * @param firstBmsOfSegment index of first bms of each segment, followed
+     *                          by number of bms
+     * @param min               lower bound of histogram
+     * @param max               upper bound of histogram
+     * @param resolution        width of a bin of histogram
+     * @param alpha             weight of a new sample in moving average (0 -
+     *                          1)
+     * @param window            time window of min and max (ms)
+     * @param capacity          max candidates kept in window of a channel
+     *                          (roll-ups keep as many for each channel, up
+     *                          to 16 channels): when full, oldest candidate
+     *                          goes and window is shorter
+     */
+    public StreamingStats(int[] firstChannelOfBms, int[] firstBmsOfSegment,
+                          double min, double max, double resolution, double
+                                  alpha, long window, int capacity) {
+        if (!(alpha > 0.0 && alpha <= 1.0) || capacity < 1 || !(max > min &&
+                resolution > 0.0)) {
+            throw new IllegalArgumentException("Bad parameters of " +
+                    "statistics");
+        }
+
+        int numberOfBms = firstChannelOfBms.length - 1;
+        int numberOfSegments = firstBmsOfSegment.length - 1;
+        channels = firstChannelOfBms[numberOfBms];
+        bmsSlot = channels;
+        segmentSlot = bmsSlot + numberOfBms;
+        packSlot = segmentSlot + numberOfSegments;
+        int slots = packSlot + 1;
+        this.alpha = alpha;
+        setWindow(window);
+
+        ewmaSums = new double[slots];
+        ewmaCounts = new int[slots];
+        counts = new long[slots];
+        means = new double[slots];
+        squares = new double[slots];
+
+        dequeOffsets = new int[slots + 1];
+        int offset = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            dequeOffsets[slot] = offset;
+            offset += capacity * Math.min(MAX_ROLL_UP_CAPACITY, channelsOf(
+                    slot, firstChannelOfBms, firstBmsOfSegment));
+        }
+        dequeOffsets[slots] = offset;
+        maxHeads = new int[slots];
+        maxSizes = new int[slots];
+        maxValues = new double[offset];
+        maxTimes = new long[offset];
+        minHeads = new int[slots];
+        minSizes = new int[slots];
+        minValues = new double[offset];
+        minTimes = new long[offset];
+
+        histogramMin = min;
+        this.resolution = resolution;
+        bins = (int) Math.ceil((max - min) / resolution) + 1;
+        histograms = new int[slots * bins];
+    }
+
+    private int channelsOf(int slot, int[] firstChannelOfBms, int[]
+            firstBmsOfSegment) {
+        if (slot < bmsSlot) {
+            return 1;
+        } else if (slot < segmentSlot) {
+            int bms = slot - bmsSlot;
+            return firstChannelOfBms[bms + 1] - firstChannelOfBms[bms];
+        } else if (slot < packSlot) {
+            int segment = slot - segmentSlot;
+            return firstChannelOfBms[firstBmsOfSegment[segment + 1]] -
+                    firstChannelOfBms[firstBmsOfSegment[segment]];
+        }
+        return channels;
+    }
+
+    /**
+     * Sets time window of min and max
+     *
+     * @param window window (ms)
+     */
+    public void setWindow(long window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.window = window * 1000000L;
+    }
+
+    public long getWindow() {
+        return window / 1000000L;
+    }
+
+    /*
+     * Slots
+     */
+
+    public int getChannelSlot(int channel) {
+        return channel;
+    }
+
+    public int getBmsSlot(int bms) {
+        return bmsSlot + bms;
+    }
+
+    public int getSegmentSlot(int segment) {
+        return segmentSlot + segment;
+    }
+
+    public int getPackSlot() {
+        return packSlot;
+    }
+
+    /*
+     * Updates
+     */
+
+    /**
+     * Adds sample of channel to channel, its bms, segment and pack (O(1)
+     * amortized, no allocation)
+     *
+     * @param channel index of channel
+     * @param bms     index of bms of channel
+     * @param segment index of segment of bms
+     * @param value   new value
+     * @param now     receive time (System.nanoTime)
+     */
+    public void add(int channel, int bms, int segment, double value, long
+            now) {
+        double ewmaChange;
+        if (ewmaCounts[channel] == 0) {
+            ewmaSums[channel] = value;
+            ewmaCounts[channel] = 1;
+            ewmaChange = value;
+            addEwmaChannel(bmsSlot + bms, segmentSlot + segment);
+        } else {
+            ewmaChange = alpha * (value - ewmaSums[channel]);
+            ewmaSums[channel] += ewmaChange;
+        }
+        ewmaSums[bmsSlot + bms] += ewmaChange;
+        ewmaSums[segmentSlot + segment] += ewmaChange;
+        ewmaSums[packSlot] += ewmaChange;
+
+        int bin = binOf(value);
+        add(channel, value, bin, now);
+        add(bmsSlot + bms, value, bin, now);
+        add(segmentSlot + segment, value, bin, now);
+        add(packSlot, value, bin, now);
+    }
+
+    private void addEwmaChannel(int bms, int segment) {
+        ewmaCounts[bms]++;
+        ewmaCounts[segment]++;
+        ewmaCounts[packSlot]++;
+    }
+
+    private void add(int slot, double value, int bin, long now) {
+        long count = ++counts[slot];  // Welford
+        double delta = value - means[slot];
+        means[slot] += delta / count;
+        squares[slot] += delta * (value - means[slot]);
+
+        histograms[slot * bins + bin]++;
+        push(slot, value, now, maxHeads, maxSizes, maxValues, maxTimes, true);
+        push(slot, value, now, minHeads, minSizes, minValues, minTimes,
+                false);
+    }
+
+    /**
+     * Pushes sample in monotonic deque of slot: samples that can no longer
+     * be the extreme of window (older and not more extreme) are dropped
+     */
+    private void push(int slot, double value, long now, int[] heads, int[]
+            sizes, double[] values, long[] times, boolean max) {
+        int offset = dequeOffsets[slot];
+        int capacity = dequeOffsets[slot + 1] - offset;
+        int head = heads[slot];
+        int size = sizes[slot];
+        while (size > 0 && now - times[offset + head] > window) {
+            head = head + 1 == capacity ? 0 : head + 1;  // out of window
+            size--;
+        }
+        while (size > 0) {
+            int back = head + size - 1;
+            double backValue = values[offset + (back >= capacity ? back -
+                    capacity : back)];
+            if (max ? backValue > value : backValue < value) {
+                break;
+            }
+            size--;  // dominated by new sample
+        }
+        if (size == capacity) {
+            head = head + 1 == capacity ? 0 : head + 1;  // oldest goes
+            size--;
+        }
+        int tail = head + size;
+        tail = offset + (tail >= capacity ? tail - capacity : tail);
+        values[tail] = value;
+        times[tail] = now;
+        heads[slot] = head;
+        sizes[slot] = size + 1;
+    }
+
+    private int binOf(double value) {
+        int bin = (int) ((value - histogramMin) / resolution);
+        return Math.max(0, Math.min(bins - 1, bin));
+    }
+
+    /*
+     * Queries
+     */
+
+    /**
+     * Copies statistics of slot in readout (O(bins), no allocation)
+     *
+     * @param slot    channel or roll-up
+     * @param readout where to copy statistics (of statistics with same bins)
+     * @param now     current time (System.nanoTime), for window
+     */
+    public void read(int slot, StatsReadout readout, long now) {
+        readout.set(counts[slot], means[slot], squares[slot],
+                ewmaCounts[slot] == 0 ? Double.NaN : ewmaSums[slot] /
+                        ewmaCounts[slot], extreme(slot, now, maxHeads,
+                        maxSizes, maxValues, maxTimes), extreme(slot, now,
+                        minHeads, minSizes, minValues, minTimes));
+        readout.setHistogram(histograms, slot * bins, bins, histogramMin,
+                resolution);
+    }
+
+    /**
+     * Gets front of deque of slot still in window (does not change deque)
+     */
+    private double extreme(int slot, long now, int[] heads, int[] sizes,
+                           double[] values, long[] times) {
+        int offset = dequeOffsets[slot];
+        int capacity = dequeOffsets[slot + 1] - offset;
+        for (int i = 0; i < sizes[slot]; i++) {
+            int entry = heads[slot] + i;
+            entry = offset + (entry >= capacity ? entry - capacity : entry);
+            if (now - times[entry] <= window) {
+                return values[entry];
+            }
+        }
+        return Double.NaN;  // nothing in window
+    }
+
+    /**
+     * Gets bytes of arrays of statistics (to size heap)
+     *
+     * @return approximate memory footprint
+     */
+    public long getFootprint() {
+        long slots = counts.length;
+        return slots * (8 + 4 + 8 + 8 + 8 + 4 + 4 * 4) + (long) maxValues
+                .length * 4 * 8 + (long) histograms.length * 4;
+    }
+
+    /**
+     * Forgets all samples
+     */
+    public void clear() {
+        Arrays.fill(ewmaSums, 0.0);
+        Arrays.fill(ewmaCounts, 0);
+        Arrays.fill(counts, 0L);
+        Arrays.fill(means, 0.0);
+        Arrays.fill(squares, 0.0);
+        Arrays.fill(maxSizes, 0);
+        Arrays.fill(minSizes, 0);
+        Arrays.fill(histograms, 0);
+    }
+}
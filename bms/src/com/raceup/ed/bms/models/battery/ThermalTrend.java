@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+
+/**
+ * Streaming trend of each temperature sensor, to warn before a limit is
+ * crossed rather than after. Each sensor is smoothed by a Holt filter (level
+ * and slope, O(1) per sample, irregular sampling allowed): the time left to
+ * the limit is extrapolated from slope and kept as an absolute crossing
+ * time, so it does not change between samples. Soonest crossing of all
+ * sensors is kept by a tournament tree (O(log n) per sample, O(1) to read).
+ */
+public class ThermalTrend {
+    public static final double LEVEL_GAIN = 0.2;  // alpha, per sample
+    public static final double SLOPE_GAIN = 0.05;  // beta, per sample
+    public static final double MIN_SLOPE = 0.5 / 60.0;  // C° per s
+    public static final double HORIZON = 600.0;  // s, farther is ignored
+    public static final int WARM_UP = 10;  // samples before extrapolating
+    public static final long NONE = Long.MAX_VALUE;  // crossing never seen
+    private static final double MIN_STEP = 0.05;  // s between slope updates
+    private final int sensors;
+    private final int size;  // number of leaves (power of 2)
+    private final double limit;  // C°
+    private final double[] levels;  // sensor -> smoothed temperature
+    private final double[] slopes;  // sensor -> C° per s
+    private final long[] times;  // sensor -> time of level (ns)
+    private final int[] samples;  // sensor -> samples since (re)start
+    private final long[] crossings;  // sensor -> when limit is reached (ns)
+    private final int[] winners;  // node -> sensor crossing first, -1 none
+
+    /**
+     * Builds trends of sensors not read yet
+     *
+     * @param sensors number of sensors
+     * @param limit   temperature not to be reached (C°)
+     */
+    public ThermalTrend(int sensors, double limit) {
+        int size = 1;
+        while (size < sensors) {
+            size <<= 1;
+        }
+        this.sensors = sensors;
+        this.size = size;
+        this.limit = limit;
+        levels = new double[sensors];
+        slopes = new double[sensors];
+        times = new long[sensors];
+        samples = new int[sensors];
+        crossings = new long[sensors];
+        Arrays.fill(levels, Double.NaN);
+        Arrays.fill(crossings, NONE);
+        winners = new int[2 * size];
+        Arrays.fill(winners, -1);
+    }
+
+    /**
+     * Smooths new sample of sensor and predicts when it reaches limit
+     *
+     * @param sensor index of sensor
+     * @param value  temperature (C°)
+     * @param time   receive time of sample (ns)
+     */
+    public void update(int sensor, double value, long time) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        if (samples[sensor] == 0) {  // first sample: no slope yet
+            levels[sensor] = value;
+            slopes[sensor] = 0.0;
+            times[sensor] = time;
+            samples[sensor] = 1;
+        } else {
+            double step = (time - times[sensor]) / 1e9;
+            double level = levels[sensor];
+            if (step < MIN_STEP) {  // same batch: too close to see a slope
+                levels[sensor] = LEVEL_GAIN * value + (1.0 - LEVEL_GAIN) *
+                        level;
+            } else {
+                double predicted = level + slopes[sensor] * step;
+                double next = LEVEL_GAIN * value + (1.0 - LEVEL_GAIN) *
+                        predicted;
+                slopes[sensor] = SLOPE_GAIN * (next - level) / step + (1.0 -
+                        SLOPE_GAIN) * slopes[sensor];
+                levels[sensor] = next;
+                times[sensor] = time;
+                if (samples[sensor] < WARM_UP) {
+                    samples[sensor]++;
+                }
+            }
+        }
+
+        setCrossing(sensor, predictCrossing(sensor));
+    }
+
+    /**
+     * Drops trend of sensor (e.g stale): it starts again on next sample
+     *
+     * @param sensor index of sensor
+     */
+    public void forget(int sensor) {
+        samples[sensor] = 0;
+        levels[sensor] = Double.NaN;
+        slopes[sensor] = 0.0;
+        setCrossing(sensor, NONE);
+    }
+
+    private long predictCrossing(int sensor) {
+        double level = levels[sensor];
+        if (level >= limit) {
+            return times[sensor];  // already there
+        }
+
+        double slope = slopes[sensor];
+        if (samples[sensor] < WARM_UP || slope < MIN_SLOPE) {
+            return NONE;
+        }
+
+        double left = (limit - level) / slope;
+        return left > HORIZON ? NONE : times[sensor] + (long) (left * 1e9);
+    }
+
+    /**
+     * Sets crossing time of sensor and replays its matches up to root
+     * (O(log n))
+     */
+    private void setCrossing(int sensor, long crossing) {
+        crossings[sensor] = crossing;
+        int node = size + sensor;
+        winners[node] = crossing == NONE ? -1 : sensor;
+        for (node >>= 1; node > 0; node >>= 1) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            winners[node] = right < 0 || (left >= 0 && crossings[left] <=
+                    crossings[right]) ? left : right;
+        }
+    }
+
+    public int getNumberOfSensors() {
+        return sensors;
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gets smoothed temperature of sensor
+     *
+     * @param sensor index of sensor
+     * @return level (C°), NaN if not read
+     */
+    public double getLevel(int sensor) {
+        return levels[sensor];
+    }
+
+    /**
+     * Gets slope of temperature of sensor
+     *
+     * @param sensor index of sensor
+     * @return C° per s, NaN while warming up
+     */
+    public double getSlope(int sensor) {
+        return samples[sensor] < WARM_UP ? Double.NaN : slopes[sensor];
+    }
+
+    /**
+     * Gets when sensor is predicted to reach limit
+     *
+     * @param sensor index of sensor
+     * @return time (ns), NONE if not heading to limit within horizon
+     */
+    public long getCrossing(int sensor) {
+        return crossings[sensor];
+    }
+
+    /**
+     * Gets sensor predicted to reach limit first (O(1))
+     *
+     * @return index of sensor, -1 if none is heading to limit
+     */
+    public int getSoonestSensor() {
+        return winners[1];
+    }
+
+    /**
+     * Gets time left before a sensor of pack reaches limit (O(1))
+     *
+     * @param now current time (ns)
+     * @return s (0 if already reached), NaN if none is heading to limit
+     */
+    public double getTimeToLimit(long now) {
+        int sensor = winners[1];
+        return sensor < 0 ? Double.NaN : Math.max(0.0, (crossings[sensor] -
+                now) / 1e9);
+    }
+
+    /**
+     * Copies slopes and crossing times of all sensors
+     *
+     * @param slopes    where to copy slopes (C° per s, NaN while warming up)
+     * @param crossings where to copy crossing times (ns)
+     */
+    void copyTrends(double[] slopes, long[] crossings) {
+        for (int sensor = 0; sensor < sensors; sensor++) {
+            slopes[sensor] = getSlope(sensor);
+        }
+        System.arraycopy(this.crossings, 0, crossings, 0, sensors);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.battery;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel telling which channels (e.g cells) were not updated for
+ * longer than a timeout. Touching a channel only records its time (O(1),
+ * no list moved); a channel is rescheduled lazily when its slot comes up, so
+ * each tick only visits channels due in that slot, never all of them.
+ * Wheel spans more than timeout, so there are no rounds. Single thread.
+ */
+public class TimerWheel {
+    private static final int NONE = -1;
+    private static final int TICKS_PER_TIMEOUT = 16;
+    private final long timeout;  // ns
+    private final long tick;  // ns
+    private final int mask;
+    private final int[] heads;  // slot -> first channel (linked list)
+    private final int[] next;  // channel -> next channel in slot
+    private final long[] times;  // channel -> last touch (ns)
+    private final boolean[] scheduled;  // channel -> in a slot
+    private long lastTick = Long.MIN_VALUE;  // last tick processed
+
+    /**
+     * Builds wheel with no channel scheduled
+     *
+     * @param channels number of channels
+     * @param timeout  max time between 2 updates of a channel (ms)
+     */
+    public TimerWheel(int channels, long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        this.timeout = timeout * 1000000L;
+        this.tick = Math.max(1L, this.timeout / TICKS_PER_TIMEOUT);
+        int slots = Integer.highestOneBit(TICKS_PER_TIMEOUT + 1) << 1;
+        mask = slots - 1;
+        heads = new int[slots];
+        Arrays.fill(heads, NONE);
+        next = new int[channels];
+        times = new long[channels];
+        scheduled = new boolean[channels];
+    }
+
+    /**
+     * Gets max time between 2 updates of a channel
+     *
+     * @return timeout (ms)
+     */
+    public long getTimeout() {
+        return timeout / 1000000L;
+    }
+
+    /**
+     * Gets last time channel was touched
+     *
+     * @param channel index of channel
+     * @return time (System.nanoTime), 0 if never touched
+     */
+    public long getTime(int channel) {
+        return times[channel];
+    }
+
+    /**
+     * Copies last touch time of all channels
+     *
+     * @param destination where to copy times (as many as channels)
+     */
+    void copyTimes(long[] destination) {
+        System.arraycopy(times, 0, destination, 0, times.length);
+    }
+
+    /**
+     * Records update of channel (O(1))
+     *
+     * @param channel index of channel
+     * @param now     current time (System.nanoTime)
+     */
+    public void touch(int channel, long now) {
+        times[channel] = now;
+        if (!scheduled[channel]) {
+            schedule(channel, now + timeout);
+        }
+    }
+
+    /**
+     * Processes ticks elapsed until now
+     *
+     * @param now     current time (System.nanoTime)
+     * @param expired where to put channels not touched for longer than
+     *                timeout (as many as channels), they are no longer
+     *                scheduled until touched again
+     * @return number of expired channels
+     */
+    public int advance(long now, int[] expired) {
+        long nowTick = now / tick;
+        if (lastTick == Long.MIN_VALUE || nowTick <= lastTick) {
+            lastTick = Math.max(lastTick, nowTick);
+            return 0;
+        }
+
+        int count = 0;
+        long first = Math.max(lastTick + 1, nowTick - mask);  // whole wheel
+        lastTick = nowTick;
+        for (long current = first; current <= nowTick; current++) {
+            int slot = (int) current & mask;
+            int channel = heads[slot];
+            heads[slot] = NONE;
+            while (channel != NONE) {
+                int following = next[channel];
+                long deadline = times[channel] + timeout;
+                if (deadline - now <= 0) {
+                    scheduled[channel] = false;
+                    expired[count++] = channel;
+                } else {
+                    scheduled[channel] = false;
+                    schedule(channel, deadline);  // touched meanwhile
+                }
+                channel = following;
+            }
+        }
+        return count;
+    }
+
+    private void schedule(int channel, long deadline) {
+        if (lastTick == Long.MIN_VALUE) {
+            lastTick = deadline / tick - TICKS_PER_TIMEOUT - 1;  // first
+        }
+        long deadlineTick = Math.max(deadline / tick + 1, lastTick + 1);
+        int slot = (int) deadlineTick & mask;
+        next[channel] = heads[slot];
+        heads[slot] = channel;
+        scheduled[channel] = true;
+    }
+}
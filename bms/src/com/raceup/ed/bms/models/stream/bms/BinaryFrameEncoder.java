@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import com.raceup.ed.bms.models.stream.frame.Cobs;
+import com.raceup.ed.bms.utils.Checksums;
+
+/**
+ * Reference encoder of binary records read by BinaryFrameParser (same
+ * algorithm as arduino firmware): useful to replay or simulate a bms without
+ * hardware
+ */
+public class BinaryFrameEncoder {
+    public static final int MAX_ENCODED_LENGTH = Cobs.maxEncodedLength(
+            BinaryFrameParser.TIMED_RECORD_LENGTH) + 1;  // with delimiter
+    private final byte[] record = new byte[BinaryFrameParser
+            .TIMED_RECORD_LENGTH];
+
+    /**
+     * Encodes record and appends delimiter
+     *
+     * @param type        sample type code
+     * @param bms         number of bms broadcasting value (0 - 255)
+     * @param cell        number of cell (0 - 255), 0 if not a voltage
+     * @param value       value to quantize
+     * @param destination where to write encoded frame
+     * @param offset      index of first byte to write
+     * @return number of bytes written
+     */
+    public int encode(int type, int bms, int cell, double value, byte[]
+            destination, int offset) {
+        return encode(type, bms, cell, value, -1, -1, destination, offset);
+    }
+
+    /**
+     * Encodes record with frame counter and board clock, appends delimiter
+     *
+     * @param type        sample type code
+     * @param bms         number of bms broadcasting value (0 - 255)
+     * @param cell        number of cell (0 - 255), 0 if not a voltage
+     * @param value       value to quantize
+     * @param sequence    frame counter (0 - 65535), -1 not to send it
+     * @param timestamp   board clock (ms, 32 bit), -1 not to send it (needs
+     *                    a sequence)
+     * @param destination where to write encoded frame
+     * @param offset      index of first byte to write
+     * @return number of bytes written
+     */
+    public int encode(int type, int bms, int cell, double value, int
+            sequence, long timestamp, byte[] destination, int offset) {
+        long quantized = Math.round(value / BinaryFrameParser.getResolution(
+                type));
+        quantized = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                quantized));
+
+        record[0] = (byte) type;
+        record[1] = (byte) bms;
+        record[2] = (byte) Math.max(cell, 0);
+        record[3] = (byte) (quantized >> 8);
+        record[4] = (byte) quantized;
+
+        int length = BinaryFrameParser.RECORD_LENGTH - 1;
+        if (sequence >= 0) {
+            record[length++] = (byte) (sequence >> 8);
+            record[length++] = (byte) sequence;
+            if (timestamp >= 0) {
+                record[length++] = (byte) (timestamp >> 24);
+                record[length++] = (byte) (timestamp >> 16);
+                record[length++] = (byte) (timestamp >> 8);
+                record[length++] = (byte) timestamp;
+            }
+        }
+        record[length] = (byte) Checksums.crc8(record, 0, length);
+        length++;
+
+        length = Cobs.encode(record, 0, length, destination, offset);
+        destination[offset + length] = Cobs.DELIMITER;
+        return length + 1;
+    }
+
+    /**
+     * Value of a status record (see BinaryFrameParser)
+     *
+     * @param code     status code (e.g BinaryFrameParser.STATUS_COMMAND)
+     * @param argument argument of code (0 - 255), e.g command letter
+     * @return value to encode with type BmsSample.TYPE_STATUS
+     */
+    public static int statusValue(int code, int argument) {
+        return (code << 8) | (argument & 0xFF);
+    }
+
+    /**
+     * Encodes record in new array
+     *
+     * @param type  sample type code
+     * @param bms   number of bms broadcasting value
+     * @param cell  number of cell, 0 if not a voltage
+     * @param value value to quantize
+     * @return encoded frame (with delimiter)
+     */
+    public byte[] encode(int type, int bms, int cell, double value) {
+        byte[] frame = new byte[MAX_ENCODED_LENGTH];
+        int length = encode(type, bms, cell, value, frame, 0);
+        byte[] result = new byte[length];
+        System.arraycopy(frame, 0, result, 0, length);
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import com.raceup.ed.bms.models.stream.frame.Cobs;
+import com.raceup.ed.bms.utils.Checksums;
+
+/**
+ * Parses COBS encoded binary records (zero delimited):
+ * [channel][bms][cell][value MSB][value LSB][crc8]
+ * Channel is the sample type code, value is a signed 16 bit quantized value
+ * (see getResolution) and crc8 covers all previous bytes.
+ * Longer records insert before crc8 a 16 bit frame counter
+ * (SEQUENCED_RECORD_LENGTH), then a 32 bit board clock in ms
+ * (TIMED_RECORD_LENGTH), both big endian.
+ * Value of status records is a code (MSB) and its argument (LSB), turned
+ * back into the text of json statuses: STATUS_COMMAND acknowledges the
+ * command letter in argument (e.g "B"), STATUS_BLEED acknowledges bleed
+ * times of bms of record (e.g "BP 3"). Other codes are kept as numbers.
+ */
+public class BinaryFrameParser implements FrameParser {
+    public static final int RECORD_LENGTH = 6;  // bytes, decoded
+    public static final int SEQUENCED_RECORD_LENGTH = 8;  // with counter
+    public static final int TIMED_RECORD_LENGTH = 12;  // with counter, clock
+    public static final int MAX_FRAME_LENGTH = 16;  // bytes, encoded
+    public static final double VOLTAGE_RESOLUTION = 1.0;  // mV
+    public static final double TEMPERATURE_RESOLUTION = 0.01;  // C°
+    public static final double CURRENT_RESOLUTION = 0.1;  // A
+    public static final int STATUS_COMMAND = 0x01;  // argument: letter
+    public static final int STATUS_BLEED = 0x02;  // argument unused
+    public static final String BLEED_STATUS = "BP";  // followed by bms
+    private final byte[] record = new byte[MAX_FRAME_LENGTH];
+    private long frames = 0;
+    private long malformedFrames = 0;
+    private long corruptedFrames = 0;
+
+    /**
+     * Value of least significant bit of quantized value of channel
+     *
+     * @param type sample type code
+     * @return resolution of channel
+     */
+    public static double getResolution(int type) {
+        switch (type) {
+            case BmsSample.TYPE_VOLTAGE:
+                return VOLTAGE_RESOLUTION;
+            case BmsSample.TYPE_TEMPERATURE_1:
+            case BmsSample.TYPE_TEMPERATURE_2:
+                return TEMPERATURE_RESOLUTION;
+            case BmsSample.TYPE_CURRENT:
+                return CURRENT_RESOLUTION;
+            default:
+                return 1.0;
+        }
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    @Override
+    public long getCorruptedFrames() {
+        return corruptedFrames;
+    }
+
+    @Override
+    public boolean parse(byte[] frame, int length, BmsSample sample) {
+        frames++;
+        if (length > MAX_FRAME_LENGTH || !parseRecord(frame, length, sample)) {
+            malformedFrames++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Turns status code back into text of json status
+     *
+     * @param bms    number of bms of record
+     * @param status code (MSB) and argument (LSB)
+     * @return text acknowledging command, number of status if unknown
+     */
+    private static String statusOf(int bms, int status) {
+        switch ((status >> 8) & 0xFF) {
+            case STATUS_COMMAND:
+                return String.valueOf((char) (status & 0xFF));
+            case STATUS_BLEED:
+                return BLEED_STATUS + " " + bms;
+            default:
+                return Integer.toString(status);
+        }
+    }
+
+    private boolean parseRecord(byte[] frame, int length, BmsSample sample) {
+        int decoded = Cobs.decode(frame, length, record);
+        if (decoded != RECORD_LENGTH && decoded != SEQUENCED_RECORD_LENGTH &&
+                decoded != TIMED_RECORD_LENGTH) {
+            return false;
+        }
+
+        int crc = record[decoded - 1] & 0xFF;
+        if (crc != Checksums.crc8(record, 0, decoded - 1)) {
+            corruptedFrames++;
+            return false;
+        }
+
+        int type = record[0] & 0xFF;
+        int bms = record[1] & 0xFF;
+        int cell = record[2] & 0xFF;
+        int quantized = (short) (((record[3] & 0xFF) << 8) | (record[4] &
+                0xFF));
+
+        switch (type) {
+            case BmsSample.TYPE_VOLTAGE:
+                if (cell < 1) {
+                    return false;
+                }
+                sample.set(type, bms, cell, quantized * VOLTAGE_RESOLUTION);
+                break;
+            case BmsSample.TYPE_TEMPERATURE_1:
+            case BmsSample.TYPE_TEMPERATURE_2:
+                sample.set(type, bms, -1, quantized *
+                        TEMPERATURE_RESOLUTION);
+                break;
+            case BmsSample.TYPE_CURRENT:
+                sample.set(type, bms, -1, quantized * CURRENT_RESOLUTION);
+                break;
+            case BmsSample.TYPE_STATUS:
+                sample.setStatus(bms, statusOf(bms, quantized));
+                break;
+            default:
+                sample.set(BmsSample.TYPE_UNKNOWN, bms, -1, Double.NaN);
+                break;  // well formed, not interesting
+        }
+
+        int sequence = decoded >= SEQUENCED_RECORD_LENGTH ? ((record[5] &
+                0xFF) << 8) | (record[6] & 0xFF) : -1;
+        long timestamp = decoded >= TIMED_RECORD_LENGTH ? ((record[7] &
+                0xFFL) << 24) | ((record[8] & 0xFF) << 16) | ((record[9] &
+                0xFF) << 8) | (record[10] & 0xFF) : -1;
+        sample.setFrameInfo(sequence, timestamp);
+        return true;
+    }
+}
@@ -25,11 +25,17 @@ public class BmsData {
     private final String value;  // value of bms of segment
     private final String type;  // type of data
     private final int bms;  // number of bms broadcasting value
+    private final int channel;  // code of type, resolved once
     public static final String TYPE_KEY = "type";
     public static final String BMS_KEY = "BMS";
     public static final String VALUE_KEY = "value";
     public static final String VOLTAGE_KEY = "voltage";
     public static final String TEMPERATURE_KEY = "temperature";
+    public static final String STATUS_KEY = "status";
+    public static final String CURRENT_KEY = "current";  // of pack
+    public static final String SEQUENCE_KEY = "seq";  // optional
+    public static final String TIMESTAMP_KEY = "ts";  // optional
+    public static final String CRC_KEY = "crc";  // optional, last key
 
     /**
      * Create and set params of new data
@@ -38,9 +44,21 @@ public class BmsData {
      * @param value   value of bms of segment
      */
     public BmsData(String type, String bms, String value) {
+        this(type, Integer.parseInt(bms), value);
+    }
+
+    /**
+     * Create and set params of new data
+     *
+     * @param type  type of data
+     * @param bms   number of bms broadcasting value
+     * @param value value of bms of segment
+     */
+    public BmsData(String type, int bms, String value) {
         this.type = type;
-        this.bms = Integer.parseInt(bms);
+        this.bms = bms;
         this.value = value;
+        this.channel = ChannelRegistry.getDefault().resolve(type);
     }
 
     /**
@@ -62,7 +80,7 @@ public class BmsData {
      * @return True iff data represents a log
      */
     public boolean isStatusType() {
-        return getType().equals("status");
+        return getTypeCode() == BmsSample.TYPE_STATUS;
     }
 
     /**
@@ -71,7 +89,13 @@ public class BmsData {
      * @return True iff data is a temperature value
      */
     public boolean isTemperature() {
-        return getType().startsWith(TEMPERATURE_KEY);
+        switch (getTypeCode()) {
+            case BmsSample.TYPE_TEMPERATURE_1:
+            case BmsSample.TYPE_TEMPERATURE_2:
+                return true;
+            default:
+                return false;
+        }
     }
 
     /**
@@ -80,7 +104,7 @@ public class BmsData {
      * @return True iff data is a voltage value
      */
     public boolean isVoltage() {
-        return getType().startsWith(VOLTAGE_KEY);
+        return getTypeCode() == BmsSample.TYPE_VOLTAGE;
     }
 
     /**
@@ -89,7 +113,15 @@ public class BmsData {
      * @return True iff data is a value
      */
     public boolean isValueType() {
-        return isTemperature() || isVoltage();
+        switch (getTypeCode()) {
+            case BmsSample.TYPE_VOLTAGE:
+            case BmsSample.TYPE_TEMPERATURE_1:
+            case BmsSample.TYPE_TEMPERATURE_2:
+            case BmsSample.TYPE_CURRENT:
+                return true;
+            default:
+                return false;
+        }
     }
 
     /**
@@ -101,6 +133,24 @@ public class BmsData {
         return type;
     }
 
+    /**
+     * Code of type in channel registry
+     *
+     * @return channel code
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Sample type of data (see BmsSample)
+     *
+     * @return sample type code
+     */
+    public int getTypeCode() {
+        return ChannelRegistry.getDefault().getType(channel);
+    }
+
     /**
      * Getter for bms
      *
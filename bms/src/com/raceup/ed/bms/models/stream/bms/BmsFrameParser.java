@@ -0,0 +1,483 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import com.raceup.ed.bms.utils.Checksums;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.raceup.ed.bms.models.stream.bms.BmsData.BMS_KEY;
+import static com.raceup.ed.bms.models.stream.bms.BmsData.CRC_KEY;
+import static com.raceup.ed.bms.models.stream.bms.BmsData.SEQUENCE_KEY;
+import static com.raceup.ed.bms.models.stream.bms.BmsData.TIMESTAMP_KEY;
+import static com.raceup.ed.bms.models.stream.bms.BmsData.TYPE_KEY;
+import static com.raceup.ed.bms.models.stream.bms.BmsData.VALUE_KEY;
+
+/**
+ * Parses json frames like {"type": "voltage_3", "BMS": "2", "value": "3650"}
+ * directly from bytes into a reusable sample.
+ * Values can be quoted or not, keys can come in any order and unknown keys
+ * are skipped. Only status frames allocate (their text).
+ * Optional keys: "seq" (frame counter, 0 - 65535), "ts" (board clock, ms)
+ * and "crc" (CRC-16/CCITT-FALSE of all bytes before the comma preceding
+ * it, must be the last key).
+ */
+public class BmsFrameParser implements FrameParser {
+    private static final byte[] TYPE = ascii(TYPE_KEY);
+    private static final byte[] BMS = ascii(BMS_KEY);
+    private static final byte[] VALUE = ascii(VALUE_KEY);
+    private static final byte[] SEQUENCE = ascii(SEQUENCE_KEY);
+    private static final byte[] TIMESTAMP = ascii(TIMESTAMP_KEY);
+    private static final byte[] CRC = ascii(CRC_KEY);
+    private static final int MAX_SEQUENCE = 0xFFFF;
+    private static final int MAX_MANTISSA_DIGITS = 18;  // fit in a long
+    private static final double[] POWERS_OF_TEN = new double[23];
+    private static final int INVALID = Integer.MIN_VALUE;
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private byte[] frame;
+    private int end;  // index after last byte of frame
+    private int position;  // cursor
+    private int tokenStart;  // bounds of last string or value read
+    private int tokenEnd;
+    private long frames = 0;
+    private long malformedFrames = 0;
+    private long corruptedFrames = 0;
+    private final ChannelRegistry channels = ChannelRegistry.getDefault();
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Number of frames given to parser
+     *
+     * @return number of frames
+     */
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Number of frames that could not be parsed
+     *
+     * @return number of malformed frames
+     */
+    @Override
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    /**
+     * Number of frames whose crc does not match
+     *
+     * @return number of corrupted frames
+     */
+    @Override
+    public long getCorruptedFrames() {
+        return corruptedFrames;
+    }
+
+    /**
+     * Parses frame
+     *
+     * @param frame  buffer containing frame
+     * @param length number of bytes of frame
+     * @param sample where to write parsed data
+     * @return True iff frame is well formed (sample is unchanged otherwise)
+     */
+    @Override
+    public boolean parse(byte[] frame, int length, BmsSample sample) {
+        this.frame = frame;
+        this.end = length;
+        this.position = 0;
+        frames++;
+
+        boolean parsed = parseObject(sample);
+        if (!parsed) {
+            malformedFrames++;
+        }
+
+        this.frame = null;
+        return parsed;
+    }
+
+    private boolean parseObject(BmsSample sample) {
+        int typeStart = -1, typeEnd = -1;
+        int bmsStart = -1, bmsEnd = -1;
+        int valueStart = -1, valueEnd = -1;
+        int sequenceStart = -1, sequenceEnd = -1;
+        int timestampStart = -1, timestampEnd = -1;
+        int crcStart = -1, crcEnd = -1;
+        int separator = -1;  // index of last comma between members
+        int covered = -1;  // number of bytes covered by crc
+
+        skipWhitespace();
+        if (!consume('{')) {
+            return false;
+        }
+
+        boolean closed = false;
+        while (!closed) {
+            if (crcStart >= 0) {
+                return false;  // crc must be last
+            }
+            skipWhitespace();
+            if (!readString()) {
+                return false;
+            }
+            int keyStart = tokenStart;
+            int keyEnd = tokenEnd;
+
+            skipWhitespace();
+            if (!consume(':')) {
+                return false;
+            }
+            skipWhitespace();
+            if (!readValue()) {
+                return false;
+            }
+
+            if (equalsBytes(keyStart, keyEnd, TYPE)) {
+                typeStart = tokenStart;
+                typeEnd = tokenEnd;
+            } else if (equalsBytes(keyStart, keyEnd, BMS)) {
+                bmsStart = tokenStart;
+                bmsEnd = tokenEnd;
+            } else if (equalsBytes(keyStart, keyEnd, VALUE)) {
+                valueStart = tokenStart;
+                valueEnd = tokenEnd;
+            } else if (equalsBytes(keyStart, keyEnd, SEQUENCE)) {
+                sequenceStart = tokenStart;
+                sequenceEnd = tokenEnd;
+            } else if (equalsBytes(keyStart, keyEnd, TIMESTAMP)) {
+                timestampStart = tokenStart;
+                timestampEnd = tokenEnd;
+            } else if (equalsBytes(keyStart, keyEnd, CRC)) {
+                crcStart = tokenStart;
+                crcEnd = tokenEnd;
+                covered = separator;
+            }
+
+            skipWhitespace();
+            separator = position;
+            if (consume('}')) {
+                closed = true;
+            } else if (!consume(',')) {
+                return false;
+            }
+        }
+
+        skipWhitespace();
+        if (position != end || typeStart < 0 || bmsStart < 0 || valueStart <
+                0) {
+            return false;
+        }
+
+        if (crcStart >= 0 && !checkCrc(covered, crcStart, crcEnd)) {
+            corruptedFrames++;
+            return false;
+        }
+
+        int bms = parseInt(bmsStart, bmsEnd);
+        if (bms == INVALID || bms < 0) {
+            return false;
+        }
+
+        int sequence = -1;
+        if (sequenceStart >= 0) {
+            sequence = parseInt(sequenceStart, sequenceEnd);
+            if (sequence < 0 || sequence > MAX_SEQUENCE) {
+                return false;  // INVALID is negative too
+            }
+        }
+
+        long timestamp = -1;
+        if (timestampStart >= 0) {
+            timestamp = parseLong(timestampStart, timestampEnd);
+            if (timestamp < 0) {
+                return false;
+            }
+        }
+
+        if (!parseSample(typeStart, typeEnd, bms, valueStart, valueEnd,
+                sample)) {
+            return false;
+        }
+        sample.setFrameInfo(sequence, timestamp);
+        return true;
+    }
+
+    /**
+     * Compares crc sent with crc of frame
+     *
+     * @param covered  number of bytes covered by crc
+     * @param crcStart bounds of crc value
+     * @param crcEnd   bounds of crc value
+     * @return True iff crc matches
+     */
+    private boolean checkCrc(int covered, int crcStart, int crcEnd) {
+        if (covered <= 0) {
+            return false;  // nothing protected
+        }
+
+        int crc = parseInt(crcStart, crcEnd);
+        return crc == Checksums.crc16(frame, 0, covered);
+    }
+
+    private boolean parseSample(int typeStart, int typeEnd, int bms, int
+            valueStart, int valueEnd, BmsSample sample) {
+        int channel = channels.resolve(frame, typeStart, typeEnd);
+        int type = channels.getType(channel);
+        switch (type) {
+            case BmsSample.TYPE_STATUS:
+                sample.setStatus(bms, new String(frame, valueStart, valueEnd -
+                        valueStart, StandardCharsets.US_ASCII));
+                return true;
+            case BmsSample.TYPE_UNKNOWN:
+                sample.set(BmsSample.TYPE_UNKNOWN, bms, -1, Double.NaN);
+                return true;  // well formed, not interesting
+        }
+
+        int cell = channels.getIndex(channel);  // -1 if not a voltage
+        double value = parseDouble(valueStart, valueEnd);
+        if (Double.isNaN(value)) {
+            return false;
+        }
+
+        sample.set(type, bms, cell, value);
+        return true;
+    }
+
+    /*
+     * Tokens
+     */
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte current = frame[position];
+            if (current != ' ' && current != '\t' && current != '\r' &&
+                    current != '\n') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        if (position < end && frame[position] == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads quoted string, token bounds exclude quotes
+     *
+     * @return True iff a string was found
+     */
+    private boolean readString() {
+        if (!consume('"')) {
+            return false;
+        }
+
+        tokenStart = position;
+        while (position < end) {
+            byte current = frame[position];
+            if (current == '\\') {
+                position += 2;  // skip escaped char
+            } else if (current == '"') {
+                tokenEnd = position;
+                position++;
+                return true;
+            } else {
+                position++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads quoted string or bare literal (number, true ...)
+     *
+     * @return True iff a value was found
+     */
+    private boolean readValue() {
+        if (position < end && frame[position] == '"') {
+            return readString();
+        }
+
+        tokenStart = position;
+        while (position < end) {
+            byte current = frame[position];
+            if (current == ',' || current == '}' || current == ' ' ||
+                    current == '\t') {
+                break;
+            }
+            position++;
+        }
+        tokenEnd = position;
+        return tokenEnd > tokenStart;
+    }
+
+    private boolean equalsBytes(int start, int stop, byte[] expected) {
+        return stop - start == expected.length && startsWithBytes(start,
+                stop, expected);
+    }
+
+    private boolean startsWithBytes(int start, int stop, byte[] prefix) {
+        if (stop - start < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (frame[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Numbers
+     */
+
+    private int parseInt(int start, int stop) {
+        if (start >= stop || stop - start > 9) {
+            return INVALID;
+        }
+
+        boolean negative = frame[start] == '-';
+        int i = negative || frame[start] == '+' ? start + 1 : start;
+        if (i == stop) {
+            return INVALID;
+        }
+
+        int result = 0;
+        for (; i < stop; i++) {
+            int digit = frame[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses non negative integer that may not fit in an int
+     *
+     * @return parsed number or -1 if malformed
+     */
+    private long parseLong(int start, int stop) {
+        if (start >= stop || stop - start > MAX_MANTISSA_DIGITS) {
+            return -1;
+        }
+
+        long result = 0;
+        for (int i = start; i < stop; i++) {
+            if (!isDigit(frame[i])) {
+                return -1;
+            }
+            result = result * 10 + (frame[i] - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Parses decimal number (with optional fraction and exponent)
+     *
+     * @return parsed number or NaN if malformed
+     */
+    private double parseDouble(int start, int stop) {
+        int i = start;
+        boolean negative = false;
+        if (i < stop && (frame[i] == '-' || frame[i] == '+')) {
+            negative = frame[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < stop && isDigit(frame[i]); i++) {
+            anyDigit = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (frame[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;  // too many digits: drop precision
+            }
+        }
+
+        if (i < stop && frame[i] == '.') {
+            i++;
+            for (; i < stop && isDigit(frame[i]); i++) {
+                anyDigit = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (frame[i] - '0');
+                    exponent--;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                }
+            }
+        }
+
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+
+        if (i < stop && (frame[i] == 'e' || frame[i] == 'E')) {
+            int explicitExponent = parseInt(i + 1, stop);
+            if (explicitExponent == INVALID) {
+                return Double.NaN;
+            }
+            exponent += explicitExponent;
+            i = stop;
+        }
+
+        if (i != stop) {
+            return Double.NaN;
+        }
+
+        double result = mantissa;
+        if (exponent > 0) {
+            result *= exponent < POWERS_OF_TEN.length ?
+                    POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+        } else if (exponent < 0) {
+            result /= -exponent < POWERS_OF_TEN.length ?
+                    POWERS_OF_TEN[-exponent] : Math.pow(10, -exponent);
+        }
+        return negative ? -result : result;
+    }
+
+    private static boolean isDigit(byte character) {
+        return character >= '0' && character <= '9';
+    }
+}
@@ -30,7 +30,17 @@ public class BmsLog extends BmsData {
      * @param data generic data type
      */
     public BmsLog(BmsData data) {
-        super(data.getType(), Integer.toString(data.getBms()), data.getRawValue());
+        this(data.getBms(), data.getRawValue());
+    }
+
+    /**
+     * Create log from status sent by bms
+     *
+     * @param bms    number of bms broadcasting status
+     * @param status raw status
+     */
+    public BmsLog(int bms, String status) {
+        super(STATUS_KEY, bms, status);
         time = System.currentTimeMillis();
     }
 
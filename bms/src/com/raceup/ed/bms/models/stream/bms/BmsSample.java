@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+/**
+ * Mutable sample coming from arduino: reused by parser for every frame
+ */
+public class BmsSample {
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_VOLTAGE = 1;
+    public static final int TYPE_TEMPERATURE_1 = 2;
+    public static final int TYPE_TEMPERATURE_2 = 3;
+    public static final int TYPE_STATUS = 4;
+    public static final int TYPE_CURRENT = 5;  // of pack, not of a bms
+    private int type = TYPE_UNKNOWN;  // type of data
+    private int bms;  // number of bms broadcasting value (from 1)
+    private int cell;  // number of cell (from 1), -1 if not a voltage
+    private double value;
+    private String status;  // only set when type is status
+    private int sequence = -1;  // frame counter of board, -1 if not sent
+    private long timestamp = -1;  // board clock (ms), -1 if not sent
+
+    /**
+     * Sets all fields of sample
+     *
+     * @param type  type code of data
+     * @param bms   number of bms broadcasting value
+     * @param cell  number of cell (-1 if not a voltage)
+     * @param value value of data
+     */
+    public void set(int type, int bms, int cell, double value) {
+        this.type = type;
+        this.bms = bms;
+        this.cell = cell;
+        this.value = value;
+        this.status = null;
+        this.sequence = -1;
+        this.timestamp = -1;
+    }
+
+    /**
+     * Sets sample as a status log
+     *
+     * @param bms    number of bms broadcasting status
+     * @param status raw status
+     */
+    public void setStatus(int bms, String status) {
+        set(TYPE_STATUS, bms, -1, Double.NaN);
+        this.status = status;
+    }
+
+    /**
+     * Moves sample to another bms (e.g when merging many boards in one pack)
+     *
+     * @param offset number added to bms
+     */
+    public void shiftBms(int offset) {
+        bms += offset;
+    }
+
+    /**
+     * Sets optional frame fields (after set or setStatus)
+     *
+     * @param sequence  frame counter of board (-1 if not sent)
+     * @param timestamp board clock when frame was sent (ms, -1 if not sent)
+     */
+    public void setFrameInfo(int sequence, long timestamp) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getBms() {
+        return bms;
+    }
+
+    public int getCell() {
+        return cell;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Check if current sample is a battery bms value
+     *
+     * @return True iff sample is a voltage, a temperature or a current
+     */
+    public boolean isValueType() {
+        switch (type) {
+            case TYPE_VOLTAGE:
+            case TYPE_TEMPERATURE_1:
+            case TYPE_TEMPERATURE_2:
+            case TYPE_CURRENT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check if current sample is a bms log
+     *
+     * @return True iff sample represents a log
+     */
+    public boolean isStatusType() {
+        return type == TYPE_STATUS;
+    }
+}
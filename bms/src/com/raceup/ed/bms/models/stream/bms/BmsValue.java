@@ -26,7 +26,7 @@ public class BmsValue extends BmsData {
      * @param data generic data type
      */
     public BmsValue(BmsData data) {
-        super(data.getType(), Integer.toString(data.getBms()), data.getRawValue());
+        super(data.getType(), data.getBms(), data.getRawValue());
     }
 
     /**
@@ -35,7 +35,7 @@ public class BmsValue extends BmsData {
      * @return True iff data is a temperature value of type 1
      */
     public boolean isTemperature1() {
-        return getType().equals(TEMPERATURE_KEY + "_1");
+        return getTypeCode() == BmsSample.TYPE_TEMPERATURE_1;
     }
 
     /**
@@ -44,7 +44,7 @@ public class BmsValue extends BmsData {
      * @return True iff data is a temperature value of type 2
      */
     public boolean isTemperature2() {
-        return getType().equals(TEMPERATURE_KEY + "_2");
+        return getTypeCode() == BmsSample.TYPE_TEMPERATURE_2;
     }
 
     /**
@@ -56,12 +56,12 @@ public class BmsValue extends BmsData {
         return Double.parseDouble(getRawValue());
     }
 
+    /**
+     * Number of cell of voltage
+     *
+     * @return number of cell (from 1), -1 if not a voltage
+     */
     public int getCell() {
-        if (isVoltage()) {
-            String rawCell = getType().split("_")[1];
-            return Integer.parseInt(rawCell);
-        }
-
-        return -1;
+        return ChannelRegistry.getDefault().getIndex(getChannel());
     }
 }
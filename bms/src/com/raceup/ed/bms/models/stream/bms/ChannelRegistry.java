@@ -0,0 +1,326 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns channel names (e.g "voltage_3", "temperature_1") to small integer
+ * codes. A name is resolved once, the first time it is seen: then a lookup
+ * is a hash and a byte comparison, and callers switch on the sample type
+ * of the channel.
+ * New kinds of channels are added with registerChannel (exact name) or
+ * registerFamily (prefix followed by an index, from 1 to MAX_INDEX).
+ * Interning copies the table, so it is bounded: indexes out of range are
+ * unknown names, at most MAX_UNKNOWN_CHANNELS unknown names are kept and
+ * no name is kept past MAX_CHANNELS (garbage resolves to UNKNOWN_CHANNEL).
+ */
+public class ChannelRegistry {
+    public static final int UNKNOWN_CHANNEL = 0;  // names of no known kind
+    public static final int MAX_INDEX = 255;  // in family (e.g cell of bms)
+    private static final int MAX_CHANNELS = 4096;  // then names not kept
+    private static final int MAX_UNKNOWN_CHANNELS = 1024;
+    private static final ChannelRegistry DEFAULT = new ChannelRegistry();
+    private final HashMap<String, Integer> channelTypes = new HashMap<>();
+    private final HashMap<String, Integer> familyTypes = new HashMap<>();
+    private volatile Table table = new Table();  // replaced on every intern
+    private int unknownChannels = 0;  // names of no known kind interned
+
+    static {
+        DEFAULT.registerFamily(BmsData.VOLTAGE_KEY + "_", BmsSample
+                .TYPE_VOLTAGE);
+        DEFAULT.registerChannel(BmsData.TEMPERATURE_KEY + "_1", BmsSample
+                .TYPE_TEMPERATURE_1);
+        DEFAULT.registerChannel(BmsData.TEMPERATURE_KEY + "_2", BmsSample
+                .TYPE_TEMPERATURE_2);
+        DEFAULT.registerChannel(BmsData.STATUS_KEY, BmsSample.TYPE_STATUS);
+        DEFAULT.registerChannel(BmsData.CURRENT_KEY, BmsSample.TYPE_CURRENT);
+    }
+
+    /**
+     * Registry of channels sent by arduino
+     *
+     * @return shared registry
+     */
+    public static ChannelRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds channel kind with a single channel
+     *
+     * @param name name of channel
+     * @param type sample type code of channel
+     */
+    public synchronized void registerChannel(String name, int type) {
+        channelTypes.put(name, type);
+        reclassifyUnknownChannels();
+    }
+
+    /**
+     * Adds channel kind with many indexed channels (e.g cells)
+     *
+     * @param prefix name of channels before index
+     * @param type   sample type code of channels
+     */
+    public synchronized void registerFamily(String prefix, int type) {
+        familyTypes.put(prefix, type);
+        reclassifyUnknownChannels();
+    }
+
+    /**
+     * Unknown channels may belong to a kind registered later (codes do not
+     * change)
+     */
+    private void reclassifyUnknownChannels() {
+        Table current = table;
+        int[] types = current.types.clone();
+        int[] indexes = current.indexes.clone();
+        unknownChannels = 0;
+        for (int channel = 1; channel < current.size; channel++) {
+            if (types[channel] == BmsSample.TYPE_UNKNOWN) {
+                long kind = classify(current.names[channel]);
+                types[channel] = (int) (kind >> 32);
+                indexes[channel] = (int) kind;
+                if (types[channel] == BmsSample.TYPE_UNKNOWN) {
+                    unknownChannels++;
+                }
+            }
+        }
+        table = new Table(current.names, current.keys, types, indexes,
+                current.size);
+    }
+
+    /**
+     * Finds kind of channel
+     *
+     * @param name name of channel
+     * @return sample type code (high 32 bits) and index (low 32 bits)
+     */
+    private long classify(String name) {
+        int type = BmsSample.TYPE_UNKNOWN;
+        int index = -1;
+        Integer channelType = channelTypes.get(name);
+        if (channelType != null) {
+            type = channelType;
+        } else {
+            for (Map.Entry<String, Integer> family : familyTypes.entrySet()) {
+                if (name.startsWith(family.getKey())) {
+                    int familyIndex = parseIndex(name, family.getKey()
+                            .length());
+                    if (familyIndex > 0) {
+                        type = family.getValue();
+                        index = familyIndex;
+                    }
+                    break;
+                }
+            }
+        }
+        return ((long) type << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds code of channel name (never allocates once name is known)
+     *
+     * @param bytes ascii name
+     * @param start index of first byte of name
+     * @param end   index after last byte of name
+     * @return channel code
+     */
+    public int resolve(byte[] bytes, int start, int end) {
+        Table current = table;
+        int channel = current.find(bytes, start, end);
+        if (channel >= 0) {
+            return channel;
+        }
+        return intern(new String(bytes, start, end - start,
+                StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Finds code of channel name
+     *
+     * @param name name of channel
+     * @return channel code
+     */
+    public int resolve(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        return resolve(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Sample type of channel (see BmsSample)
+     *
+     * @param channel channel code
+     * @return sample type code
+     */
+    public int getType(int channel) {
+        return table.types[channel];
+    }
+
+    /**
+     * Index of channel in its family (e.g cell)
+     *
+     * @param channel channel code
+     * @return index (from 1), -1 if channel has no index
+     */
+    public int getIndex(int channel) {
+        return table.indexes[channel];
+    }
+
+    public String getName(int channel) {
+        return table.names[channel];
+    }
+
+    /**
+     * Assigns code to new name (slow path)
+     *
+     * @param name name of channel
+     * @return channel code
+     */
+    private synchronized int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        int channel = table.find(bytes, 0, bytes.length);
+        if (channel >= 0) {
+            return channel;  // interned by another thread meanwhile
+        }
+
+        long kind = classify(name);
+        int type = (int) (kind >> 32);
+        boolean unknown = type == BmsSample.TYPE_UNKNOWN;
+        if (table.size >= MAX_CHANNELS || unknown && unknownChannels >=
+                MAX_UNKNOWN_CHANNELS) {
+            return UNKNOWN_CHANNEL;  // do not grow on garbage
+        }
+
+        table = table.with(name, bytes, type, (int) kind);
+        if (unknown) {
+            unknownChannels++;
+        }
+        return table.size - 1;
+    }
+
+    /**
+     * Parses index after prefix
+     *
+     * @return index, -1 if not a number from 1 to MAX_INDEX
+     */
+    private static int parseIndex(String name, int start) {
+        if (start == name.length() || name.length() - start > 3) {
+            return -1;
+        }
+
+        int index = 0;
+        for (int i = start; i < name.length(); i++) {
+            int digit = name.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            index = index * 10 + digit;
+        }
+        return index <= MAX_INDEX ? index : -1;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0x811C9DC5;  // FNV-1a
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Immutable snapshot of interned channels (open addressing on names)
+     */
+    private static class Table {
+        private final String[] names;
+        private final byte[][] keys;
+        private final int[] types;
+        private final int[] indexes;
+        private final int[] slots;  // channel code, -1 if empty
+        private final int size;
+
+        private Table() {
+            this(new String[]{""}, new byte[][]{new byte[0]}, new
+                    int[]{BmsSample.TYPE_UNKNOWN}, new int[]{-1}, 1);
+        }
+
+        private Table(String[] names, byte[][] keys, int[] types, int[]
+                indexes, int size) {
+            this.names = names;
+            this.keys = keys;
+            this.types = types;
+            this.indexes = indexes;
+            this.size = size;
+
+            int capacity = Integer.highestOneBit(Math.max(size, 8)) * 4;
+            slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            for (int channel = 1; channel < size; channel++) {  // not unknown
+                int slot = hash(keys[channel], 0, keys[channel].length) &
+                        (capacity - 1);
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots[slot] = channel;
+            }
+        }
+
+        private int find(byte[] bytes, int start, int end) {
+            int mask = slots.length - 1;
+            int slot = hash(bytes, start, end) & mask;
+            int channel;
+            while ((channel = slots[slot]) >= 0) {
+                if (matches(keys[channel], bytes, start, end)) {
+                    return channel;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static boolean matches(byte[] key, byte[] bytes, int start,
+                                       int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Table with(String name, byte[] key, int type, int index) {
+            String[] newNames = Arrays.copyOf(names, size + 1);
+            byte[][] newKeys = Arrays.copyOf(keys, size + 1);
+            int[] newTypes = Arrays.copyOf(types, size + 1);
+            int[] newIndexes = Arrays.copyOf(indexes, size + 1);
+            newNames[size] = name;
+            newKeys[size] = key;
+            newTypes[size] = type;
+            newIndexes[size] = index;
+            return new Table(newNames, newKeys, newTypes, newIndexes, size +
+                    1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+/**
+ * Something that decodes frames coming from arduino into samples
+ */
+public interface FrameParser {
+    /**
+     * Parses frame
+     *
+     * @param frame  buffer containing frame
+     * @param length number of bytes of frame
+     * @param sample where to write parsed data
+     * @return True iff frame is well formed (sample is unchanged otherwise)
+     */
+    boolean parse(byte[] frame, int length, BmsSample sample);
+
+    /**
+     * Number of frames given to parser
+     *
+     * @return number of frames
+     */
+    long getFrames();
+
+    /**
+     * Number of frames that could not be parsed
+     *
+     * @return number of malformed frames
+     */
+    long getMalformedFrames();
+
+    /**
+     * Number of frames whose checksum does not match (also counted as
+     * malformed)
+     *
+     * @return number of corrupted frames
+     */
+    long getCorruptedFrames();
+}
@@ -0,0 +1,364 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.bms;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of parsed samples between a transport thread (producer) and
+ * the bms thread (consumer). Samples are stored in primitive arrays, so
+ * offering and draining do not allocate. What happens when queue is full
+ * depends on overflow policy.
+ */
+public class SampleQueue {
+    public static final int DEFAULT_CAPACITY = 4096;  // samples
+    private static final int EMPTY_KEY = -1;
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final int[] types;
+    private final int[] bmss;
+    private final int[] cells;
+    private final double[] values;
+    private final String[] statuses;
+    private final int[] keys;  // coalescing key of each slot
+    private final int[] keyTable;  // open addressing: key -> last position
+    private final long[] positionTable;
+    private final int keyTableMask;
+    private int keysUsed = 0;  // entries of key table not empty
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private long head = 0;  // position of oldest sample
+    private long tail = 0;  // position of next sample
+    private boolean closed = false;
+    private volatile long enqueued = 0;
+    private volatile long dropped = 0;
+    private volatile long coalesced = 0;
+
+    public SampleQueue() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.COALESCE_LATEST);
+    }
+
+    /**
+     * Builds new queue
+     *
+     * @param capacity min number of samples in queue (rounded up to power of
+     *                 2)
+     * @param policy   what to do when queue is full
+     */
+    public SampleQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.policy = policy;
+        mask = size - 1;
+        types = new int[size];
+        bmss = new int[size];
+        cells = new int[size];
+        values = new double[size];
+        statuses = new String[size];
+        keys = new int[size];
+
+        int tableSize = policy == OverflowPolicy.COALESCE_LATEST ? Math.max(
+                1024, size * 2) : 1;  // channels pending at the same time
+        keyTable = new int[tableSize];
+        positionTable = new long[tableSize];
+        keyTableMask = tableSize - 1;
+        Arrays.fill(keyTable, EMPTY_KEY);
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Number of samples waiting to be drained
+     *
+     * @return size of queue
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of samples that entered queue (coalesced ones excluded)
+     *
+     * @return number of samples
+     */
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * Number of samples lost because queue was full
+     *
+     * @return number of dropped samples
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Number of samples that replaced a pending sample of same channel
+     *
+     * @return number of coalesced samples
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Adds sample to queue (only producer thread should call this)
+     *
+     * @param sample sample to add (copied)
+     * @return True iff sample is now in queue (possibly coalesced)
+     */
+    public boolean offer(BmsSample sample) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+
+            int key = keyOf(sample);
+            if (policy == OverflowPolicy.COALESCE_LATEST && key !=
+                    EMPTY_KEY && coalesce(key, sample.getValue())) {
+                coalesced++;
+                return true;
+            }
+
+            if (tail - head > mask) {  // full
+                if (policy == OverflowPolicy.BLOCK) {
+                    while (tail - head > mask && !closed) {
+                        notFull.awaitUninterruptibly();
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                } else {
+                    head++;  // drop oldest
+                    dropped++;
+                }
+            }
+
+            int slot = (int) tail & mask;
+            types[slot] = sample.getType();
+            bmss[slot] = sample.getBms();
+            cells[slot] = sample.getCell();
+            values[slot] = sample.getValue();
+            statuses[slot] = sample.getStatus();
+            keys[slot] = key;
+            if (policy == OverflowPolicy.COALESCE_LATEST && key !=
+                    EMPTY_KEY) {
+                remember(key, tail);
+            }
+            tail++;
+            enqueued++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves all pending samples to batch (only consumer thread should call
+     * this), waiting for at least one sample
+     *
+     * @param batch   where to copy samples (cleared first)
+     * @param timeout max time to wait for a sample (ms), 0 not to wait
+     * @return number of samples in batch
+     */
+    public int drainTo(Batch batch, long timeout) {
+        batch.size = 0;
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (tail == head && nanos > 0 && !closed) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            int count = (int) Math.min(tail - head, batch.types.length);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) (head + i) & mask;
+                batch.types[i] = types[slot];
+                batch.bmss[i] = bmss[slot];
+                batch.cells[i] = cells[slot];
+                batch.values[i] = values[slot];
+                batch.statuses[i] = statuses[slot];
+                statuses[slot] = null;
+            }
+            head += count;
+            if (head == tail && keysUsed > 0) {  // no pending sample left
+                Arrays.fill(keyTable, EMPTY_KEY);
+                keysUsed = 0;
+            }
+            batch.size = count;
+            notFull.signal();
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up and rejects producer and consumer (queue cannot be used again)
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Coalescing
+     */
+
+    private static int keyOf(BmsSample sample) {
+        if (!sample.isValueType() || sample.getBms() > 0xFFF || sample
+                .getCell() > 0xFFF) {
+            return EMPTY_KEY;  // logs are never coalesced
+        }
+        return (sample.getType() << 24) | (sample.getBms() << 12) | (sample
+                .getCell() & 0xFFF);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Replaces value of pending sample of same channel
+     *
+     * @return True iff a pending sample was found
+     */
+    private boolean coalesce(int key, double value) {
+        int index = hash(key) & keyTableMask;
+        for (int probe = 0; probe <= keyTableMask; probe++) {
+            int current = keyTable[index];
+            if (current == EMPTY_KEY) {
+                return false;
+            }
+            if (current == key) {
+                long position = positionTable[index];
+                int slot = (int) position & mask;
+                if (position >= head && position < tail && keys[slot] ==
+                        key) {
+                    values[slot] = value;
+                    return true;
+                }
+                return false;
+            }
+            index = (index + 1) & keyTableMask;
+        }
+        return false;
+    }
+
+    /**
+     * Records position of last sample of channel. Entries of samples
+     * already drained are reused, and table is emptied whenever queue is
+     * drained empty, so it never fills up with channels seen long ago.
+     */
+    private void remember(int key, long position) {
+        int index = hash(key) & keyTableMask;
+        for (int probe = 0; probe <= keyTableMask / 2; probe++) {
+            int current = keyTable[index];
+            if (current == EMPTY_KEY || current == key || positionTable[
+                    index] < head) {  // free, same channel or drained
+                if (current == EMPTY_KEY) {
+                    keysUsed++;
+                }
+                keyTable[index] = key;
+                positionTable[index] = position;
+                return;
+            }
+            index = (index + 1) & keyTableMask;
+        }
+        // table crowded: sample is queued but will not be coalesced
+    }
+
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP_OLDEST,
+        COALESCE_LATEST
+    }
+
+    /**
+     * Samples drained at once, reused by consumer
+     */
+    public static class Batch {
+        private final int[] types;
+        private final int[] bmss;
+        private final int[] cells;
+        private final double[] values;
+        private final String[] statuses;
+        private int size = 0;
+
+        public Batch(int capacity) {
+            types = new int[capacity];
+            bmss = new int[capacity];
+            cells = new int[capacity];
+            values = new double[capacity];
+            statuses = new String[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Copies sample of batch
+         *
+         * @param index  index of sample in batch
+         * @param sample where to copy sample
+         */
+        public void get(int index, BmsSample sample) {
+            if (types[index] == BmsSample.TYPE_STATUS) {
+                sample.setStatus(bmss[index], statuses[index]);
+            } else {
+                sample.set(types[index], bmss[index], cells[index],
+                        values[index]);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.frame;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free byte ring buffer with one producer thread and one consumer thread
+ * (e.g serial event thread and bms thread).
+ * Bytes that do not fit are dropped (and counted), the buffer never grows.
+ */
+public class ByteRingBuffer {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;  // bytes
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // next byte to read
+    private final AtomicLong tail = new AtomicLong();  // next byte to write
+    private final AtomicLong droppedBytes = new AtomicLong();
+
+    public ByteRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Builds new ring buffer
+     *
+     * @param capacity min number of bytes buffer can hold (rounded up to
+     *                 power of 2)
+     */
+    public ByteRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Number of bytes ready to be read
+     *
+     * @return bytes in buffer
+     */
+    public int available() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Bytes lost because consumer was too slow
+     *
+     * @return number of dropped bytes
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Copies bytes in buffer (only producer thread should call this)
+     *
+     * @param source bytes to write
+     * @param offset index of first byte to write
+     * @param length number of bytes to write
+     * @return number of bytes actually written
+     */
+    public int write(byte[] source, int offset, int length) {
+        int count = offer(source, offset, length);
+        if (count < length) {
+            droppedBytes.addAndGet(length - count);
+        }
+        return count;
+    }
+
+    public int write(byte[] source) {
+        return write(source, 0, source.length);
+    }
+
+    /**
+     * Copies bytes that fit in buffer, without counting the others as
+     * dropped (only producer thread should call this)
+     *
+     * @param source bytes to write
+     * @param offset index of first byte to write
+     * @param length number of bytes to write
+     * @return number of bytes actually written
+     */
+    public int offer(byte[] source, int offset, int length) {
+        long currentTail = tail.get();
+        int free = buffer.length - (int) (currentTail - head.get());
+        int count = Math.min(free, length);
+
+        int start = (int) currentTail & mask;
+        int firstPart = Math.min(count, buffer.length - start);
+        System.arraycopy(source, offset, buffer, start, firstPart);
+        System.arraycopy(source, offset + firstPart, buffer, 0, count -
+                firstPart);
+        tail.lazySet(currentTail + count);  // publish bytes to consumer
+        return count;
+    }
+
+    /**
+     * Moves bytes out of buffer (only consumer thread should call this)
+     *
+     * @param destination where to copy bytes
+     * @param offset      index of first byte to fill
+     * @param length      max number of bytes to read
+     * @return number of bytes actually read
+     */
+    public int read(byte[] destination, int offset, int length) {
+        long currentHead = head.get();
+        int count = Math.min((int) (tail.get() - currentHead), length);
+
+        int start = (int) currentHead & mask;
+        int firstPart = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, destination, offset, firstPart);
+        System.arraycopy(buffer, 0, destination, offset + firstPart, count -
+                firstPart);
+        head.lazySet(currentHead + count);  // give space back to producer
+        return count;
+    }
+
+    /**
+     * Discards all buffered bytes (only consumer thread should call this)
+     */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+}
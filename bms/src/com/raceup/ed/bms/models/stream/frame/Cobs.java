@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.frame;
+
+/**
+ * Consistent overhead byte stuffing: encoded frames contain no zero byte, so
+ * zero can be used as frame delimiter
+ */
+public class Cobs {
+    public static final byte DELIMITER = 0;
+    private static final int MAX_BLOCK = 0xFF;
+
+    /**
+     * Max length of encoded data
+     *
+     * @param length number of bytes to encode
+     * @return max number of encoded bytes (without delimiter)
+     */
+    public static int maxEncodedLength(int length) {
+        return length + length / (MAX_BLOCK - 1) + 1;
+    }
+
+    /**
+     * Encodes bytes (delimiter is not appended)
+     *
+     * @param source      bytes to encode
+     * @param offset      index of first byte to encode
+     * @param length      number of bytes to encode
+     * @param destination where to write encoded bytes
+     * @param start       index of first byte to write
+     * @return number of encoded bytes
+     */
+    public static int encode(byte[] source, int offset, int length, byte[]
+            destination, int start) {
+        int codeIndex = start;  // where to write length of current block
+        int write = start + 1;
+        int code = 1;
+        for (int i = offset; i < offset + length; i++) {
+            if (source[i] == 0) {
+                destination[codeIndex] = (byte) code;
+                codeIndex = write++;
+                code = 1;
+            } else {
+                destination[write++] = source[i];
+                code++;
+                if (code == MAX_BLOCK) {
+                    destination[codeIndex] = (byte) code;
+                    codeIndex = write++;
+                    code = 1;
+                }
+            }
+        }
+        destination[codeIndex] = (byte) code;
+        return write - start;
+    }
+
+    /**
+     * Decodes frame (without delimiter)
+     *
+     * @param source      encoded bytes
+     * @param length      number of encoded bytes
+     * @param destination where to write decoded bytes (can be source)
+     * @return number of decoded bytes, -1 if frame is not valid
+     */
+    public static int decode(byte[] source, int length, byte[] destination) {
+        int read = 0;
+        int write = 0;
+        while (read < length) {
+            int code = source[read] & 0xFF;
+            if (code == 0 || read + code > length) {
+                return -1;
+            }
+            read++;
+
+            for (int i = 1; i < code; i++) {
+                destination[write++] = source[read++];
+            }
+            if (code != MAX_BLOCK && read < length) {
+                destination[write++] = 0;
+            }
+        }
+        return write;
+    }
+}
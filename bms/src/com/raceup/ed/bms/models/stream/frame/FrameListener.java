@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.frame;
+
+/**
+ * Something that consumes complete frames coming from a byte stream
+ */
+public interface FrameListener {
+    /**
+     * Handle new complete frame. Frame bytes are valid only during this call
+     * (buffer is reused for next frame).
+     *
+     * @param frame  buffer containing frame (without delimiter)
+     * @param length number of bytes of frame
+     */
+    void onFrame(byte[] frame, int length);
+}
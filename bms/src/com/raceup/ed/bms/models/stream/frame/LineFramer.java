@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.frame;
+
+/**
+ * Splits byte stream in frames ending with delimiter (new line by default).
+ * Partial frames are kept between drains, buffers are allocated only once.
+ */
+public class LineFramer {
+    public static final byte NEW_LINE = '\n';
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 256;  // bytes
+    private static final int CHUNK_LENGTH = 4096;  // bytes read at once
+    private static final byte CARRIAGE_RETURN = '\r';
+    private final byte delimiter;
+    private final byte[] chunk = new byte[CHUNK_LENGTH];
+    private final byte[] frame;
+    private int frameLength = 0;  // bytes of partial frame
+    private boolean overflow = false;  // true iff skipping until delimiter
+    private long frames = 0;
+    private long oversizedFrames = 0;
+
+    public LineFramer() {
+        this(DEFAULT_MAX_FRAME_LENGTH, NEW_LINE);
+    }
+
+    /**
+     * Builds new framer
+     *
+     * @param maxFrameLength longer frames are discarded
+     * @param delimiter      byte ending each frame
+     */
+    public LineFramer(int maxFrameLength, byte delimiter) {
+        this.frame = new byte[maxFrameLength];
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Number of complete frames found so far
+     *
+     * @return number of frames
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Number of frames discarded because longer than max frame length
+     *
+     * @return number of oversized frames
+     */
+    public long getOversizedFrames() {
+        return oversizedFrames;
+    }
+
+    /**
+     * Reads all available bytes and hands complete frames to listener
+     *
+     * @param input    stream of bytes
+     * @param listener who consumes frames
+     * @return number of frames found
+     */
+    public int drain(ByteRingBuffer input, FrameListener listener) {
+        int found = 0;
+        int read;
+        while ((read = input.read(chunk, 0, chunk.length)) > 0) {
+            found += push(chunk, 0, read, listener);
+        }
+        return found;
+    }
+
+    /**
+     * Feeds bytes to framer and hands complete frames to listener
+     *
+     * @param bytes    stream of bytes
+     * @param offset   index of first byte
+     * @param length   number of bytes
+     * @param listener who consumes frames
+     * @return number of frames found
+     */
+    public int push(byte[] bytes, int offset, int length, FrameListener
+            listener) {
+        int found = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte current = bytes[i];
+            if (current == delimiter) {
+                if (overflow) {
+                    overflow = false;
+                } else if (endFrame(listener)) {
+                    found++;
+                }
+                frameLength = 0;
+            } else if (!overflow) {
+                if (frameLength < frame.length) {
+                    frame[frameLength++] = current;
+                } else {
+                    overflow = true;  // skip rest of frame
+                    oversizedFrames++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Discards partial frame (e.g when stream is re-opened)
+     */
+    public void reset() {
+        frameLength = 0;
+        overflow = false;
+    }
+
+    private boolean endFrame(FrameListener listener) {
+        int length = frameLength;
+        if (delimiter == NEW_LINE && length > 0 && frame[length - 1] ==
+                CARRIAGE_RETURN) {
+            length--;
+        }
+
+        if (length == 0) {
+            return false;
+        }
+
+        frames++;
+        listener.onFrame(frame, length);
+        return true;
+    }
+}
@@ -17,47 +17,83 @@
 
 package com.raceup.ed.bms.models.stream.serial;
 
-import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.stream.transport.AbstractTransport;
+import com.raceup.ed.bms.models.stream.transport.Transport;
 import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
- * Manage Arduino byte stream
+ * Manage Arduino byte stream (jSSC serial transport)
  */
-public class ArduinoSerial extends Debugger implements SerialPortEventListener {
+public class ArduinoSerial extends AbstractTransport implements
+        SerialPortEventListener {
     private static final String TAG = "ArduinoSerial";
-    // between 2 updates
-    private static final int WAIT_TIME = 100;
+    private static final Set<String> OPEN_PORTS = ConcurrentHashMap
+            .newKeySet();
     protected final int BAUD_RATE;  // reading baud rate
-    private volatile String rawBuffer = "";
-    private SerialPort serialPort;  // serial port reading raw data from
-    // arduino
+    private final String requestedPort;  // null to use first available port
+    private volatile SerialPort serialPort;  // serial port reading raw data
+    // from arduino
 
     /**
-     * Create new arduino binding with default baud rate
+     * Create new arduino binding on first available port
      *
      * @param BAUD_RATE symbol read rate
      */
     public ArduinoSerial(int BAUD_RATE) {
-        super("ARDUINO SERIAL", true);
+        this(null, BAUD_RATE);
+    }
+
+    /**
+     * Create new arduino binding (port is opened by open)
+     *
+     * @param port      name of port, null to use first available port
+     * @param BAUD_RATE symbol read rate
+     */
+    public ArduinoSerial(String port, int BAUD_RATE) {
+        super("ARDUINO SERIAL", port == null ? "serial" : port);
+        this.requestedPort = port;
         this.BAUD_RATE = BAUD_RATE;  // baud rate to read data
+    }
 
-        try {
-            setup();
-        } catch (Exception e) {
-            logException(e);
-        }
+    @Override
+    public String getName() {
+        SerialPort port = serialPort;
+        return port != null ? port.getPortName() : super.getName();
+    }
+
+    @Override
+    public boolean isOpen() {
+        SerialPort port = serialPort;
+        return port != null && port.isOpened();
+    }
+
+    /**
+     * Check if port is used by an arduino binding of this app
+     *
+     * @param port name of port
+     * @return True iff port is open
+     */
+    public static boolean isPortInUse(String port) {
+        return OPEN_PORTS.contains(port);
     }
 
     public void close() {
         System.out.println("close port");
         try {
-            serialPort.closePort();
+            if (serialPort != null) {
+                OPEN_PORTS.remove(serialPort.getPortName());
+                serialPort.closePort();
+            }
         } catch (Throwable t) {
             System.err.println(t.toString());
         }
@@ -65,61 +101,105 @@ public class ArduinoSerial extends Debugger implements SerialPortEventListener {
 
     /**
      * Finds arduino port, attach to it
+     *
+     * @throws IOException when no port can be opened
      */
-    public void setup() {
-        String port = findPort();
-        configureSerialPortOrFail(port);
+    @Override
+    public void open() throws IOException {
+        try {
+            String port = requestedPort != null ? requestedPort : findPort();
+            configureSerialPortOrFail(port);
+        } catch (NoSuchElementException e) {
+            throw new IOException("No serial port available", e);
+        }
     }
 
     /**
-     * Search for arduino port
+     * Search for arduino port (first port not used by other bindings)
      *
      * @return port to read arduino from
      */
     private String findPort() throws NoSuchElementException {
+        String[] freePorts = findFreePorts();
+        if (freePorts.length == 0) {
+            throw new NoSuchElementException("No free serial port");
+        }
+        return freePorts[0];
+    }
+
+    /**
+     * Rescans serial ports (board may come back on another port after a
+     * reset or a cable bump)
+     *
+     * @return ports plugged now and not used by other bindings
+     */
+    private static String[] findFreePorts() {
+        String[] availablePorts;
         try {
             PortFinder finder = new PortFinder();
-            String[] availablePorts = finder.getAvailablePorts();
-            return availablePorts[0];
+            availablePorts = finder.getAvailablePorts();
         } catch (Throwable t) {
-            throw new NoSuchElementException(t.toString());
+            return new String[0];  // no serial support
         }
+
+        int count = 0;
+        for (String port : availablePorts) {
+            if (!isPortInUse(port)) {
+                availablePorts[count++] = port;
+            }
+        }
+        return Arrays.copyOf(availablePorts, count);
+    }
+
+    /**
+     * One binding for each free port, at same baud rate
+     *
+     * @return bindings to probe (not open)
+     */
+    @Override
+    public Transport[] getReconnectCandidates() {
+        String[] freePorts = findFreePorts();
+        Transport[] candidates = new Transport[freePorts.length];
+        for (int i = 0; i < freePorts.length; i++) {
+            candidates[i] = new ArduinoSerial(freePorts[i], BAUD_RATE);
+        }
+        return candidates;
     }
 
     /**
      * Open serial port, use class name for the appName, and set parameters
      *
      * @param port is name of port to configure
+     * @throws IOException when port cannot be configured
      */
-    private void configureSerialPortOrFail(String port) {
+    private void configureSerialPortOrFail(String port) throws IOException {
         try {
             System.out.println("[" + TAG + "]: connecting to " + port);
-            serialPort = new SerialPort(port);
+            SerialPort candidate = new SerialPort(port);
             System.out.println("[" + TAG + "]: port opened " +
-                    serialPort.openPort());
-            System.out.println("[" + TAG + "]: params set " + serialPort
+                    candidate.openPort());
+            System.out.println("[" + TAG + "]: params set " + candidate
                     .setParams(BAUD_RATE, 8, 1, 0));
-            serialPort.addEventListener(this);  // add event listeners
+            serialPort = candidate;
+            OPEN_PORTS.add(port);
+            candidate.addEventListener(this);  // add event listeners
         } catch (Exception e) {
             System.err.println(TAG + " has encountered some errors in " +
                     "configuring serial port");
             System.err.println(e.toString());
+            close();
+            throw new IOException(e);
         }
     }
 
-    public String[] getRawData() {
-        String[] lines = rawBuffer.split("\n");
-        rawBuffer = "";
-        return lines;
-    }
-
     @Override
     public void serialEvent(SerialPortEvent event) {
         if (event.isRXCHAR() && event.getEventValue() > 0) {
             try {
-                String receivedData = serialPort.readString(event.getEventValue());
+                byte[] receivedData = serialPort.readBytes(event
+                        .getEventValue());
                 if (receivedData != null) {
-                    rawBuffer += receivedData;
+                    onReceive(receivedData, 0, receivedData.length);
                 }
             } catch (SerialPortException ex) {
             }
@@ -130,28 +210,22 @@ public class ArduinoSerial extends Debugger implements SerialPortEventListener {
      * Sends data via serial to Arduino
      *
      * @param data data to send
+     * @throws IOException when port is closed or write fails
      */
-    public void sendSerialData(String data) throws SerialPortException {
-        serialPort.writeBytes(data.getBytes());
-    }
-
-    public void sendSerialData(String data, int maxTimes) {
-        int attemptNumber = 0;
-        while (attemptNumber < maxTimes) {
-            try {
-                sendSerialData(data);
-                Thread.sleep(WAIT_TIME);
-            } catch (Exception e) {
-            }
-            attemptNumber += 1;
+    @Override
+    public void write(byte[] data) throws IOException {
+        SerialPort port = serialPort;
+        if (port == null) {
+            throw new IOException("Serial port not open");
         }
 
-        if (attemptNumber == maxTimes) {
-            logError("Max # of attempts reached! Giving up sending" +
-                    " Arduino command");
-        } else {
-            logAction("Attempt # " + attemptNumber + " successful! " +
-                    "Sent Arduino command!");
+        try {
+            if (!port.writeBytes(data)) {
+                throw new IOException("Cannot write to " + port
+                        .getPortName());
+            }
+        } catch (SerialPortException e) {
+            throw new IOException(e);
         }
     }
 
@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import com.raceup.ed.bms.logging.Debugger;
+import com.raceup.ed.bms.models.stream.frame.ByteRingBuffer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport with a receive buffer filled by its own thread
+ */
+public abstract class AbstractTransport extends Debugger implements Transport {
+    private static final long WAIT_FOR_SPACE = 1000 * 1000;  // ns
+    private final String name;
+    private final ByteRingBuffer receiveBuffer = new ByteRingBuffer();
+    private volatile Runnable receiveListener = () -> {
+    };
+
+    protected AbstractTransport(String tag, String name) {
+        super(tag, true);
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public ByteRingBuffer getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+    @Override
+    public void setReceiveListener(Runnable listener) {
+        this.receiveListener = listener;
+    }
+
+    /**
+     * Stores bytes received from board, dropping what does not fit (like a
+     * real UART would do)
+     *
+     * @param data   bytes received
+     * @param offset index of first byte
+     * @param length number of bytes
+     */
+    protected void onReceive(byte[] data, int offset, int length) {
+        receiveBuffer.write(data, offset, length);
+        receiveListener.run();
+    }
+
+    /**
+     * Stores bytes received from board, waiting for consumer to make space
+     * (for sources that can be slowed down, e.g files)
+     *
+     * @param data   bytes received
+     * @param offset index of first byte
+     * @param length number of bytes
+     */
+    protected void onReceiveFully(byte[] data, int offset, int length) {
+        int written = 0;
+        while (written < length && isOpen()) {
+            written += receiveBuffer.offer(data, offset + written, length -
+                    written);
+            receiveListener.run();
+            if (written < length) {
+                LockSupport.parkNanos(WAIT_FOR_SPACE);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * In-memory transport: bytes are fed by a producer thread (e.g a simulated
+ * board or a load generator), commands are handed to a listener
+ */
+public class PipeTransport extends AbstractTransport {
+    private final boolean lossless;
+    private volatile boolean open = false;
+    private volatile Consumer<byte[]> commandListener = data -> {
+    };
+
+    /**
+     * Create new pipe
+     *
+     * @param name     name of link
+     * @param lossless True to make feed wait for consumer when buffer is
+     *                 full, false to drop bytes like a real UART
+     */
+    public PipeTransport(String name, boolean lossless) {
+        super("PIPE", name);
+        this.lossless = lossless;
+    }
+
+    public PipeTransport() {
+        this("pipe", true);
+    }
+
+    /**
+     * Sets who receives commands written to pipe
+     *
+     * @param commandListener consumer of commands
+     */
+    public void setCommandListener(Consumer<byte[]> commandListener) {
+        this.commandListener = commandListener;
+    }
+
+    /**
+     * Pushes bytes as if they were received from a board (only one producer
+     * thread should call this)
+     *
+     * @param data   bytes to push
+     * @param offset index of first byte
+     * @param length number of bytes
+     */
+    public void feed(byte[] data, int offset, int length) {
+        if (lossless) {
+            onReceiveFully(data, offset, length);
+        } else {
+            onReceive(data, offset, length);
+        }
+    }
+
+    public void feed(byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        if (!open) {
+            throw new IOException("Pipe not open");
+        }
+        commandListener.accept(data);
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
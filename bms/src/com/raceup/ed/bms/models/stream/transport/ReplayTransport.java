@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded bms stream from file, at fixed rate or as fast as the
+ * consumer can go
+ */
+public class ReplayTransport extends AbstractTransport implements Runnable {
+    private static final int CHUNK_LENGTH = 1024;  // bytes read at once
+    private static final long NANOS_PER_SECOND = 1000L * 1000L * 1000L;
+    private final File file;
+    private final int bytesPerSecond;
+    private final boolean loop;
+    private volatile boolean open = false;
+    private volatile boolean finished = false;
+
+    /**
+     * Create new replayer (file is read by open)
+     *
+     * @param file           recorded stream
+     * @param bytesPerSecond replay rate, 0 or less to replay as fast as
+     *                       possible (without losing bytes)
+     * @param loop           True to restart from beginning at end of file
+     */
+    public ReplayTransport(File file, int bytesPerSecond, boolean loop) {
+        super("REPLAY", file.getName());
+        this.file = file;
+        this.bytesPerSecond = bytesPerSecond;
+        this.loop = loop;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (!file.canRead()) {
+            throw new IOException("Cannot read " + file.getPath());
+        }
+
+        open = true;
+        finished = false;
+        Thread reader = new Thread(this, "replay " + getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Check if whole file has been replayed
+     *
+     * @return True iff replay is over (never if looping)
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        if (!open) {
+            throw new IOException("Replay not open");
+        }
+        // commands have no effect on a recording
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[CHUNK_LENGTH];
+        long start = System.nanoTime();
+        long sent = 0;
+        try {
+            do {
+                try (InputStream input = new BufferedInputStream(new
+                        FileInputStream(file))) {
+                    int read;
+                    while (open && (read = input.read(chunk)) >= 0) {
+                        if (bytesPerSecond > 0) {
+                            sent += read;
+                            waitUntil(start + sent * NANOS_PER_SECOND /
+                                    bytesPerSecond);
+                            onReceive(chunk, 0, read);
+                        } else {
+                            onReceiveFully(chunk, 0, read);
+                        }
+                    }
+                }
+            } while (open && loop);
+        } catch (IOException e) {
+            logException(e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        long delay;
+        while (open && (delay = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+    }
+}
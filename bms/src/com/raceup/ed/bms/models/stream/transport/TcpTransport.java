@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Reads bms stream from a TCP server (e.g serial-to-network bridge)
+ */
+public class TcpTransport extends AbstractTransport implements Runnable {
+    private static final int CONNECT_TIMEOUT = 2000;  // ms
+    private static final int CHUNK_LENGTH = 4096;  // bytes read at once
+    private final String host;
+    private final int port;
+    private volatile Socket socket;
+    private OutputStream output;
+
+    /**
+     * Create new client (socket is opened by open)
+     *
+     * @param host address of server
+     * @param port port of server
+     */
+    public TcpTransport(String host, int port) {
+        super("TCP", host + ":" + port);
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Same server: a bridge usually comes back on the same address
+     *
+     * @return new client towards same server
+     */
+    @Override
+    public Transport[] getReconnectCandidates() {
+        return new Transport[]{new TcpTransport(host, port)};
+    }
+
+    @Override
+    public void open() throws IOException {
+        Socket candidate = new Socket();
+        candidate.setTcpNoDelay(true);
+        candidate.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        output = candidate.getOutputStream();
+        socket = candidate;
+
+        Thread reader = new Thread(this, "tcp " + getName());
+        reader.setDaemon(true);
+        reader.start();
+        logAction("connected to " + getName());
+    }
+
+    @Override
+    public boolean isOpen() {
+        Socket current = socket;
+        return current != null && current.isConnected() && !current
+                .isClosed();
+    }
+
+    @Override
+    public synchronized void write(byte[] data) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Socket not open");
+        }
+        output.write(data);
+        output.flush();
+    }
+
+    @Override
+    public void close() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                logException(e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[CHUNK_LENGTH];
+        try {
+            InputStream input = socket.getInputStream();
+            int read;
+            while ((read = input.read(chunk)) >= 0) {
+                onReceive(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            if (isOpen()) {
+                logException(e);
+            }
+        } finally {
+            close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import com.raceup.ed.bms.models.stream.frame.ByteRingBuffer;
+
+import java.io.IOException;
+
+/**
+ * Link with a bms board: bytes received are written in a ring buffer (by
+ * transport thread), commands are written to the board
+ */
+public interface Transport {
+    /**
+     * Name of link (e.g port or address)
+     *
+     * @return human readable name
+     */
+    String getName();
+
+    /**
+     * Connects to board and starts receiving bytes
+     *
+     * @throws IOException when board cannot be reached
+     */
+    void open() throws IOException;
+
+    /**
+     * Check if link is up
+     *
+     * @return True iff transport is open
+     */
+    boolean isOpen();
+
+    /**
+     * Bytes received and not yet consumed
+     *
+     * @return buffer written by transport thread
+     */
+    ByteRingBuffer getReceiveBuffer();
+
+    /**
+     * Sets who is notified (on transport thread) after new bytes are written
+     * in receive buffer
+     *
+     * @param listener consumer of receive buffer
+     */
+    void setReceiveListener(Runnable listener);
+
+    /**
+     * Sends bytes to board
+     *
+     * @param data bytes to send
+     * @throws IOException when link is down
+     */
+    void write(byte[] data) throws IOException;
+
+    /**
+     * Disconnects from board (transport can be opened again)
+     */
+    void close();
+
+    /**
+     * New transports (not open) that may reach board again after link is
+     * lost, e.g serial ports currently plugged
+     *
+     * @return candidates to probe (empty if none found now), null if link
+     * cannot be recovered (e.g recordings)
+     */
+    default Transport[] getReconnectCandidates() {
+        return null;
+    }
+}
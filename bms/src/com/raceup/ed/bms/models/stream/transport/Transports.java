@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.models.stream.transport;
+
+import com.raceup.ed.bms.models.stream.serial.ArduinoSerial;
+
+import java.io.File;
+
+/**
+ * Utils methods to build transports from command line
+ */
+public class Transports {
+    public static final int DEFAULT_BAUD_RATE = 115200;
+    public static final String SERIAL = "serial";
+    public static final String TCP = "tcp";
+    public static final String REPLAY = "replay";
+    public static final String USAGE = "serial[:PORT[:BAUD]] | " +
+            "tcp:HOST:PORT | replay:FILE[:BYTES_PER_SECOND[:loop]]";
+    private static final String LOOP_OPTION = ":loop";
+
+    /**
+     * Builds transport from description (see USAGE). Only kind is split at
+     * first colon: settings are read from the end, so file names and ports
+     * may contain colons (e.g replay:C:\logs\run.txt:0:loop)
+     *
+     * @param description kind of transport and its settings
+     * @return transport (not open)
+     * @throws IllegalArgumentException when description is not valid
+     */
+    public static Transport parse(String description) {
+        String[] tokens = description.split(":", 2);
+        String settings = tokens.length > 1 ? tokens[1] : "";
+        try {
+            switch (tokens[0]) {
+                case SERIAL:
+                    return parseSerial(settings);
+                case TCP:
+                    return parseTcp(settings);
+                case REPLAY:
+                    return parseReplay(settings);
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad transport " +
+                    description + " (use " + USAGE + ")", e);
+        }
+
+        throw new IllegalArgumentException("Unknown transport " +
+                description + " (use " + USAGE + ")");
+    }
+
+    /**
+     * Builds serial transport from "[PORT[:BAUD]]"
+     */
+    private static Transport parseSerial(String settings) {
+        int baudRate = DEFAULT_BAUD_RATE;
+        int separator = settings.lastIndexOf(':');
+        if (separator >= 0 && isNumber(settings.substring(separator + 1))) {
+            baudRate = Integer.parseInt(settings.substring(separator + 1));
+            settings = settings.substring(0, separator);
+        }
+        return new ArduinoSerial(settings.isEmpty() ? null : settings,
+                baudRate);
+    }
+
+    /**
+     * Builds tcp transport from "HOST:PORT" (e.g [::1]:5000 for IPv6)
+     */
+    private static Transport parseTcp(String settings) {
+        int separator = settings.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("No port in " + settings);
+        }
+        String host = settings.substring(0, separator);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new TcpTransport(host, Integer.parseInt(settings.substring(
+                separator + 1)));
+    }
+
+    /**
+     * Builds replay transport from "FILE[:BYTES_PER_SECOND[:loop]]"
+     */
+    private static Transport parseReplay(String settings) {
+        boolean loop = settings.endsWith(LOOP_OPTION);
+        if (loop) {
+            settings = settings.substring(0, settings.length() - LOOP_OPTION
+                    .length());
+        }
+
+        int bytesPerSecond = 0;
+        int separator = settings.lastIndexOf(':');
+        if (separator >= 0 && isNumber(settings.substring(separator + 1))) {
+            bytesPerSecond = Integer.parseInt(settings.substring(separator +
+                    1));
+            settings = settings.substring(0, separator);
+        } else if (loop) {
+            throw new IllegalArgumentException("No rate before loop");
+        }
+        if (settings.isEmpty()) {
+            throw new IllegalArgumentException("No file to replay");
+        }
+        return new ReplayTransport(new File(settings), bytesPerSecond, loop);
+    }
+
+    private static boolean isNumber(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.ui;
+
+import com.raceup.ed.bms.control.Fleet;
+import com.raceup.ed.bms.models.battery.ChangeSet;
+import com.raceup.ed.bms.models.battery.PackReadout;
+import com.raceup.ed.bms.ui.panel.fleet.PackPanel;
+import org.jfree.ui.ApplicationFrame;
+
+import javax.swing.*;
+
+/**
+ * Overview of a fleet of packs: one row with the summary of each pack,
+ * details of a pack are shown in its own Gui
+ */
+public class FleetGui extends ApplicationFrame implements Runnable {
+    private static final int WAIT_LOOP = 500;  // ms between 2 refreshes
+    private final Fleet fleet;
+    private final PackPanel[] rows;
+    private final ChangeSet[] changes;  // of each pack
+    private final int[] changedBms;
+    private final PackReadout summary = new PackReadout();  // ui thread only
+    private volatile boolean closed = false;
+
+    /**
+     * Prepare overview
+     *
+     * @param fleet packs to show
+     */
+    public FleetGui(Fleet fleet) {
+        super("YOLO Bms fleet");
+
+        this.fleet = fleet;
+        rows = new PackPanel[fleet.getNumberOfPacks()];
+        changes = new ChangeSet[rows.length];
+        int maxBms = 0;
+        for (int pack = 0; pack < rows.length; pack++) {
+            final int current = pack;
+            rows[pack] = new PackPanel(fleet.getName(pack), () ->
+                    showDetails(current));
+            changes[pack] = fleet.getBms(pack).getBatteryPack()
+                    .newChangeSet();
+            maxBms = Math.max(maxBms, changes[pack].getNumberOfBms());
+        }
+        changedBms = new int[maxBms];
+        setupLayout();
+    }
+
+    private void setupLayout() {
+        getContentPane().setLayout(
+                new BoxLayout(getContentPane(), BoxLayout.PAGE_AXIS)
+        );
+        getRootPane().setBorder(
+                BorderFactory.createEmptyBorder(10, 10, 10, 10)
+        );
+
+        for (PackPanel row : rows) {
+            add(row);
+            add(Box.createVerticalStrut(10));
+        }
+        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+    }
+
+    public void open() {
+        fleet.start();
+        pack();
+        setLocation(0, 0);  // top left corner
+        setVisible(true);
+    }
+
+    public void close() {
+        closed = true;
+        fleet.close();
+    }
+
+    /**
+     * Opens ui of a single pack (its loop keeps running on fleet)
+     *
+     * @param pack index of pack in fleet
+     */
+    private void showDetails(int pack) {
+        Gui details = new Gui(fleet.getBms(pack), fleet.getName(pack), false);
+        details.open();
+        new Thread(details, "ui " + fleet.getName(pack)).start();
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                loop();
+                Thread.sleep(WAIT_LOOP);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Refreshes rows from summaries of packs (root aggregates only) that
+     * changed since last loop
+     */
+    public void loop() {
+        for (int pack = 0; pack < rows.length; pack++) {
+            String link = fleet.getBms(pack).getLinkSummary();
+            if (changes[pack].drainBms(changedBms) > 0) {
+                fleet.readSummary(pack, summary);
+                rows[pack].update(summary, link);
+            } else {
+                rows[pack].updateLink(link);
+            }
+        }
+    }
+}
@@ -18,7 +18,19 @@
 package com.raceup.ed.bms.ui;
 
 import com.raceup.ed.bms.control.Bms;
+import com.raceup.ed.bms.control.BmsOperatingMode;
+import com.raceup.ed.bms.models.alarm.AlarmEngine;
+import com.raceup.ed.bms.models.alarm.AlarmEvent;
+import com.raceup.ed.bms.models.alarm.AlarmListener;
+import com.raceup.ed.bms.models.alarm.AlarmRule;
+import com.raceup.ed.bms.models.battery.ChangeSet;
+import com.raceup.ed.bms.models.battery.DeviceReadout;
+import com.raceup.ed.bms.models.battery.OutlierReport;
 import com.raceup.ed.bms.models.battery.Pack;
+import com.raceup.ed.bms.models.battery.PackReadout;
+import com.raceup.ed.bms.models.battery.PackSnapshot;
+import com.raceup.ed.bms.models.battery.ResistanceSpread;
+import com.raceup.ed.bms.models.battery.StatsReadout;
 import com.raceup.ed.bms.ui.panel.data.DataPanel;
 import com.raceup.ed.bms.ui.panel.data.InfoPanel;
 import com.raceup.ed.bms.ui.panel.stream.ModePanel;
@@ -27,10 +39,10 @@ import org.jfree.ui.ApplicationFrame;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowEvent;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
 
 import static com.raceup.ed.bms.utils.Streams.readAllFromStream;
 
@@ -54,15 +66,43 @@ public class Gui extends ApplicationFrame implements Runnable {
     private DataPanel dataPanel;  // ui panels
     private InfoPanel infoPanel = new InfoPanel();
     private Bms bms;
+    private final boolean monitorBms;  // False if bms loop runs elsewhere
     private Thread bmsThread;
+    private volatile boolean closed = false;
+    private PackSnapshot snapshot;  // reused by ui thread on every loop
+    private ChangeSet changes;  // bms changed since last loop
+    private int[] changedBms;
+    private final PackReadout packReadout = new PackReadout();
+    private final DeviceReadout deviceReadout = new DeviceReadout();
+    private final ResistanceSpread resistanceSpread = new ResistanceSpread();
+    private final OutlierReport outliers = new OutlierReport();
+    private long outliersEpoch = -1;  // of outliers shown
+    private volatile AlarmEvent lastAlarm = null;  // set by bms thread
+    private AlarmEvent shownAlarm = null;
+    private int shownRaised = -1;
+    private final AlarmListener alarmListener = this::onAlarm;
+    private final StatsReadout voltageStats = new StatsReadout();
 
     /**
      * Prepare and run ui
      */
     public Gui(Bms bms) {
-        super("YOLO Bms");  // set title
+        this(bms, "YOLO Bms", true);
+    }
+
+    /**
+     * Prepare ui of a pack
+     *
+     * @param bms        monitor of pack
+     * @param title      title of frame
+     * @param monitorBms True to run bms loop (and exit app when closed),
+     *                   False if it already runs (e.g pack of a fleet)
+     */
+    public Gui(Bms bms, String title, boolean monitorBms) {
+        super(title);  // set title
 
         this.bms = bms;
+        this.monitorBms = monitorBms;
         setup();
         setupLayout();  // setup frame manager
     }
@@ -71,7 +111,9 @@ public class Gui extends ApplicationFrame implements Runnable {
      * Start frontend GUI and backend engines
      */
     public void open() {
-        startMonitorBms();
+        if (monitorBms) {
+            startMonitorBms();
+        }
         dataPanel.setVisible(true);
 
         pack();
@@ -81,7 +123,14 @@ public class Gui extends ApplicationFrame implements Runnable {
     }
 
     public void close() {
-        bms.close();
+        closed = true;
+        changes.close();
+        if (bms.getAlarmEngine() != null) {
+            bms.getAlarmEngine().removeListener(alarmListener);
+        }
+        if (monitorBms) {
+            bms.close();
+        }
     }
 
     private void startMonitorBms() {
@@ -94,11 +143,18 @@ public class Gui extends ApplicationFrame implements Runnable {
      */
     private void setup() {
         dataPanel = new DataPanel(bms.getBatteryPack());
+        snapshot = bms.getBatteryPack().newSnapshot();
+        changes = bms.getBatteryPack().newChangeSet();
+        changedBms = new int[changes.getNumberOfBms()];
         modePanel = new ModePanel(bms);
+        if (bms.getAlarmEngine() != null) {
+            bms.getAlarmEngine().addListener(alarmListener);
+        }
 
         setIconImage(appIcon);  // set icon
         System.setProperty(APP_NAME_SETTINGS, "YOLO Bms Desktop");
-        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);  // destroy
+        setDefaultCloseOperation(monitorBms ? WindowConstants
+                .EXIT_ON_CLOSE : WindowConstants.DISPOSE_ON_CLOSE);  // destroy
     }
 
     /**
@@ -207,9 +263,19 @@ public class Gui extends ApplicationFrame implements Runnable {
         new AboutDialog(this, content, title).setVisible(true);
     }
 
+    @Override
+    public void windowClosing(WindowEvent event) {
+        if (monitorBms) {
+            super.windowClosing(event);  // exits app
+        } else {
+            close();
+            dispose();  // fleet goes on
+        }
+    }
+
     @Override
     public void run() {
-        while (true) {
+        while (!closed) {
             try {
                 loop();
                 Thread.sleep(500);
@@ -219,33 +285,90 @@ public class Gui extends ApplicationFrame implements Runnable {
     }
 
     public void loop() {
-        Pack battery = bms.getBatteryPack();
-        HashMap<String, Double> info = battery.getInfoOverall();
-        updateInfoPanel(info);
+        int changed = changes.drainBms(changedBms);  // before reading
+        if (changed > 0) {
+            Pack battery = bms.getBatteryPack();
+            battery.read(snapshot);  // all panels show the same epoch
+            snapshot.readInfoOverall(packReadout);
+            updateInfoPanel(packReadout);
+
+            for (int i = 0; i < changed; i++) {
+                snapshot.readCurrentValues(changedBms[i], deviceReadout);
+                updateBmsDevice(deviceReadout, changedBms[i]);
+                battery.getStore().readVoltageStats(battery.getStore()
+                        .getVoltageStats().getBmsSlot(changedBms[i]),
+                        voltageStats);
+                dataPanel.setVoltageStats(changedBms[i], voltageStats);
+            }
 
-        for (int i = 0; i < battery.getNumberOfBms(); i++) {
-            updateBmsDevice(battery.getCurrentValues(i), i);
+            for (int segment = 0; segment < battery.getNumberOfSegments();
+                 segment++) {
+                snapshot.readResistanceSpread(segment, resistanceSpread);
+                dataPanel.setResistanceSpread(segment, resistanceSpread);
+            }
+        }
+
+        bms.getBatteryPack().readOutliers(outliers);  // detected after drain
+        if (outliers.getEpoch() != outliersEpoch) {
+            outliersEpoch = outliers.getEpoch();
+            infoPanel.setOutliers(outliers);
         }
 
+        updateAlarms(bms.getAlarmEngine());
+
         modePanel.updateStatus(bms.getCurrentStatus());
+        modePanel.updateLink(bms.getLinkSummary());
+        modePanel.updateBalancing(bms.getMode() == BmsOperatingMode
+                .OperatingMode.BALANCE ? bms.getBalancingPlan() : null);
     }
 
-    private void updateInfoPanel(HashMap<String, Double> info) {
-        if (info != null) {
-            infoPanel.setMinVoltage(info.get("min"));
-            infoPanel.setMaxVoltage(info.get("max"));
-            infoPanel.setTotVoltage(info.get("tot") / 1000.0);  // mv -> V
-            infoPanel.setMaxTemperature(info.get("tMax"));
+    /**
+     * Keeps last transition and sounds buzzer when a critical alarm is
+     * raised (bms thread)
+     *
+     * @param event alarm transition
+     */
+    private void onAlarm(AlarmEvent event) {
+        lastAlarm = event;
+        if (event.getType() == AlarmEvent.Type.RAISED && event.getSeverity()
+                == AlarmRule.Severity.CRITICAL) {
+            Toolkit.getDefaultToolkit().beep();
         }
     }
 
-    private void updateBmsDevice(HashMap<String, Double> info, int i) {
-        if (info != null) {
-            dataPanel.setMinVoltage(i, info.get("min"));
-            dataPanel.setMaxVoltage(i, info.get("max"));
-            dataPanel.setAvgVoltage(i, info.get("avg"));
-            dataPanel.setTemperature1(i, info.get("t1"));
-            dataPanel.setTemperature2(i, info.get("t2"));
+    private void updateAlarms(AlarmEngine engine) {
+        if (engine == null) {
+            return;
         }
+
+        int raised = engine.getRaisedCount();
+        AlarmEvent last = lastAlarm;
+        if (raised != shownRaised || last != shownAlarm) {
+            shownRaised = raised;
+            shownAlarm = last;
+            AlarmRule.Severity severity = engine.getHighestSeverity();
+            infoPanel.setAlarms(raised, severity == null ? null : severity
+                    .toString(), last == null ? null : last.toString());
+        }
+    }
+
+    private void updateInfoPanel(PackReadout info) {
+        infoPanel.setMinVoltage(info.getMinVoltage());
+        infoPanel.setMaxVoltage(info.getMaxVoltage());
+        infoPanel.setTotVoltage(info.getTotVoltage() / 1000.0);  // mv -> V
+        infoPanel.setMaxTemperature(info.getMaxTemperature());
+        infoPanel.setTimeToLimit(info.getTimeToLimit(), info.getLimitBms(),
+                info.getLimitSensor(), info.getLimitSlope());
+        infoPanel.setMinSoc(info.getMinSoc());
+    }
+
+    private void updateBmsDevice(DeviceReadout info, int i) {
+        dataPanel.setMinVoltage(i, info.getMinVoltage());
+        dataPanel.setMaxVoltage(i, info.getMaxVoltage());
+        dataPanel.setAvgVoltage(i, info.getAvgVoltage());
+        dataPanel.setTemperature1(i, info.getTemperature1());
+        dataPanel.setTemperature2(i, info.getTemperature2());
+        dataPanel.setStale(i, info.isVoltagesStale(), info
+                .isTemperature1Stale(), info.isTemperature2Stale());
     }
 }
@@ -17,6 +17,8 @@
 package com.raceup.ed.bms.ui.panel.data;
 
 import com.raceup.ed.bms.models.battery.Pack;
+import com.raceup.ed.bms.models.battery.PackSnapshot;
+import com.raceup.ed.bms.models.battery.StatsReadout;
 import com.raceup.ed.bms.ui.frame.chart.ChartFrame;
 
 import javax.swing.*;
@@ -84,6 +86,37 @@ public class Bms extends JPanel {
         temperature2Panel.update(value);
     }
 
+    /**
+     * Greys out values that missed their updates
+     *
+     * @param voltages     True iff any cell is stale
+     * @param temperature1 True iff sensor 1 is stale
+     * @param temperature2 True iff sensor 2 is stale
+     */
+    public void setStale(boolean voltages, boolean temperature1, boolean
+            temperature2) {
+        voltageMinPanel.setStale(voltages);
+        voltageAvgPanel.setStale(voltages);
+        voltageMaxPanel.setStale(voltages);
+        temperature1Panel.setStale(temperature1);
+        temperature2Panel.setStale(temperature2);
+    }
+
+    /**
+     * Shows noise, range in window and quantiles of cells in tooltip
+     *
+     * @param stats statistics of voltages of cells of bms
+     */
+    public void setVoltageStats(StatsReadout stats) {
+        button.setToolTipText(stats.getCount() == 0 ? null : String.format(
+                "<html>Noise (std dev): %.1f mV<br>Window min / max: %.0f / " +
+                        "%.0f mV<br>p5 / p50 / p95: %.0f / %.0f / %.0f mV" +
+                        "</html>", stats.getStandardDeviation(), stats
+                        .getWindowMin(), stats.getWindowMax(), stats
+                        .getQuantile(0.05), stats.getQuantile(0.5), stats
+                        .getQuantile(0.95)));
+    }
+
     /*
      * Setup and update
      */
@@ -131,7 +164,7 @@ public class Bms extends JPanel {
     }
 
     void showVoltageDialog() {
-        final int cells = 6;
+        final int cells = battery.getNumberOfCells(indexInBms);
         final String[] titles = new String[cells];
         for (int i = 0; i < cells; i++) {
             titles[i] = "Cell " + Integer.toString(i + 1) + " (mv)";
@@ -141,9 +174,11 @@ public class Bms extends JPanel {
                 titles);
         dialog.setLocationRelativeTo(null);  // center in screen
 
+        PackSnapshot snapshot = battery.newSnapshot();  // owned by timer
         Timer updater = new Timer(100, e -> {
+            battery.read(snapshot);
             for (int i = 0; i < cells; i++) {
-                dialog.updateOrFail(i, battery.getVoltage(indexInBms, i));
+                dialog.updateOrFail(i, snapshot.getVoltage(indexInBms, i));
             }
         });  // timer to update dialog values
         updater.start();
@@ -156,9 +191,15 @@ public class Bms extends JPanel {
                 (indexInBms + 1) + " temperature", titles);
         dialog.setLocationRelativeTo(null);  // center in screen
 
+        PackSnapshot snapshot = battery.newSnapshot();  // owned by timer
         Timer updater = new Timer(100, e -> {
-            dialog.updateOrFail(0, battery.getTemperature1(indexInBms));
-            dialog.updateOrFail(1, battery.getTemperature2(indexInBms));
+            battery.read(snapshot);  // both sensors of same epoch
+            if (!Double.isNaN(snapshot.getTemperature1(indexInBms))) {
+                dialog.updateOrFail(0, snapshot.getTemperature1(indexInBms));
+            }
+            if (!Double.isNaN(snapshot.getTemperature2(indexInBms))) {
+                dialog.updateOrFail(1, snapshot.getTemperature2(indexInBms));
+            }
         });  // timer to update dialog values
         updater.start();
     }
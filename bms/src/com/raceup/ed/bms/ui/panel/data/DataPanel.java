@@ -18,6 +18,11 @@
 package com.raceup.ed.bms.ui.panel.data;
 
 import com.raceup.ed.bms.models.battery.Pack;
+import com.raceup.ed.bms.models.battery.PackSnapshot;
+import com.raceup.ed.bms.models.battery.PackStore;
+import com.raceup.ed.bms.models.battery.ResistanceSpread;
+import com.raceup.ed.bms.models.battery.StatsReadout;
+import com.raceup.ed.bms.models.stream.bms.BmsSample;
 import com.raceup.ed.bms.models.stream.bms.BmsValue;
 import com.raceup.ed.bms.ui.frame.chart.ChartFrame;
 
@@ -29,15 +34,15 @@ import java.awt.*;
  */
 public class DataPanel extends JPanel {
     private Bms[] bmsDevices;
+    private JLabel[] resistanceSpreads;  // segment -> spread of cells
     private JButton chartButton = new JButton("Show chart");
     private Pack battery;
 
     public DataPanel(Pack battery) {
         super();
         this.battery = battery;
-        int numberOfSegments = battery.getNumberOfSegments();
-        int numberOfBmsPerSegment = battery.getNumberOfBmsPerSegment();
-        bmsDevices = new Bms[numberOfSegments * numberOfBmsPerSegment];
+        bmsDevices = new Bms[battery.getNumberOfBms()];
+        resistanceSpreads = new JLabel[battery.getNumberOfSegments()];
         setup(battery);
     }
 
@@ -50,14 +55,16 @@ public class DataPanel extends JPanel {
         int bms = data.getBms() - 1;
         double value = data.getValue();
 
-        if (data.isTemperature()) {
-            if (data.isTemperature1()) {
+        switch (data.getTypeCode()) {
+            case BmsSample.TYPE_TEMPERATURE_1:
                 bmsDevices[bms].setTemperature1(value);
-            } else if (data.isTemperature2()) {
+                break;
+            case BmsSample.TYPE_TEMPERATURE_2:
                 bmsDevices[bms].setTemperature2(value);
-            }
-        } else if (data.isVoltage()) {
-            bmsDevices[bms].setAvgVoltage(value);
+                break;
+            case BmsSample.TYPE_VOLTAGE:
+                bmsDevices[bms].setAvgVoltage(value);
+                break;
         }
     }
 
@@ -96,6 +103,36 @@ public class DataPanel extends JPanel {
         }
     }
 
+    public void setStale(int bms, boolean voltages, boolean temperature1,
+                         boolean temperature2) {
+        try {
+            bmsDevices[bms].setStale(voltages, temperature1, temperature2);
+        } catch (Exception e) {
+        }
+    }
+
+    public void setVoltageStats(int bms, StatsReadout stats) {
+        try {
+            bmsDevices[bms].setVoltageStats(stats);
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Shows spread of internal resistance of segment, weak cells in red
+     *
+     * @param segment index of segment
+     * @param spread  spread and outliers of cells of segment
+     */
+    public void setResistanceSpread(int segment, ResistanceSpread spread) {
+        try {
+            resistanceSpreads[segment].setText(spread.toString());
+            resistanceSpreads[segment].setForeground(spread.getOutliers() >
+                    0 ? Color.RED : null);
+        } catch (Exception e) {
+        }
+    }
+
     /**
      * Setup ui and widgets
      */
@@ -111,17 +148,20 @@ public class DataPanel extends JPanel {
         add(Box.createRigidArea(new Dimension(0, 10)));
 
         int numberOfSegments = battery.getNumberOfSegments();
-        int numberOfBmsPerSegment = battery.getNumberOfBmsPerSegment();
+        PackStore store = battery.getStore();
         for (int row = 0; row < numberOfSegments; row++) {
             JPanel segment = new JPanel();
             segment.setLayout(new BoxLayout(segment, BoxLayout.X_AXIS));
 
-            for (int column = 0; column < numberOfBmsPerSegment; column++) {
-                int bmsNumber = row * numberOfBmsPerSegment + column;
+            for (int column = 0; column < store.getNumberOfBms(row);
+                 column++) {
+                int bmsNumber = store.getFirstBms(row) + column;
                 bmsDevices[bmsNumber] = new Bms(bmsNumber, battery);
                 segment.add(bmsDevices[bmsNumber]);
                 segment.add(Box.createRigidArea(new Dimension(50, 0)));
             }
+            resistanceSpreads[row] = new JLabel("R: DNF");
+            segment.add(resistanceSpreads[row]);
 
             add(segment, BorderLayout.AFTER_LAST_LINE);
             add(Box.createRigidArea(new Dimension(0, 20)));  // add spacing
@@ -140,8 +180,12 @@ public class DataPanel extends JPanel {
         ChartFrame dialog = new ChartFrame("Battery pack", titles);
         dialog.setLocationRelativeTo(null);  // center in screen
 
+        PackSnapshot snapshot = battery.newSnapshot();  // owned by timer
         Timer updater = new Timer(100, e -> {
-            dialog.updateOrFail(0, battery.getVoltage());
+            battery.read(snapshot);
+            if (!Double.isNaN(snapshot.getVoltage())) {  // nothing read yet
+                dialog.updateOrFail(0, snapshot.getVoltage());
+            }
         });  // timer to update dialog values
         updater.start();
     }
@@ -153,8 +197,12 @@ public class DataPanel extends JPanel {
         ChartFrame dialog = new ChartFrame("Battery pack", titles);
         dialog.setLocationRelativeTo(null);  // center in screen
 
+        PackSnapshot snapshot = battery.newSnapshot();  // owned by timer
         Timer updater = new Timer(100, e -> {
-            dialog.updateOrFail(0, battery.getTemperature());
+            battery.read(snapshot);
+            if (!Double.isNaN(snapshot.getTemperature())) {  // nothing read yet
+                dialog.updateOrFail(0, snapshot.getTemperature());
+            }
         });  // timer to update dialog values
         updater.start();
     }
@@ -1,5 +1,7 @@
 package com.raceup.ed.bms.ui.panel.data;
 
+import com.raceup.ed.bms.models.battery.OutlierReport;
+
 import javax.swing.*;
 import java.awt.*;
 
@@ -21,6 +23,18 @@ public class InfoPanel extends JPanel {
     private final NumAlerter maxTemperature = new NumAlerter(
             "Max temp (C°)", "DNF", TEMPERATURE_BOUNDS, BoxLayout.PAGE_AXIS
     );
+    private final NumAlerter minSoc = new NumAlerter(
+            "Min SoC (%)", "DNF", SOC_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter timeToLimit = new NumAlerter(
+            "Overheat in (s)", "none", TIME_TO_LIMIT_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter alarms = new NumAlerter(
+            "Alarms", "DNF", ALARM_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter outliers = new NumAlerter(
+            "Outlier cells", "DNF", OUTLIER_BOUNDS, BoxLayout.PAGE_AXIS
+    );
 
     public InfoPanel() {
         super();
@@ -29,6 +43,7 @@ public class InfoPanel extends JPanel {
 
     private void setup() {
         setLayout(new BoxLayout(this, BoxLayout.LINE_AXIS));
+        timeToLimit.setTooLowColor(Color.RED);  // warning comes first
 
         add(minVoltage);
         add(Box.createRigidArea(new Dimension(20, 0)));
@@ -38,6 +53,14 @@ public class InfoPanel extends JPanel {
         add(Box.createRigidArea(new Dimension(20, 0)));
         add(maxTemperature);
         add(Box.createRigidArea(new Dimension(20, 0)));
+        add(timeToLimit);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(minSoc);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(outliers);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(alarms);
+        add(Box.createRigidArea(new Dimension(20, 0)));
     }
 
     public void setMinVoltage(double value) {
@@ -55,4 +78,48 @@ public class InfoPanel extends JPanel {
     public void setMaxTemperature(double value) {
         maxTemperature.update(value);
     }
+
+    /**
+     * Shows time before first sensor overheats (tooltip names sensor)
+     *
+     * @param seconds time left (s), NaN if no sensor is heading to limit
+     * @param bms     index of bms of sensor, -1 if none
+     * @param sensor  index of sensor in bms
+     * @param slope   slope of sensor (C° per s)
+     */
+    public void setTimeToLimit(double seconds, int bms, int sensor, double
+            slope) {
+        timeToLimit.update(seconds);
+        timeToLimit.setToolTipText(bms < 0 ? null : String.format(
+                "bms %d temp %d rising %.1f C°/min", bms + 1, sensor + 1,
+                slope * 60.0));
+    }
+
+    public void setMinSoc(double value) {
+        minSoc.update(value);
+    }
+
+    /**
+     * Shows number of raised alarms (worst severity and last transition in
+     * tooltip)
+     *
+     * @param raised   number of raised or latched alarms
+     * @param severity worst severity, null if none
+     * @param last     last transition, null if none
+     */
+    public void setAlarms(int raised, String severity, String last) {
+        alarms.update(raised);
+        alarms.setToolTipText(last == null ? null : (severity == null ?
+                "" : "worst: " + severity + ", ") + "last: " + last);
+    }
+
+    /**
+     * Shows number of cells deviating from their segment (listed in tooltip)
+     *
+     * @param report outliers of last detection
+     */
+    public void setOutliers(OutlierReport report) {
+        outliers.update(report.size());
+        outliers.setToolTipText(report.size() == 0 ? null : report.toString());
+    }
 }
@@ -10,13 +10,19 @@ public class NumAlerter extends JPanel {
     final Color VALUE_TOO_HIGH_COLOR = Color.RED;
     final Color VALUE_NORMAL_COLOR = Color.GREEN;
     final Color VALUE_TOO_LOW_COLOR = Color.CYAN;
+    private Color tooLowColor = VALUE_TOO_LOW_COLOR;
+    final Color STALE_TEXT_COLOR = Color.GRAY;
     private final JLabel text;
+    private final String missingText;  // shown until value is read
     private final double[] bounds;
+    private final Color freshTextColor;
 
     public NumAlerter(String label, String text, double[] bounds, int layout) {
         super();
 
         this.text = new JLabel(text);
+        this.missingText = text;
+        this.freshTextColor = this.text.getForeground();
         this.bounds = bounds;
         setup(label, layout);
     }
@@ -34,9 +40,15 @@ public class NumAlerter extends JPanel {
     /**
      * Update widget with new value
      *
-     * @param value  new value
+     * @param value  new value, NaN if not read yet
      */
     public void update(double value) {
+        if (Double.isNaN(value)) {
+            text.setText(missingText);
+            setBackground(null);  // default background
+            return;
+        }
+
         try {
             text.setText(NUM_FORMAT.format(value));
             updateBackground(value, bounds);
@@ -44,6 +56,24 @@ public class NumAlerter extends JPanel {
         }
     }
 
+    /**
+     * Changes background of values too low (e.g red for countdowns)
+     *
+     * @param color background of values at or below min
+     */
+    public void setTooLowColor(Color color) {
+        tooLowColor = color;
+    }
+
+    /**
+     * Greys out value when it missed its updates
+     *
+     * @param stale True iff value is old
+     */
+    public void setStale(boolean stale) {
+        text.setForeground(stale ? STALE_TEXT_COLOR : freshTextColor);
+    }
+
     /**
      * Changes background on given update series of value
      *
@@ -54,7 +84,7 @@ public class NumAlerter extends JPanel {
         if (value >= bounds[1]) {  // too high
             setBackground(VALUE_TOO_HIGH_COLOR);
         } else if (value <= bounds[0]) {  // too low
-            setBackground(VALUE_TOO_LOW_COLOR);
+            setBackground(tooLowColor);
         } else {  // normal
             setBackground(VALUE_NORMAL_COLOR);
         }
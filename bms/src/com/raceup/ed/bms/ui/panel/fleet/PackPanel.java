@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.ui.panel.fleet;
+
+import com.raceup.ed.bms.models.battery.PackReadout;
+import com.raceup.ed.bms.ui.panel.data.NumAlerter;
+
+import javax.swing.*;
+import java.awt.*;
+
+import static com.raceup.ed.bms.models.battery.BmsDevice.TEMPERATURE_BOUNDS;
+import static com.raceup.ed.bms.models.battery.BmsDevice.TOT_VOLTAGE_BOUNDS;
+import static com.raceup.ed.bms.models.battery.BmsDevice.VOLTAGE_BOUNDS;
+
+/**
+ * Row of fleet overview: summary of one pack and button to show its details
+ */
+public class PackPanel extends JPanel {
+    private final NumAlerter minVoltage = new NumAlerter(
+            "Min volt (mV)", "DNF", VOLTAGE_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter maxVoltage = new NumAlerter(
+            "Max volt (mV)", "DNF", VOLTAGE_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter totVoltage = new NumAlerter(
+            "Tot volt (V)", "DNF", TOT_VOLTAGE_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final NumAlerter maxTemperature = new NumAlerter(
+            "Max temp (C°)", "DNF", TEMPERATURE_BOUNDS, BoxLayout.PAGE_AXIS
+    );
+    private final JLabel linkLabel = new JLabel("-");
+    private final JButton button;
+
+    /**
+     * Builds row of pack
+     *
+     * @param name        name of pack
+     * @param showDetails called when user asks for details of pack
+     */
+    public PackPanel(String name, Runnable showDetails) {
+        super();
+        button = new JButton(name);
+        button.addActionListener(e -> showDetails.run());
+        setup();
+    }
+
+    private void setup() {
+        setLayout(new BoxLayout(this, BoxLayout.LINE_AXIS));
+
+        add(button);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(minVoltage);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(maxVoltage);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(totVoltage);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(maxTemperature);
+        add(Box.createRigidArea(new Dimension(20, 0)));
+        add(linkLabel);
+    }
+
+    /**
+     * Shows new summary of pack
+     *
+     * @param summary overall values of pack
+     * @param link    summary of links of pack
+     */
+    public void update(PackReadout summary, String link) {
+        minVoltage.update(summary.getMinVoltage());
+        maxVoltage.update(summary.getMaxVoltage());
+        totVoltage.update(summary.getTotVoltage() / 1000.0);  // mv -> V
+        maxTemperature.update(summary.getMaxTemperature());
+        updateLink(link);
+    }
+
+    public void updateLink(String link) {
+        linkLabel.setText(link);
+    }
+}
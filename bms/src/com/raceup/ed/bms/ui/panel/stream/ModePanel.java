@@ -2,12 +2,18 @@ package com.raceup.ed.bms.ui.panel.stream;
 
 import com.raceup.ed.bms.control.Bms;
 import com.raceup.ed.bms.control.BmsOperatingMode;
+import com.raceup.ed.bms.control.BmsStreamFormat;
+import com.raceup.ed.bms.models.battery.BalancingPlan;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ItemEvent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 import static com.raceup.ed.bms.control.Bms.OPERATING_MODE;
+import static com.raceup.ed.bms.control.Bms.STREAM_FORMAT;
 
 /**
  * Selects BMS operating mode
@@ -20,9 +26,19 @@ public class ModePanel extends JPanel {
             BmsOperatingMode.OperatingMode.SLEEP,
             BmsOperatingMode.OperatingMode.DEBUG
     };
+    private static final BmsStreamFormat.StreamFormat[] STREAM_FORMATS = new
+            BmsStreamFormat.StreamFormat[]{
+            BmsStreamFormat.StreamFormat.JSON,
+            BmsStreamFormat.StreamFormat.BINARY
+    };
     private JLabel statusLabel = new JLabel("DNF");
+    private JLabel commandLabel = new JLabel("");
+    private JLabel linkLabel = new JLabel("");
+    private JLabel balancingLabel = new JLabel("");
+    private JButton acknowledgeButton = new JButton("Acknowledge alarms");
 
     private JComboBox<String> modeChooser;
+    private JComboBox<String> formatChooser;
 
     public ModePanel(Bms bms) {
         super();
@@ -46,12 +62,44 @@ public class ModePanel extends JPanel {
                     BmsOperatingMode mode = OPERATING_MODE.get(key);
                     String description = mode.getDescription();
                     if (description.equals(item)) {
-                        bms.setMode(key);
+                        commandLabel.setText(description + "...");
+                        bms.setMode(key).whenComplete((status, error) ->
+                                SwingUtilities.invokeLater(() ->
+                                        showCommandResult(description, error)
+                                )
+                        );
                     }
                 }
             }
         });
         modeChooser.setSelectedIndex(0);
+
+        formatChooser = new JComboBox<>();
+        for (BmsStreamFormat.StreamFormat key : STREAM_FORMATS) {
+            formatChooser.addItem(STREAM_FORMAT.get(key).getDescription());
+        }
+
+        formatChooser.addItemListener(itemEvent -> {
+            if (itemEvent.getStateChange() == ItemEvent.SELECTED) {
+                String item = (String) itemEvent.getItem();
+                for (BmsStreamFormat.StreamFormat key : STREAM_FORMATS) {
+                    String description = STREAM_FORMAT.get(key)
+                            .getDescription();
+                    if (description.equals(item)) {
+                        bms.setStreamFormat(key).whenComplete((status,
+                                                               error) ->
+                                SwingUtilities.invokeLater(() ->
+                                        showCommandResult(description, error)
+                                )
+                        );
+                    }
+                }
+            }
+        });
+        formatChooser.setSelectedIndex(0);
+
+        acknowledgeButton.addActionListener(actionEvent -> bms
+                .acknowledgeAlarms());  // latched alarms clear at next loop
     }
 
     private void setupLayout() {
@@ -60,9 +108,53 @@ public class ModePanel extends JPanel {
         add(new JLabel("Select operating mode:"));
         add(Box.createRigidArea(new Dimension(10, 0)));
         add(modeChooser);
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(new JLabel("Stream format:"));
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(formatChooser);
         add(Box.createRigidArea(new Dimension(0, 10)));
         add(new JLabel("Current status:"));
         add(statusLabel);
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(commandLabel);
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(linkLabel);
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(balancingLabel);
+        add(Box.createRigidArea(new Dimension(10, 0)));
+        add(acknowledgeButton);
+    }
+
+    /**
+     * Shows if last command has been acknowledged (on EDT)
+     *
+     * @param description description of command
+     * @param error       why command failed, null if acknowledged
+     */
+    private void showCommandResult(String description, Throwable error) {
+        while ((error instanceof CompletionException || error instanceof
+                ExecutionException) && error.getCause() != null) {
+            error = error.getCause();  // wrapped when many links are sent to
+        }
+
+        if (error == null) {
+            commandLabel.setText(description + " OK");
+        } else if (!(error instanceof CancellationException)) {
+            commandLabel.setText(description + " failed");
+        }
+    }
+
+    /**
+     * Shows target, spread and time left of balancing
+     *
+     * @param plan last plan, null when not balancing
+     */
+    public void updateBalancing(BalancingPlan plan) {
+        balancingLabel.setText(plan == null ? "" : plan.toString());
+    }
+
+    public void updateLink(String summary) {
+        linkLabel.setText(summary);
     }
 
     public void updateStatus(String status) {
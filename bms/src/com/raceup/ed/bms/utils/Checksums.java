@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2016-2018 Race Up Electric Division
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.raceup.ed.bms.utils;
+
+/**
+ * Utils methods to compute checksums of frames
+ */
+public class Checksums {
+    private static final int CRC8_POLYNOMIAL = 0x07;  // CRC-8/SMBUS
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int CRC16_POLYNOMIAL = 0x1021;  // CRC-16/CCITT-FALSE
+    private static final int CRC16_INIT = 0xFFFF;
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < CRC8_TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ CRC8_POLYNOMIAL :
+                        crc << 1;
+            }
+            CRC8_TABLE[i] = crc & 0xFF;
+        }
+
+        for (int i = 0; i < CRC16_TABLE.length; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ CRC16_POLYNOMIAL :
+                        crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /**
+     * Computes CRC-8 (polynomial 0x07, init 0x00) of bytes
+     *
+     * @param bytes  data
+     * @param offset index of first byte
+     * @param length number of bytes
+     * @return checksum (0 - 255)
+     */
+    public static int crc8(byte[] bytes, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ bytes[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Computes CRC-16 (polynomial 0x1021, init 0xFFFF) of bytes
+     *
+     * @param bytes  data
+     * @param offset index of first byte
+     * @param length number of bytes
+     * @return checksum (0 - 65535)
+     */
+    public static int crc16(byte[] bytes, int offset, int length) {
+        int crc = CRC16_INIT;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ bytes[i]) & 0xFF]) &
+                    0xFFFF;
+        }
+        return crc;
+    }
+}